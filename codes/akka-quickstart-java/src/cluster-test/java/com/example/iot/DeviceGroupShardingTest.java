@@ -0,0 +1,63 @@
+package com.example.iot;
+
+import akka.cluster.sharding.ShardRegion;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,4:28 AM
+ * @description device group sharding message extractor test class
+ */
+public class DeviceGroupShardingTest {
+    final DeviceGroupSharding.MessageExtractor extractor = new DeviceGroupSharding.MessageExtractor(10);
+
+    @Test
+    public void testRouteTrackRequestsToTheirGroup() {
+        DeviceManager.RequestTrackDevice track = new DeviceManager.RequestTrackDevice("group", "device");
+        assertEquals("group", extractor.entityId(track));
+        assertSame(track, extractor.entityMessage(track));
+
+        DeviceManager.RequestTrackDevices trackAll =
+                new DeviceManager.RequestTrackDevices("group", new String[]{"device1", "device2"});
+        assertEquals("group", extractor.entityId(trackAll));
+        assertSame(trackAll, extractor.entityMessage(trackAll));
+    }
+
+    @Test
+    public void testUnwrapEnvelopes() {
+        DeviceGroup.RequestDeviceList list = new DeviceGroup.RequestDeviceList(1L);
+        DeviceGroup.GroupEnvelope envelope = new DeviceGroup.GroupEnvelope("group", list);
+        assertEquals("group", extractor.entityId(envelope));
+        assertSame(list, extractor.entityMessage(envelope));
+        assertEquals(DeviceGroupSharding.shardIdOf("group", 10), extractor.shardId(envelope));
+    }
+
+    @Test
+    public void testPlaceAGroupOnTheSameShardWhateverTheMessage() {
+        String shardId = extractor.shardId(new DeviceManager.RequestTrackDevice("group", "device"));
+        assertEquals(shardId, extractor.shardId(new DeviceGroup.GroupEnvelope("group", new DeviceGroup.RequestDeviceList(1L))));
+        // remember entities restarts the group with a StartEntity, which must go to the shard it was on
+        assertEquals(shardId, extractor.shardId(new ShardRegion.StartEntity("group")));
+    }
+
+    @Test
+    public void testKeepShardIdsWithinTheNumberOfShards() {
+        // the hash code of "polygenelubricants" is Integer.MIN_VALUE
+        for (String groupId : new String[]{"", "group", "polygenelubricants", "a much longer group id"}) {
+            int shard = Integer.parseInt(DeviceGroupSharding.shardIdOf(groupId, 10));
+            assertTrue(shard >= 0 && shard < 10);
+        }
+    }
+
+    @Test
+    public void testIgnoreMessagesWithoutAGroup() {
+        assertNull(extractor.entityId("not a group message"));
+        assertNull(extractor.shardId("not a group message"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,4:28 AM
+ * @description sharded device manager test class, on a cluster of one node
+ */
+public class ShardedDeviceManagerTest {
+    static ActorSystem system;
+    static ActorRef region;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("IotCluster", ConfigFactory.parseString(
+                "akka.cluster.seed-nodes = []")
+                .withFallback(ConfigFactory.load("iot-cluster")));
+        Cluster.get(system).join(Cluster.get(system).selfAddress());
+        region = DeviceGroupSharding.start(system);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testQueryGroupsTrackedThroughAnyRouter() {
+        TestKit probe = new TestKit(system);
+        ActorRef router1 = system.actorOf(ShardedDeviceManager.props(region));
+        ActorRef router2 = system.actorOf(ShardedDeviceManager.props(region));
+
+        router1.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(Duration.ofSeconds(10), DeviceManager.DeviceRegistered.class);
+        router1.tell(new DeviceManager.RequestTrackDevices("group2", new String[]{"device1", "device2"}), probe.getRef());
+        probe.expectMsgClass(Duration.ofSeconds(10), DeviceManager.DevicesRegistered.class);
+
+        // the second router learns the groups from the replicated set
+        FiniteDuration timeout = new FiniteDuration(3, TimeUnit.SECONDS);
+        probe.awaitAssert(Duration.ofSeconds(5), () -> {
+            router2.tell(new DeviceManager.RequestAllGroupsTemperatures(1L, timeout), probe.getRef());
+            DeviceManager.RespondAllGroupsTemperatures response =
+                    probe.expectMsgClass(Duration.ofSeconds(5), DeviceManager.RespondAllGroupsTemperatures.class);
+            assertEquals(2, response.temperatures.size());
+            assertEquals(2, response.temperatures.get("group2").size());
+            assertTrue(response.timedOutGroups.isEmpty());
+            return null;
+        });
+    }
+}
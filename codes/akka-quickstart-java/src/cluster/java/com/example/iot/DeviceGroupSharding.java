@@ -0,0 +1,83 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:29 AM
+ * @description runs device groups as cluster sharding entities, one entity per group id
+ *
+ * Devices stay children of their group, so a group and all its devices live on the same node and move together
+ * when the shard is rebalanced, while the groups spread over the cluster. Messages that do not carry a group id
+ * themselves are sent to the region wrapped in a {@link DeviceGroup.GroupEnvelope}, which IotSerializer serializes
+ * together with the wrapped message, so it can be sent to the region of another node.
+ */
+public final class DeviceGroupSharding {
+    public static final String TYPE_NAME = "DeviceGroup";
+
+    private DeviceGroupSharding() {
+    }
+
+    static final class MessageExtractor implements ShardRegion.MessageExtractor {
+        private final int numberOfShards;
+
+        MessageExtractor(int numberOfShards) {
+            this.numberOfShards = numberOfShards;
+        }
+
+        @Override
+        public String entityId(Object message) {
+            if (message instanceof DeviceGroup.GroupEnvelope) {
+                return ((DeviceGroup.GroupEnvelope) message).groupId;
+            } else if (message instanceof DeviceManager.RequestTrackDevice) {
+                return ((DeviceManager.RequestTrackDevice) message).groupId;
+            } else if (message instanceof DeviceManager.RequestTrackDevices) {
+                return ((DeviceManager.RequestTrackDevices) message).groupId;
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public Object entityMessage(Object message) {
+            if (message instanceof DeviceGroup.GroupEnvelope) {
+                return ((DeviceGroup.GroupEnvelope) message).message;
+            } else {
+                return message;
+            }
+        }
+
+        @Override
+        public String shardId(Object message) {
+            String entityId;
+            if (message instanceof ShardRegion.StartEntity) {
+                // needed for remember entities, which restarts the groups of a shard after a rebalance or crash
+                entityId = ((ShardRegion.StartEntity) message).entityId();
+            } else {
+                entityId = entityId(message);
+            }
+            return entityId == null ? null : shardIdOf(entityId, numberOfShards);
+        }
+    }
+
+    static String shardIdOf(String groupId, int numberOfShards) {
+        return String.valueOf(Math.abs(groupId.hashCode() % numberOfShards));
+    }
+
+    /**
+     * Starts the DeviceGroup region on this node, see iot.cluster in iot-cluster.conf.
+     */
+    public static ActorRef start(ActorSystem system) {
+        int numberOfShards = system.settings().config().getInt("iot.cluster.number-of-shards");
+        return ClusterSharding.get(system).start(
+                TYPE_NAME,
+                IotSettings.get(system).withIngestDispatcher(DeviceGroup.entityProps()),
+                ClusterShardingSettings.create(system),
+                new MessageExtractor(numberOfShards));
+    }
+}
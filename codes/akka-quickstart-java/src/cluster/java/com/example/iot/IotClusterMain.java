@@ -0,0 +1,37 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:29 AM
+ * @description main class of iot system in cluster mode, starts one node per given port
+ */
+public class IotClusterMain {
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            startup(new String[]{"2551", "2552", "0"});
+        } else {
+            startup(args);
+        }
+    }
+
+    public static void startup(String[] ports) {
+        for (String port : ports) {
+            // Override the configuration of the port
+            Config config = ConfigFactory.parseString("akka.remote.artery.canonical.port=" + port)
+                    .withFallback(ConfigFactory.load("iot-cluster"));
+
+            ActorSystem system = ActorSystem.create("IotCluster", config);
+
+            system.actorOf(IotSupervisor.props(), "iot-supervisor");
+            ActorRef region = DeviceGroupSharding.start(system);
+            system.actorOf(ShardedDeviceManager.props(region), "device-manager");
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.ddata.DistributedData;
+import akka.cluster.ddata.Key;
+import akka.cluster.ddata.ORSet;
+import akka.cluster.ddata.ORSetKey;
+import akka.cluster.ddata.Replicator;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:29 AM
+ * @description thin DeviceManager for the cluster mode, routes the DeviceManager protocol to the sharded groups
+ *
+ * Creates no groups itself, the DeviceGroup region starts them on whatever node owns their shard. Any number of
+ * these routers can run, one per node is typical. The ids of the groups tracked through any of them are kept in an
+ * ORSet in Distributed Data, so RequestAllGroupsTemperatures covers every group tracked in the cluster, whichever
+ * router it is sent to. The set is replicated in memory, it is lost when the whole cluster stops.
+ */
+public class ShardedDeviceManager extends AbstractActor {
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    final ActorRef region;
+
+    final FiniteDuration batchTimeout;
+
+    static final Key<ORSet<String>> KNOWN_GROUPS_KEY = ORSetKey.create("iot-known-groups");
+
+    final ActorRef replicator = DistributedData.get(getContext().getSystem()).replicator();
+    final Cluster node = Cluster.get(getContext().getSystem());
+
+    public ShardedDeviceManager(ActorRef region) {
+        this.region = region;
+        this.batchTimeout = new FiniteDuration(getContext().getSystem().settings().config()
+                .getDuration("iot.cluster.batch-timeout", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    }
+
+    public static Props props(ActorRef region) {
+        return Props.create(ShardedDeviceManager.class, () -> new ShardedDeviceManager(region));
+    }
+
+    static final class BatchTimeout {
+        final long batchId;
+
+        BatchTimeout(long batchId) {
+            this.batchId = batchId;
+        }
+    }
+
+    // a batch split over several groups, waiting for the acks of its slices
+    static final class PendingBatch {
+        final long requestId;
+        final ActorRef replyTo;
+        int slices;
+        int recorded;
+        int rejected;
+
+        PendingBatch(long requestId, ActorRef replyTo) {
+            this.requestId = requestId;
+            this.replyTo = replyTo;
+        }
+    }
+
+    static final class PendingSlice {
+        final long batchId;
+        final int size;
+
+        PendingSlice(long batchId, int size) {
+            this.batchId = batchId;
+            this.size = size;
+        }
+    }
+
+    // local copy of the replicated set, groups are only ever added
+    final Set<String> knownGroups = new LinkedHashSet<>();
+
+    final Map<Long, PendingBatch> pendingBatches = new HashMap<>();
+    // every slice has its own request id, as acks come from the group entity, not from the region
+    final Map<Long, PendingSlice> pendingSlices = new HashMap<>();
+    long nextBatchId = 0L;
+    long nextSliceId = 0L;
+
+    @Override
+    public void preStart() {
+        replicator.tell(new Replicator.Subscribe<>(KNOWN_GROUPS_KEY, getSelf()), getSelf());
+    }
+
+    private void onTrackDevice(DeviceManager.RequestTrackDevice trackMsg) {
+        addKnownGroup(trackMsg.groupId);
+        region.forward(trackMsg, getContext());
+    }
+
+    private void onTrackDevices(DeviceManager.RequestTrackDevices trackMsg) {
+        addKnownGroup(trackMsg.groupId);
+        region.forward(trackMsg, getContext());
+    }
+
+    // written locally, the replicator gossips it to the other nodes
+    private void addKnownGroup(String groupId) {
+        if (knownGroups.add(groupId)) {
+            replicator.tell(new Replicator.Update<>(KNOWN_GROUPS_KEY, ORSet.create(), Replicator.writeLocal(),
+                    groups -> groups.add(node, groupId)), getSelf());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onKnownGroupsChanged(Replicator.Changed<?> changed) {
+        if (changed.key().equals(KNOWN_GROUPS_KEY)) {
+            knownGroups.addAll(((ORSet<String>) changed.dataValue()).getElements());
+        }
+    }
+
+    private void onRecordTemperatureBatch(DeviceManager.RecordTemperatureBatch batch) {
+        Map<String, int[]> counts = new HashMap<>();
+        for (String groupId : batch.groupIds) {
+            counts.computeIfAbsent(groupId, g -> new int[1])[0]++;
+        }
+        Map<String, DeviceManager.RecordTemperatureBatchSlice> slices = new HashMap<>(counts.size() * 2);
+        for (int i = 0; i < batch.groupIds.length; i++) {
+            int count = counts.get(batch.groupIds[i])[0];
+            slices.computeIfAbsent(batch.groupIds[i], g -> new DeviceManager.RecordTemperatureBatchSlice(count))
+                    .add(batch.deviceIds[i], batch.values[i]);
+        }
+
+        if (slices.isEmpty()) {
+            getSender().tell(new DeviceManager.TemperatureBatchRecorded(batch.requestId, 0, 0), getSelf());
+            return;
+        }
+
+        long batchId = nextBatchId++;
+        PendingBatch pending = new PendingBatch(batch.requestId, getSender());
+        for (Map.Entry<String, DeviceManager.RecordTemperatureBatchSlice> entry : slices.entrySet()) {
+            DeviceManager.RecordTemperatureBatchSlice slice = entry.getValue();
+            long sliceId = nextSliceId++;
+            pendingSlices.put(sliceId, new PendingSlice(batchId, slice.deviceIds.length));
+            pending.slices++;
+            // a group that is not started yet is started by the region, and rejects readings of unknown devices
+            region.tell(new DeviceGroup.GroupEnvelope(entry.getKey(),
+                    new DeviceGroup.RecordTemperatureBatch(
+                            sliceId, slice.deviceIds, slice.values, batch.confirmed)), getSelf());
+        }
+        pendingBatches.put(batchId, pending);
+        getContext().getSystem().scheduler().scheduleOnce(
+                batchTimeout, getSelf(), new BatchTimeout(batchId), getContext().dispatcher(), getSelf());
+    }
+
+    private void onGroupBatchRecorded(DeviceManager.TemperatureBatchRecorded groupAck) {
+        PendingSlice slice = pendingSlices.remove(groupAck.requestId);
+        if (slice == null) {
+            // the batch timed out already
+            return;
+        }
+        PendingBatch pending = pendingBatches.get(slice.batchId);
+        pending.recorded += groupAck.recorded;
+        pending.rejected += groupAck.rejected;
+        if (--pending.slices == 0) {
+            complete(slice.batchId, pending);
+        }
+    }
+
+    private void onBatchTimeout(BatchTimeout timeout) {
+        PendingBatch pending = pendingBatches.get(timeout.batchId);
+        if (pending == null) {
+            return;
+        }
+        // readings of slices that were not acknowledged in time count as rejected
+        pendingSlices.values().removeIf(slice -> {
+            if (slice.batchId == timeout.batchId) {
+                pending.rejected += slice.size;
+                return true;
+            }
+            return false;
+        });
+        log.warning("Batch {} timed out with {} unacknowledged group slices", pending.requestId, pending.slices);
+        complete(timeout.batchId, pending);
+    }
+
+    private void complete(long batchId, PendingBatch pending) {
+        pending.replyTo.tell(new DeviceManager.TemperatureBatchRecorded(
+                pending.requestId, pending.recorded, pending.rejected), getSelf());
+        pendingBatches.remove(batchId);
+    }
+
+    private void onAllGroupsTemperatures(DeviceManager.RequestAllGroupsTemperatures r) {
+        String[] groupIds = knownGroups.toArray(new String[0]);
+        IotSettings settings = IotSettings.get(getContext().getSystem());
+        FiniteDuration timeout = r.timeout != null ? r.timeout : settings.groupQueryTimeout;
+        getContext().actorOf(settings.withQueryDispatcher(
+                ShardedDeviceManagerQuery.props(region, groupIds, r.requestId, getSender(), timeout)));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(DeviceManager.RequestTrackDevice.class, this::onTrackDevice)
+                .match(DeviceManager.RequestTrackDevices.class, this::onTrackDevices)
+                .match(DeviceManager.RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+                .match(DeviceManager.TemperatureBatchRecorded.class, this::onGroupBatchRecorded)
+                .match(BatchTimeout.class, this::onBatchTimeout)
+                .match(DeviceManager.RequestAllGroupsTemperatures.class, this::onAllGroupsTemperatures)
+                .match(Replicator.Changed.class, this::onKnownGroupsChanged)
+                .match(Replicator.UpdateResponse.class, r -> {
+                    // a local write, it does not fail
+                })
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:29 AM
+ * @description DeviceManagerQuery over sharded groups, every group is asked through the region
+ *
+ * Groups are not watched, the region cannot tell when an entity on another node stops, so a group that does not
+ * answer is reported in timedOutGroups once the deadline passes.
+ */
+public class ShardedDeviceManagerQuery extends DeviceManagerQuery {
+    final ActorRef region;
+
+    public ShardedDeviceManagerQuery(ActorRef region, String[] groupIds, long requestId, ActorRef requester, FiniteDuration timeout) {
+        super(groupIds, requestId, requester, timeout);
+        this.region = region;
+    }
+
+    public static Props props(ActorRef region, String[] groupIds, long requestId, ActorRef requester, FiniteDuration timeout) {
+        return Props.create(ShardedDeviceManagerQuery.class,
+                () -> new ShardedDeviceManagerQuery(region, groupIds, requestId, requester, timeout));
+    }
+
+    @Override
+    public void preStart() {
+        if (groupIds.length == 0) {
+            respondAndStop();
+            return;
+        }
+        FiniteDuration groupTimeout = new FiniteDuration(timeout.toMillis() * 4 / 5, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < groupIds.length; i++) {
+            region.tell(new DeviceGroup.GroupEnvelope(
+                    groupIds[i], new DeviceGroup.RequestAllTemperatures(i, groupTimeout)), getSelf());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.iot.bench;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.typesafe.config.ConfigFactory;
+import scala.concurrent.Await;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:04 AM
+ * @description shared set up of the iot benchmarks
+ */
+final class Benchmarks {
+    static final FiniteDuration TIMEOUT = new FiniteDuration(60, TimeUnit.SECONDS);
+    // asks outlive the query timeouts, so a slow query fails with its own reply rather than an AskTimeoutException
+    static final Duration ASK_TIMEOUT = Duration.ofSeconds(TIMEOUT.toSeconds() + 1);
+
+    private Benchmarks() {
+    }
+
+    /**
+     * An actor system without the per message INFO logging of the devices, which would dominate every measurement.
+     */
+    static ActorSystem createSystem(String name) {
+        return ActorSystem.create(name, ConfigFactory.parseString("akka.loglevel = WARNING")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    static void shutdown(ActorSystem system) throws Exception {
+        Await.ready(system.terminate(), TIMEOUT);
+    }
+
+    static void await(CountDownLatch latch) throws InterruptedException, TimeoutException {
+        if (!latch.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException(latch.getCount() + " replies still missing after " + TIMEOUT);
+        }
+    }
+
+    /**
+     * Counts down the current latch for every reply it receives. The benchmark thread installs a fresh latch
+     * before it sends the requests of an invocation.
+     */
+    static final class Countdown extends AbstractActor {
+        private final AtomicReference<CountDownLatch> latch;
+
+        Countdown(AtomicReference<CountDownLatch> latch) {
+            this.latch = latch;
+        }
+
+        static Props props(AtomicReference<CountDownLatch> latch) {
+            return Props.create(Countdown.class, () -> new Countdown(latch));
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .matchAny(reply -> latch.get().countDown())
+                    .build();
+        }
+    }
+}
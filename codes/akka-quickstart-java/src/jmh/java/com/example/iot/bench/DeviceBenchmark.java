@@ -0,0 +1,85 @@
+package com.example.iot.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.example.iot.Device;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:04 AM
+ * @description throughput of RecordTemperature and latency of ReadTemperature on a single device
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DeviceBenchmark {
+    static final int READINGS_PER_INVOCATION = 1000;
+
+    ActorSystem system;
+    ActorRef device;
+    ActorRef countdown;
+    final AtomicReference<CountDownLatch> latch = new AtomicReference<>();
+    long requestId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        system = Benchmarks.createSystem("device-benchmark");
+        device = system.actorOf(Device.props("group", "device"));
+        countdown = system.actorOf(Benchmarks.Countdown.props(latch));
+        // reads should see a recorded value, not an empty device
+        Patterns.ask(device, new Device.RecordTemperature(requestId++, 20.0), Benchmarks.ASK_TIMEOUT)
+                .toCompletableFuture().get();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        Benchmarks.shutdown(system);
+    }
+
+    /**
+     * Sends a burst of readings and waits for all acks, so the score is readings recorded per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(READINGS_PER_INVOCATION)
+    public void recordTemperature() throws Exception {
+        CountDownLatch acks = new CountDownLatch(READINGS_PER_INVOCATION);
+        latch.set(acks);
+        for (int i = 0; i < READINGS_PER_INVOCATION; i++) {
+            device.tell(new Device.RecordTemperature(requestId++, i), countdown);
+        }
+        Benchmarks.await(acks);
+    }
+
+    /**
+     * One request and reply round trip, sampled so the percentiles of the latency are reported.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object readTemperature() throws Exception {
+        return Patterns.ask(device, new Device.ReadTemperature(requestId++), Benchmarks.ASK_TIMEOUT)
+                .toCompletableFuture().get();
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.iot.bench;
+
+import akka.actor.ActorPath;
+import akka.actor.ActorPaths;
+import akka.actor.ActorRef;
+import com.example.iot.DeviceRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:02 AM
+ * @description compares the retained heap of DeviceRegistry with the pair of HashMaps it replaced
+ *
+ * Not a JMH benchmark, as it measures retained heap rather than time. Run its main method from the benchmark jar
+ * with a fixed heap, e.g. {@code java -Xms2g -Xmx2g -cp target/benchmarks.jar
+ * com.example.iot.bench.DeviceRegistryMemoryBenchmark}, optionally with the number of entries as argument
+ * (default 1,000,000). The ids and actor refs are created up front and shared by both variants, so the
+ * numbers only cover the lookup structures themselves. Heap usage is measured around full GCs, which is coarse
+ * but stable enough to compare both layouts.
+ */
+public class DeviceRegistryMemoryBenchmark {
+
+    // an actor ref that only carries a path, real actors are far too heavy to create a million of them
+    static final class PathOnlyActorRef extends ActorRef {
+        private static final long serialVersionUID = 1L;
+
+        private final ActorPath path;
+
+        PathOnlyActorRef(ActorPath path) {
+            this.path = path;
+        }
+
+        @Override
+        public ActorPath path() {
+            return path;
+        }
+
+        // abstract in ActorRef, deprecated there as well
+        @Override
+        @Deprecated
+        public boolean isTerminated() {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        String[] ids = new String[entries];
+        ActorRef[] actors = new ActorRef[entries];
+        ActorPath parent = ActorPaths.fromString("akka://bench/user/group-1");
+        for (int i = 0; i < entries; i++) {
+            ids[i] = Integer.toString(i);
+            actors[i] = new PathOnlyActorRef(parent.child("device-" + i));
+        }
+
+        long baseline = usedHeap();
+        Map<String, ActorRef> idToActor = new HashMap<>();
+        Map<ActorRef, String> actorToId = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            idToActor.put(ids[i], actors[i]);
+            actorToId.put(actors[i], ids[i]);
+        }
+        long hashMaps = usedHeap() - baseline;
+        // keep the maps reachable until they have been measured
+        System.out.println("HashMap pair:   " + idToActor.size() + " / " + actorToId.size() + " entries");
+        idToActor = null;
+        actorToId = null;
+
+        baseline = usedHeap();
+        DeviceRegistry registry = new DeviceRegistry();
+        for (int i = 0; i < entries; i++) {
+            registry.put(ids[i], actors[i]);
+        }
+        long deviceRegistry = usedHeap() - baseline;
+        System.out.println("DeviceRegistry: " + registry.size() + " entries");
+
+        System.out.printf("%,d entries%n", entries);
+        System.out.printf("HashMap pair:   %,d bytes, %.1f bytes per entry%n", hashMaps, (double) hashMaps / entries);
+        System.out.printf("DeviceRegistry: %,d bytes, %.1f bytes per entry%n", deviceRegistry, (double) deviceRegistry / entries);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.iot.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:04 AM
+ * @description latency of RequestAllTemperatures by group size
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class GroupQueryBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int devices;
+
+    ActorSystem system;
+    ActorRef group;
+    long requestId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        system = Benchmarks.createSystem("group-query-benchmark");
+        AtomicReference<CountDownLatch> latch = new AtomicReference<>();
+        ActorRef countdown = system.actorOf(Benchmarks.Countdown.props(latch));
+        group = system.actorOf(DeviceGroup.props("group"));
+
+        CountDownLatch registered = new CountDownLatch(devices);
+        latch.set(registered);
+        for (int i = 0; i < devices; i++) {
+            group.tell(new DeviceManager.RequestTrackDevice("group", "device-" + i), countdown);
+        }
+        Benchmarks.await(registered);
+
+        // every device has a reading, so the replies carry temperatures rather than TemperatureNotAvailable
+        String[] deviceIds = new String[devices];
+        double[] values = new double[devices];
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = "device-" + i;
+            values[i] = i;
+        }
+        CountDownLatch recorded = new CountDownLatch(1);
+        latch.set(recorded);
+        group.tell(new DeviceGroup.RecordTemperatureBatch(requestId++, deviceIds, values), countdown);
+        Benchmarks.await(recorded);
+        // the batch ack only says the readings were handed out, a first query makes sure they arrived
+        CountDownLatch read = new CountDownLatch(1);
+        latch.set(read);
+        group.tell(new DeviceGroup.RequestAllTemperatures(requestId++, Benchmarks.TIMEOUT), countdown);
+        Benchmarks.await(read);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        Benchmarks.shutdown(system);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object requestAllTemperatures() throws Exception {
+        return Patterns.ask(group, new DeviceGroup.RequestAllTemperatures(requestId++, Benchmarks.TIMEOUT),
+                Benchmarks.ASK_TIMEOUT).toCompletableFuture().get();
+    }
+}
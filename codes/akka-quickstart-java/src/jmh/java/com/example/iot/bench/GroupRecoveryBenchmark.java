@@ -0,0 +1,122 @@
+package com.example.iot.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.pattern.Patterns;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:25 AM
+ * @description time until a restarted group knows all its devices again
+ *
+ * With the persistence store the trial set up registers all devices once through a persistent group. That alone
+ * takes minutes at 100k devices, as every persistent device goes through its own recovery when it starts, which is
+ * exactly the cost the membership store spares a restarted group. With the file store the devices are registered
+ * with one RequestTrackDevices and the group reads them back from its membership file.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class GroupRecoveryBenchmark {
+    @Param({"1000", "100000"})
+    public int devices;
+
+    // persistence: iot.persistence.enabled, file: iot.group.membership-file
+    @Param({"persistence", "file"})
+    public String store;
+
+    ActorSystem system;
+    ActorRef group;
+    long requestId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String storeConfig = "file".equals(store)
+                ? "iot.group.membership-file.directory = \"target/benchmark-membership-" + UUID.randomUUID() + "\""
+                : "akka.persistence.journal.plugin = \"akka.persistence.journal.inmem\"\n" +
+                "akka.persistence.snapshot-store.plugin = \"akka.persistence.snapshot-store.local\"\n" +
+                "akka.persistence.snapshot-store.local.dir = \"target/benchmark-snapshots-" + UUID.randomUUID() + "\"\n" +
+                "iot.persistence.enabled = on";
+        system = ActorSystem.create("group-recovery-benchmark", ConfigFactory.parseString(
+                "akka.loglevel = WARNING\n" + storeConfig)
+                .withFallback(ConfigFactory.load()));
+
+        ActorRef registering = system.actorOf(DeviceGroup.props("group"));
+        if ("file".equals(store)) {
+            String[] deviceIds = new String[devices];
+            for (int i = 0; i < devices; i++) {
+                deviceIds[i] = "device-" + i;
+            }
+            Patterns.ask(registering, new DeviceManager.RequestTrackDevices("group", deviceIds),
+                    Benchmarks.ASK_TIMEOUT).toCompletableFuture().get();
+        } else {
+            AtomicReference<CountDownLatch> latch = new AtomicReference<>();
+            ActorRef countdown = system.actorOf(Benchmarks.Countdown.props(latch));
+            CountDownLatch registered = new CountDownLatch(devices);
+            latch.set(registered);
+            for (int i = 0; i < devices; i++) {
+                registering.tell(new DeviceManager.RequestTrackDevice("group", "device-" + i), countdown);
+            }
+            Benchmarks.await(registered);
+        }
+        // the membership reaches the journal or the file asynchronously
+        Thread.sleep(2000);
+        stop(registering);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        Benchmarks.shutdown(system);
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopGroup() throws Exception {
+        stop(group);
+    }
+
+    private void stop(ActorRef actor) throws Exception {
+        Patterns.gracefulStop(actor, Benchmarks.ASK_TIMEOUT, PoisonPill.getInstance()).toCompletableFuture().get();
+    }
+
+    /**
+     * Starts the group and polls its device list until all devices are known, the devices themselves stay stopped.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int recoverMembership() throws Exception {
+        group = system.actorOf(DeviceGroup.props("group"));
+        while (true) {
+            DeviceGroup.ReplyDeviceList reply = (DeviceGroup.ReplyDeviceList) Patterns.ask(
+                    group, new DeviceGroup.RequestDeviceList(requestId++), Benchmarks.ASK_TIMEOUT).toCompletableFuture().get();
+            if (reply.ids.size() == devices) {
+                return reply.ids.size();
+            }
+            Thread.sleep(1);
+        }
+    }
+}
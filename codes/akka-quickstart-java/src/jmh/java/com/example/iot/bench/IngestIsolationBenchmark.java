@@ -0,0 +1,123 @@
+package com.example.iot.bench;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.pattern.Patterns;
+import com.example.iot.Device;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.example.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:38 AM
+ * @description latency of RecordTemperature while large group queries run, with and without the iot dispatchers
+ *
+ * The ingest threads record readings on the devices of a small group, the query threads keep querying a large
+ * group at the same time. Compare the p0.99 of {@code mixed:ingest} between {@code dispatchers=default}, where all
+ * actors share akka.actor.default-dispatcher, and {@code dispatchers=bulkhead}, with iot.ingest-dispatcher and
+ * iot.query-dispatcher.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class IngestIsolationBenchmark {
+    static final int INGEST_DEVICES = 100;
+
+    @Param({"default", "bulkhead"})
+    public String dispatchers;
+
+    @Param({"10000"})
+    public int queriedDevices;
+
+    ActorSystem system;
+    ActorRef[] ingestDevices;
+    ActorRef queriedGroup;
+    final AtomicLong requestId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String config = "bulkhead".equals(dispatchers)
+                ? "iot.dispatchers.ingest = \"iot.ingest-dispatcher\"\niot.dispatchers.query = \"iot.query-dispatcher\""
+                : "";
+        system = ActorSystem.create("ingest-isolation-benchmark", ConfigFactory.parseString(config)
+                .withFallback(ConfigFactory.parseString("akka.loglevel = WARNING"))
+                .withFallback(ConfigFactory.load()));
+        AtomicReference<CountDownLatch> latch = new AtomicReference<>();
+        ActorRef countdown = system.actorOf(Benchmarks.Countdown.props(latch));
+        // placed like DeviceManager places its groups
+        IotSettings settings = IotSettings.get(system);
+        queriedGroup = system.actorOf(settings.withIngestDispatcher(DeviceGroup.props("queried")), "queried");
+        ActorRef ingestGroup = system.actorOf(settings.withIngestDispatcher(DeviceGroup.props("ingest")), "ingest");
+
+        CountDownLatch registered = new CountDownLatch(queriedDevices + INGEST_DEVICES);
+        latch.set(registered);
+        for (int i = 0; i < queriedDevices; i++) {
+            queriedGroup.tell(new DeviceManager.RequestTrackDevice("queried", "device-" + i), countdown);
+        }
+        for (int i = 0; i < INGEST_DEVICES; i++) {
+            ingestGroup.tell(new DeviceManager.RequestTrackDevice("ingest", "device-" + i), countdown);
+        }
+        Benchmarks.await(registered);
+
+        ingestDevices = new ActorRef[INGEST_DEVICES];
+        for (int i = 0; i < INGEST_DEVICES; i++) {
+            ActorIdentity identity = (ActorIdentity) Patterns.ask(
+                    system.actorSelection(ingestGroup.path().child("device-device-" + i)), new Identify(i),
+                    Benchmarks.ASK_TIMEOUT).toCompletableFuture().get();
+            ingestDevices[i] = identity.getActorRef().orElseThrow(IllegalStateException::new);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        Benchmarks.shutdown(system);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object ingest() throws Exception {
+        long id = requestId.getAndIncrement();
+        ActorRef device = ingestDevices[(int) (id % INGEST_DEVICES)];
+        return Patterns.ask(device, new Device.RecordTemperature(id, id), Benchmarks.ASK_TIMEOUT)
+                .toCompletableFuture().get();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object query() throws Exception {
+        return Patterns.ask(queriedGroup, new DeviceGroup.RequestAllTemperatures(requestId.getAndIncrement(),
+                Benchmarks.TIMEOUT), Benchmarks.ASK_TIMEOUT).toCompletableFuture().get();
+    }
+}
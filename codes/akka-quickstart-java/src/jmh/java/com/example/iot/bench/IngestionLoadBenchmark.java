@@ -0,0 +1,209 @@
+package com.example.iot.bench;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import com.example.iot.DeviceManager;
+import com.example.iot.IngestionGateway;
+import com.example.iot.IotMetrics;
+import com.typesafe.config.ConfigFactory;
+import scala.concurrent.Await;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:00 AM
+ * @description load test of IngestionGateway, shows that the heap stays flat when producers offer twice the capacity
+ *
+ * First measures the capacity, the readings per second the system records when a producer sends as fast as its
+ * credit allows. Then a producer offers twice that rate for a while, and the used heap after a full GC is sampled
+ * every second. With the gateway the heap stays flat and the excess is rejected, with {@code direct} as first
+ * argument the same load goes to the DeviceManager in unconfirmed batches and queues up in the mailboxes.
+ *
+ * Not a JMH benchmark, as it watches the heap over time. Run its main method from the benchmark jar with a fixed heap,
+ * e.g. {@code java -Xms1g -Xmx1g -cp target/benchmarks.jar com.example.iot.bench.IngestionLoadBenchmark}. Arguments:
+ * gateway or direct, seconds of overload (default 20), number of devices (default 10,000). The bound on the readings
+ * in flight itself is asserted by IngestionGatewayTest.
+ */
+public class IngestionLoadBenchmark {
+    static final int GROUPS = 10;
+    static final FiniteDuration TICK = new FiniteDuration(10, TimeUnit.MILLISECONDS);
+
+    static String[] groupIds;
+    static String[] deviceIds;
+
+    /**
+     * Sends readings for random devices, either as fast as its credit allows, or at a fixed rate regardless of its
+     * credit, in Ingest messages of up to {@code chunk} readings.
+     */
+    static final class Producer extends AbstractActor {
+        static final Object TICK_MESSAGE = "tick";
+
+        final ActorRef target;
+        final boolean direct;
+        // readings per second, 0 to follow the credit
+        final long rate;
+        final int chunk;
+        long credit;
+        long sent;
+        long startNanos;
+        long nextRequestId;
+        Cancellable ticks;
+
+        Producer(ActorRef target, boolean direct, long rate, int chunk) {
+            this.target = target;
+            this.direct = direct;
+            this.rate = rate;
+            this.chunk = chunk;
+        }
+
+        static Props props(ActorRef target, boolean direct, long rate, int chunk) {
+            return Props.create(Producer.class, () -> new Producer(target, direct, rate, chunk));
+        }
+
+        @Override
+        public void preStart() {
+            startNanos = System.nanoTime();
+            if (!direct) {
+                target.tell(new IngestionGateway.Connect(), getSelf());
+            }
+            if (rate > 0) {
+                ticks = getContext().getSystem().scheduler().schedule(
+                        TICK, TICK, getSelf(), TICK_MESSAGE, getContext().dispatcher(), getSelf());
+            }
+        }
+
+        @Override
+        public void postStop() {
+            if (ticks != null) {
+                ticks.cancel();
+            }
+        }
+
+        private void send(int n) {
+            String[] groups = new String[n];
+            String[] devices = new String[n];
+            double[] values = new double[n];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < n; i++) {
+                int device = random.nextInt(deviceIds.length);
+                groups[i] = groupIds[device];
+                devices[i] = deviceIds[device];
+                values[i] = random.nextDouble(-20.0, 40.0);
+            }
+            long requestId = nextRequestId++;
+            target.tell(direct
+                    ? new DeviceManager.RecordTemperatureBatch(requestId, groups, devices, values)
+                    : new IngestionGateway.Ingest(requestId, groups, devices, values), getSelf());
+            sent += n;
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(IngestionGateway.Demand.class, d -> {
+                        credit += d.readings;
+                        if (rate == 0) {
+                            while (credit > 0) {
+                                int n = (int) Math.min(credit, chunk);
+                                send(n);
+                                credit -= n;
+                            }
+                        }
+                    })
+                    .matchEquals(TICK_MESSAGE, t -> {
+                        long due = rate * (System.nanoTime() - startNanos) / TimeUnit.SECONDS.toNanos(1) - sent;
+                        while (due > 0) {
+                            int n = (int) Math.min(due, chunk);
+                            send(n);
+                            credit -= n;
+                            due -= n;
+                        }
+                    })
+                    .match(IngestionGateway.Rejected.class, r -> {
+                        // the credit it would have taken was never granted
+                    })
+                    .match(DeviceManager.TemperatureBatchRecorded.class, r -> {
+                    })
+                    .build();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean direct = args.length > 0 && "direct".equals(args[0]);
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int devices = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        ActorSystem system = ActorSystem.create("ingestion-load", ConfigFactory.parseString(
+                "akka.loglevel = WARNING\n" +
+                        "akka.log-dead-letters = off")
+                .withFallback(ConfigFactory.load()));
+        IotMetrics metrics = IotMetrics.get(system);
+        int chunk = system.settings().config().getInt("iot.ingestion.batch-size");
+        try {
+            ActorRef manager = system.actorOf(DeviceManager.props(), "manager");
+            groupIds = new String[devices];
+            deviceIds = new String[devices];
+            FiniteDuration timeout = new FiniteDuration(10, TimeUnit.SECONDS);
+            for (int i = 0; i < devices; i++) {
+                groupIds[i] = "group-" + (i % GROUPS);
+                deviceIds[i] = "device-" + i;
+                Await.result(Patterns.ask(manager,
+                        new DeviceManager.RequestTrackDevice(groupIds[i], deviceIds[i]), timeout.toMillis()), timeout);
+            }
+            ActorRef gateway = system.actorOf(IngestionGateway.props(manager), "gateway");
+
+            // capacity, the producer sends as fast as its credit allows, which keeps the devices busy at all times
+            ActorRef unthrottled = system.actorOf(Producer.props(gateway, false, 0, chunk));
+            Thread.sleep(3000);
+            long before = metrics.getReadingsRecorded();
+            long start = System.nanoTime();
+            Thread.sleep(5000);
+            long capacity = (metrics.getReadingsRecorded() - before) * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start);
+            system.stop(unthrottled);
+            Thread.sleep(1000);
+            System.out.printf("capacity: %,d readings/s%n", capacity);
+
+            // twice the capacity
+            long offered = 2 * capacity;
+            System.out.printf("offering %,d readings/s %s for %d s%n",
+                    offered, direct ? "directly to the DeviceManager" : "through the gateway", seconds);
+            system.actorOf(Producer.props(direct ? manager : gateway, direct, offered, chunk));
+            long recordedBefore = metrics.getReadingsRecorded();
+            long firstHeap = -1;
+            long lastHeap = 0;
+            for (int second = 1; second <= seconds; second++) {
+                Thread.sleep(1000);
+                lastHeap = usedHeapAfterGc();
+                if (second == 3) {
+                    // after the warm up, caches and the first mailbox growth
+                    firstHeap = lastHeap;
+                }
+                System.out.printf("%3d s  heap %,7d KB  recorded %,10d  in flight %,6d  rejected %,10d  shed %,10d%n",
+                        second, lastHeap / 1024, metrics.getReadingsRecorded() - recordedBefore,
+                        metrics.getIngestionInFlight(), metrics.getIngestionRejected(), metrics.getIngestionShed());
+            }
+            if (firstHeap > 0) {
+                System.out.printf("heap growth after warm up: %,d KB (%.1f%%)%n",
+                        (lastHeap - firstHeap) / 1024, 100.0 * (lastHeap - firstHeap) / firstHeap);
+            }
+        } finally {
+            system.terminate();
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.iot.bench;
+
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.example.iot.Device;
+import com.example.iot.IotSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:06 AM
+ * @description round trip throughput and size of IotSerializer, compared with Java serialization
+ *
+ * The protocol messages are not Serializable, so the java variant serializes their fields in equivalent
+ * Serializable classes and JDK collections, which is what Java serialization would cost them. The size of every
+ * encoding is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SerializerBenchmark {
+    static final int DEVICES = 1000;
+
+    @Param({"iot", "java"})
+    public String serializer;
+
+    // record: one RecordTemperature, batch: a RecordTemperatureBatch with a reading of every device,
+    // response: a RespondAllTemperatures with every device
+    @Param({"record", "batch", "response"})
+    public String message;
+
+    final IotSerializer iotSerializer = new IotSerializer();
+    Object payload;
+    String manifest;
+
+    static final class JavaRecord implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long requestId;
+        final double value;
+
+        JavaRecord(long requestId, double value) {
+            this.requestId = requestId;
+            this.value = value;
+        }
+    }
+
+    static final class JavaBatch implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long requestId;
+        final String[] groupIds;
+        final String[] deviceIds;
+        final double[] values;
+
+        JavaBatch(long requestId, String[] groupIds, String[] deviceIds, double[] values) {
+            this.requestId = requestId;
+            this.groupIds = groupIds;
+            this.deviceIds = deviceIds;
+            this.values = values;
+        }
+    }
+
+    static final class JavaResponse implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long requestId;
+        // null for the readings without a temperature
+        final HashMap<String, Double> temperatures;
+
+        JavaResponse(long requestId, HashMap<String, Double> temperatures) {
+            this.requestId = requestId;
+            this.temperatures = temperatures;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String[] groupIds = new String[DEVICES];
+        String[] deviceIds = new String[DEVICES];
+        double[] values = new double[DEVICES];
+        Map<String, DeviceGroup.TemperatureReading> readings = new HashMap<>();
+        HashMap<String, Double> javaReadings = new HashMap<>();
+        for (int i = 0; i < DEVICES; i++) {
+            groupIds[i] = "group-" + (i % 10);
+            deviceIds[i] = "device-" + i;
+            values[i] = 20.0 + i % 100 / 10.0;
+            readings.put(deviceIds[i], i % 50 == 0 ? DeviceGroup.DeviceTimedOut.INSTANCE : new DeviceGroup.Temperature(values[i]));
+            javaReadings.put(deviceIds[i], i % 50 == 0 ? null : values[i]);
+        }
+        boolean java = "java".equals(serializer);
+        switch (message) {
+            case "record":
+                payload = java ? new JavaRecord(123456L, 21.5) : new Device.RecordTemperature(123456L, 21.5);
+                break;
+            case "batch":
+                payload = java ? new JavaBatch(123456L, groupIds, deviceIds, values)
+                        : new DeviceManager.RecordTemperatureBatch(123456L, groupIds, deviceIds, values);
+                break;
+            default:
+                payload = java ? new JavaResponse(123456L, javaReadings)
+                        : new DeviceGroup.RespondAllTemperatures(123456L, readings);
+        }
+        manifest = java ? null : iotSerializer.manifest(payload);
+        System.out.printf("%n%s %s: %,d bytes%n", serializer, message, serialize().length);
+    }
+
+    private byte[] serialize() throws IOException {
+        if (manifest != null) {
+            return iotSerializer.toBinary(payload);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Object deserialize(byte[] bytes) throws Exception {
+        if (manifest != null) {
+            return iotSerializer.fromBinary(bytes, manifest);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * Serializes the message and reads it back, the score is round trips per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object roundTrip() throws Exception {
+        return deserialize(serialize());
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.iot.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.pattern.Patterns;
+import com.example.iot.DeviceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:04 AM
+ * @description registration rate of new devices through the device manager
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TrackDeviceBenchmark {
+    static final int DEVICES_PER_INVOCATION = 1000;
+
+    ActorSystem system;
+    ActorRef countdown;
+    final AtomicReference<CountDownLatch> latch = new AtomicReference<>();
+    ActorRef manager;
+    int nextGroup;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        system = Benchmarks.createSystem("track-device-benchmark");
+        countdown = system.actorOf(Benchmarks.Countdown.props(latch));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        Benchmarks.shutdown(system);
+    }
+
+    // a fresh manager per iteration, so the number of live devices does not grow over the whole run
+    @Setup(Level.Iteration)
+    public void startManager() {
+        manager = system.actorOf(DeviceManager.props());
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopManager() {
+        manager.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    }
+
+    /**
+     * Registers a group of new devices and waits until all of them are registered, so the score is
+     * registrations per second, including the creation of the device actors.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(DEVICES_PER_INVOCATION)
+    public void trackDevices() throws Exception {
+        CountDownLatch registered = new CountDownLatch(DEVICES_PER_INVOCATION);
+        latch.set(registered);
+        String groupId = "group-" + nextGroup++;
+        for (int i = 0; i < DEVICES_PER_INVOCATION; i++) {
+            manager.tell(new DeviceManager.RequestTrackDevice(groupId, "device-" + i), countdown);
+        }
+        Benchmarks.await(registered);
+    }
+
+    /**
+     * Registers the same number of devices with one RequestTrackDevices, which does not start the device actors.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(DEVICES_PER_INVOCATION)
+    public Object trackDevicesInBulk() throws Exception {
+        String[] deviceIds = new String[DEVICES_PER_INVOCATION];
+        for (int i = 0; i < DEVICES_PER_INVOCATION; i++) {
+            deviceIds[i] = "device-" + i;
+        }
+        return Patterns.ask(manager, new DeviceManager.RequestTrackDevices("group-" + nextGroup++, deviceIds),
+                Benchmarks.ASK_TIMEOUT).toCompletableFuture().get();
+    }
+}
@@ -1,9 +1,11 @@
 package com.example.iot;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
 
 import java.util.Optional;
 
@@ -16,20 +18,57 @@ import java.util.Optional;
 public class Device extends AbstractActor {
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
-    final String groupId;
-
-    final String deviceId;
+    final DeviceState state;
 
     public Device(String groupId, String deviceId) {
-        this.groupId = groupId;
-        this.deviceId = deviceId;
+        this(groupId, deviceId, null, null);
+    }
+
+    Device(String groupId, String deviceId, FiniteDuration reportInterval, FiniteDuration idleTimeout) {
+        this.state = new DeviceState(getContext(), log, groupId, deviceId, reportInterval, idleTimeout);
     }
 
     public static Props props(String groupId, String deviceId) {
         return Props.create(Device.class, () -> new Device(groupId, deviceId));
     }
 
-    public static final class RecordTemperature {
+    /**
+     * Props for a device created by its {@link DeviceGroup}. When {@code reportInterval} is set the device reports
+     * its latest reading to the group with {@link DeviceGroup.TemperatureChanged}, at most once per interval. When
+     * {@code idleTimeout} is set the device asks the group to passivate it after that much inactivity.
+     */
+    static Props props(String groupId, String deviceId, FiniteDuration reportInterval, FiniteDuration idleTimeout) {
+        return Props.create(Device.class, () -> new Device(groupId, deviceId, reportInterval, idleTimeout));
+    }
+
+    static final class ReportTemperature {
+    }
+
+    /**
+     * Sent by the group to a device that asked to be passivated. A persistent device stashes it while a persist is
+     * pending, like any other command, so it stops only once its readings are journaled and acknowledged.
+     */
+    static final class Stop {
+        static final Stop INSTANCE = new Stop();
+
+        private Stop() {
+        }
+    }
+
+    /**
+     * First message of a device that is recreated after passivation, restores the reading it had when it stopped.
+     */
+    static final class RestoreLastReading {
+        final long timestamp;
+        final double value;
+
+        RestoreLastReading(long timestamp, double value) {
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    public static final class RecordTemperature implements IotSerializable {
         final long requestId;
         final double value;
 
@@ -39,7 +78,7 @@ public class Device extends AbstractActor {
         }
     }
 
-    public static final class TemperatureRecorded {
+    public static final class TemperatureRecorded implements IotSerializable {
         public final long requestId;
 
         public TemperatureRecorded(long requestId) {
@@ -47,7 +86,50 @@ public class Device extends AbstractActor {
         }
     }
 
-    public static final class ReadTemperature {
+    /**
+     * Several readings for this device in one message, recorded in order. Unlike {@link RecordTemperature}
+     * it is not acknowledged by the device, the batch it was split from is acknowledged as a whole by
+     * {@link DeviceManager}, unless the batch waits for its devices, see
+     * {@link DeviceManager.RecordTemperatureBatch#confirmed}.
+     */
+    public static final class RecordTemperatures implements IotSerializable {
+        final long requestId;
+        final double[] values;
+        // slot of this device in a confirmed batch of its group, -1 when not confirmed
+        final int confirmSlot;
+
+        public RecordTemperatures(long requestId, double[] values) {
+            this(requestId, values, -1);
+        }
+
+        RecordTemperatures(long requestId, double[] values, int confirmSlot) {
+            this.requestId = requestId;
+            this.values = values;
+            this.confirmSlot = confirmSlot;
+        }
+    }
+
+    /**
+     * Sent by a device to its group once the readings of a confirmed {@link RecordTemperatures} are recorded, or once
+     * they could not be, e.g. when the journal rejected them.
+     */
+    static final class TemperaturesRecorded {
+        final long requestId;
+        final int slot;
+        final boolean recorded;
+
+        TemperaturesRecorded(long requestId, int slot) {
+            this(requestId, slot, true);
+        }
+
+        TemperaturesRecorded(long requestId, int slot, boolean recorded) {
+            this.requestId = requestId;
+            this.slot = slot;
+            this.recorded = recorded;
+        }
+    }
+
+    public static final class ReadTemperature implements IotSerializable {
         public final long requestId;
 
         public ReadTemperature(long requestId) {
@@ -55,7 +137,7 @@ public class Device extends AbstractActor {
         }
     }
 
-    public static final class RespondTemperature {
+    public static final class RespondTemperature implements IotSerializable {
         public final long requestId;
         public final Optional<Double> value;
 
@@ -65,39 +147,247 @@ public class Device extends AbstractActor {
         }
     }
 
-    Optional<Double> lastTemperatureReading = Optional.empty();
+    public static final class ReadTemperatureHistory implements IotSerializable {
+        public final long requestId;
+        public final long fromTs;
+        public final long toTs;
+
+        public ReadTemperatureHistory(long requestId, long fromTs, long toTs) {
+            this.requestId = requestId;
+            this.fromTs = fromTs;
+            this.toTs = toTs;
+        }
+    }
+
+    public static final class RespondTemperatureHistory implements IotSerializable {
+        public final long requestId;
+        // epoch millis of each reading, oldest first, aligned with values
+        public final long[] timestamps;
+        public final double[] values;
+
+        public RespondTemperatureHistory(long requestId, long[] timestamps, double[] values) {
+            this.requestId = requestId;
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+    }
+
+    public enum RollupResolution {
+        MINUTE(60_000L), HOUR(3_600_000L);
+
+        final long windowMillis;
+
+        RollupResolution(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+    }
+
+    /**
+     * Reads the rollup windows overlapping {@code fromTs <= timestamp <= toTs}, see iot.device.rollups. Sent to a
+     * {@link DeviceGroup}, the windows of its running devices are merged into one series.
+     */
+    public static final class ReadRollups implements IotSerializable {
+        public final long requestId;
+        public final RollupResolution resolution;
+        public final long fromTs;
+        public final long toTs;
+
+        public ReadRollups(long requestId, RollupResolution resolution, long fromTs, long toTs) {
+            this.requestId = requestId;
+            this.resolution = resolution;
+            this.fromTs = fromTs;
+            this.toTs = toTs;
+        }
+    }
+
+    public static final class RespondRollups implements IotSerializable {
+        public final long requestId;
+        // epoch millis each window starts at, oldest first, aligned with the other arrays.
+        // Windows without readings are left out
+        public final long[] windowStarts;
+        public final int[] counts;
+        public final double[] mins;
+        public final double[] maxs;
+        public final double[] means;
+
+        public RespondRollups(long requestId, long[] windowStarts, int[] counts, double[] mins, double[] maxs, double[] means) {
+            this.requestId = requestId;
+            this.windowStarts = windowStarts;
+            this.counts = counts;
+            this.mins = mins;
+            this.maxs = maxs;
+            this.means = means;
+        }
+    }
+
+    public enum ThresholdState {
+        BELOW, IN_RANGE, ABOVE
+    }
+
+    /**
+     * Subscribes the sender to the readings of the device that leave or re-enter {@code [min, max]}, answered with
+     * {@link ThresholdSubscribed}. Sent to a {@link DeviceGroup}, it subscribes to all devices of the group, including
+     * devices tracked later. A new state is reported with {@link ThresholdCrossed} once every reading for
+     * {@code debounce} was in that state, a zero debounce reports the first reading in the new state. Subscribing
+     * again with the same request id replaces the bounds.
+     */
+    public static final class SubscribeThreshold implements IotSerializable {
+        public final long requestId;
+        final double min;
+        final double max;
+        final FiniteDuration debounce;
+
+        public SubscribeThreshold(long requestId, double min, double max, FiniteDuration debounce) {
+            if (!(min <= max)) {
+                throw new IllegalArgumentException("min must be <= max, was " + min + " > " + max);
+            }
+            this.requestId = requestId;
+            this.min = min;
+            this.max = max;
+            this.debounce = debounce;
+        }
+    }
+
+    public static final class ThresholdSubscribed implements IotSerializable {
+        public final long requestId;
+
+        public ThresholdSubscribed(long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * Ends the subscription of the sender with this request id, answered with {@link ThresholdUnsubscribed}.
+     */
+    public static final class UnsubscribeThreshold implements IotSerializable {
+        public final long requestId;
+
+        public UnsubscribeThreshold(long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    public static final class ThresholdUnsubscribed implements IotSerializable {
+        public final long requestId;
+
+        public ThresholdUnsubscribed(long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    public static final class ThresholdCrossed implements IotSerializable {
+        // of the subscription
+        public final long requestId;
+        public final String groupId;
+        public final String deviceId;
+        public final ThresholdState state;
+        // the reading that completed the change
+        public final double value;
+        public final long timestamp;
+
+        public ThresholdCrossed(long requestId, String groupId, String deviceId, ThresholdState state, double value, long timestamp) {
+            this.requestId = requestId;
+            this.groupId = groupId;
+            this.deviceId = deviceId;
+            this.state = state;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * A subscription to all devices of a group, added to each device by the group. The group watches the subscriber.
+     */
+    static final class AddThresholdSubscription {
+        final ActorRef subscriber;
+        final long requestId;
+        final double min;
+        final double max;
+        final long debounceNanos;
+
+        AddThresholdSubscription(ActorRef subscriber, long requestId, double min, double max, long debounceNanos) {
+            this.subscriber = subscriber;
+            this.requestId = requestId;
+            this.min = min;
+            this.max = max;
+            this.debounceNanos = debounceNanos;
+        }
+    }
+
+    static final class RemoveThresholdSubscription {
+        final ActorRef subscriber;
+        final long requestId;
+
+        RemoveThresholdSubscription(ActorRef subscriber, long requestId) {
+            this.subscriber = subscriber;
+            this.requestId = requestId;
+        }
+    }
+
+    static final class CheckThresholds {
+    }
+
+    public static final class ReadTemperatureStats implements IotSerializable {
+        public final long requestId;
+
+        public ReadTemperatureStats(long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    public static final class RespondTemperatureStats implements IotSerializable {
+        public final long requestId;
+        // number of readings the statistics are computed over, min/max/mean are NaN when 0
+        public final int count;
+        public final double min;
+        public final double max;
+        public final double mean;
+
+        public RespondTemperatureStats(long requestId, int count, double min, double max, double mean) {
+            this.requestId = requestId;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+        }
+    }
 
     @Override
     public void preStart() {
-        log.info("Device actor {}-{} started", groupId, deviceId);
+        state.started();
+        log.info("Device actor {}-{} started", state.groupId, state.deviceId);
     }
 
     @Override
     public void postStop() {
-        log.info("Device actor {}-{} stopped", groupId, deviceId);
+        state.stopped();
+        log.info("Device actor {}-{} stopped", state.groupId, state.deviceId);
     }
 
     @Override
     public Receive createReceive() {
-        return receiveBuilder()
-                .match(DeviceManager.RequestTrackDevice.class, r -> {
-                    if (this.groupId.equals(r.groupId) && this.deviceId.equals(r.deviceId)) {
-                        getSender().tell(new DeviceManager.DeviceRegistered(), getSelf());
-                    } else {
-                        log.warning(
-                                "Ignoring TrackDevice request for {}-{}.This actor is responsible for {}-{}.",
-                                r.groupId, r.deviceId, this.groupId, this.deviceId
-                        );
-                    }
-                })
+        return state.matchCommon(receiveBuilder()
                 .match(RecordTemperature.class, r -> {
-                    log.info("Recorded temperature reading {} with {}", r.value, r.requestId);
-                    lastTemperatureReading = Optional.of(r.value);
+                    if (state.settings.deviceLogReadings) {
+                        log.info("Recorded temperature reading {} with {}", r.value, r.requestId);
+                    }
+                    state.record(System.currentTimeMillis(), r.value);
+                    state.metrics.readingsRecorded.increment();
+                    state.recorded();
                     getSender().tell(new TemperatureRecorded(r.requestId), getSelf());
                 })
-                .match(ReadTemperature.class, r -> {
-                    getSender().tell(new RespondTemperature(r.requestId, lastTemperatureReading), getSelf());
+                .match(RecordTemperatures.class, r -> {
+                    long now = System.currentTimeMillis();
+                    for (double value : r.values) {
+                        state.record(now, value);
+                    }
+                    state.metrics.readingsRecorded.add(r.values.length);
+                    state.recorded();
+                    if (r.confirmSlot >= 0) {
+                        getSender().tell(new TemperaturesRecorded(r.requestId, r.confirmSlot), getSelf());
+                    }
                 })
+                .match(RestoreLastReading.class, r -> state.history.record(r.timestamp, r.value)))
                 .build();
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,22 @@
 package com.example.iot;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorPath;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -24,15 +32,48 @@ public class DeviceGroup extends AbstractActor {
 
     final String groupId;
 
+    /**
+     * @param groupId null to take the group id from the actor name, see {@link #entityProps()}
+     */
     public DeviceGroup(String groupId) {
-        this.groupId = groupId;
+        this.groupId = groupId != null ? groupId : decodeName(getSelf().path().name());
     }
 
     public static Props props(String groupId) {
         return Props.create(DeviceGroup.class, () -> new DeviceGroup(groupId));
     }
 
-    public static final class RequestDeviceList {
+    /**
+     * Props for groups started as cluster sharding entities, where all entities share the same Props and
+     * the entity id, the group id, is the URL encoded name of the entity actor.
+     */
+    public static Props entityProps() {
+        return Props.create(DeviceGroup.class, () -> new DeviceGroup(null));
+    }
+
+    private static String decodeName(String name) {
+        try {
+            return URLDecoder.decode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A message for the group with the given id, for messages that do not carry the group id themselves. The cluster
+     * sharding of the groups delivers the message to its group without the envelope.
+     */
+    public static final class GroupEnvelope implements IotSerializable {
+        public final String groupId;
+        public final IotSerializable message;
+
+        public GroupEnvelope(String groupId, IotSerializable message) {
+            this.groupId = groupId;
+            this.message = message;
+        }
+    }
+
+    public static final class RequestDeviceList implements IotSerializable {
         final long requestId;
 
         public RequestDeviceList(long requestId) {
@@ -40,7 +81,7 @@ public class DeviceGroup extends AbstractActor {
         }
     }
 
-    public static final class ReplyDeviceList {
+    public static final class ReplyDeviceList implements IotSerializable {
         public final long requestId;
         public final Set<String> ids;
 
@@ -50,31 +91,235 @@ public class DeviceGroup extends AbstractActor {
         }
     }
 
-    final Map<String, ActorRef> deviceIdToActor = new HashMap<>();
-    final Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+    /**
+     * Readings for devices of this group, given as parallel arrays. Readings for devices that are not
+     * tracked by the group are rejected. Answered with a single {@link DeviceManager.TemperatureBatchRecorded},
+     * when confirmed only once every device recorded its readings.
+     */
+    public static final class RecordTemperatureBatch implements IotSerializable {
+        final long requestId;
+        final String[] deviceIds;
+        final double[] values;
+        // see DeviceManager.RecordTemperatureBatch
+        final boolean confirmed;
+
+        public RecordTemperatureBatch(long requestId, String[] deviceIds, double[] values) {
+            this(requestId, deviceIds, values, false);
+        }
+
+        public RecordTemperatureBatch(long requestId, String[] deviceIds, double[] values, boolean confirmed) {
+            if (deviceIds.length != values.length) {
+                throw new IllegalArgumentException(
+                        "deviceIds and values must have the same length, was " + deviceIds.length + " and " + values.length);
+            }
+            this.requestId = requestId;
+            this.deviceIds = deviceIds;
+            this.values = values;
+            this.confirmed = confirmed;
+        }
+    }
+
+    // a confirmed batch waiting for its devices, slot i is the i-th device the batch was split to
+    static final class PendingBatch {
+        final long requestId;
+        final ActorRef replyTo;
+        final String[] deviceIds;
+        final int[] readings;
+        final boolean[] confirmed;
+        int waiting;
+        int recorded;
+        int rejected;
+        // sends BatchExpired after iot.ingestion.batch-timeout
+        Cancellable expiry;
+
+        PendingBatch(long requestId, ActorRef replyTo, int devices, int rejected) {
+            this.requestId = requestId;
+            this.replyTo = replyTo;
+            this.deviceIds = new String[devices];
+            this.readings = new int[devices];
+            this.confirmed = new boolean[devices];
+            this.waiting = devices;
+            this.rejected = rejected;
+        }
+
+        void confirm(int slot, boolean recorded) {
+            if (!confirmed[slot]) {
+                confirmed[slot] = true;
+                waiting--;
+                if (recorded) {
+                    this.recorded += readings[slot];
+                } else {
+                    this.rejected += readings[slot];
+                }
+            }
+        }
+    }
+
+    // a confirmed batch that is still waiting for devices after iot.ingestion.batch-timeout
+    static final class BatchExpired {
+        final long batchId;
+
+        BatchExpired(long batchId) {
+            this.batchId = batchId;
+        }
+    }
+
+    // the readings of one batch that go to the same device
+    static final class DeviceReadings {
+        final double[] values;
+        int size;
+
+        DeviceReadings(int capacity) {
+            this.values = new double[capacity];
+        }
+
+        void add(double value) {
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Sent by a device to its group when its latest reading changed, only when group snapshots are enabled.
+     */
+    public static final class TemperatureChanged {
+        final String deviceId;
+        final double value;
+
+        public TemperatureChanged(String deviceId, double value) {
+            this.deviceId = deviceId;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Sent by a query to its group when adaptive timeouts are enabled, the response time of every device it asked in
+     * microseconds, -1 for devices that did not answer in time.
+     */
+    static final class ResponseTimesObserved {
+        final String[] deviceIds;
+        final int[] micros;
+
+        ResponseTimesObserved(String[] deviceIds, int[] micros) {
+            this.deviceIds = deviceIds;
+            this.micros = micros;
+        }
+    }
+
+    /**
+     * Sent by an idle device to ask its group to passivate it, with the reading it has at that moment.
+     */
+    static final class Passivate {
+        final String deviceId;
+        final long timestamp;
+        final double value;
+
+        Passivate(String deviceId, long timestamp, double value) {
+            this.deviceId = deviceId;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Sent by a passivated device when it stops, with its final reading and all its rollup windows, null for a
+     * resolution that is not kept.
+     */
+    static final class Passivated {
+        final String deviceId;
+        final long timestamp;
+        final double value;
+        final Device.RespondRollups minuteRollups;
+        final Device.RespondRollups hourRollups;
+
+        Passivated(String deviceId, long timestamp, double value, Device.RespondRollups minuteRollups,
+                   Device.RespondRollups hourRollups) {
+            this.deviceId = deviceId;
+            this.timestamp = timestamp;
+            this.value = value;
+            this.minuteRollups = minuteRollups;
+            this.hourRollups = hourRollups;
+        }
+    }
+
+    // a message routed through the group to a device that is stopping for passivation
+    static final class Buffered {
+        final Object message;
+        final ActorRef sender;
+
+        Buffered(Object message, ActorRef sender) {
+            this.message = message;
+            this.sender = sender;
+        }
+    }
+
+    // devices with a running actor
+    final DeviceRegistry devices = new DeviceRegistry();
+
+    final IotSettings settings = IotSettings.get(getContext().getSystem());
+
+    final IotMetrics metrics = IotMetrics.get(getContext().getSystem());
+    IotMetrics.GroupMetrics groupMetrics;
+
+    // null when snapshots are off, see iot.group.snapshot-staleness
+    final FiniteDuration snapshotStaleness = settings.groupSnapshotStaleness;
+    // latest reading pushed by each device, devices without an entry have not recorded anything yet
+    final Map<String, Temperature> snapshot = new HashMap<>();
+
+    // response time estimates of the devices, only kept when iot.group.adaptive-timeout is enabled
+    final ResponseTimes responseTimes = new ResponseTimes();
+
+    // threshold subscriptions to all devices of the group, added to every device when it is created
+    final List<Device.AddThresholdSubscription> thresholdSubscriptions = new ArrayList<>();
+
+    // tracked devices without a running actor, and devices stopping for passivation, with their last reading
+    final LastReadings passivated = new LastReadings();
+    // passivated devices whose reading is unknown, recovered persistent devices that were not started since
+    int unknownReadings = 0;
+    // devices stopping for passivation -> messages routed to them in the meantime, replayed once they are recreated
+    final Map<ActorRef, List<Buffered>> passivating = new HashMap<>();
+    // the rollup windows of all devices that were passivated, added up. A recreated device starts with empty windows,
+    // so its readings are counted either here or by the device. Null when the resolution is not kept
+    final RollupWindows passivatedMinuteRollups =
+            DeviceState.rollupWindows(Device.RollupResolution.MINUTE, settings.deviceRollupMinuteWindows);
+    final RollupWindows passivatedHourRollups =
+            DeviceState.rollupWindows(Device.RollupResolution.HOUR, settings.deviceRollupHourWindows);
+
+    // confirmed batches waiting for their devices, by the request id the devices got
+    final Map<Long, PendingBatch> pendingBatches = new HashMap<>();
+    long nextBatchId = 0L;
+
+    // journals the membership when iot.persistence.enabled is on, or keeps it in a file when
+    // iot.group.membership-file.directory is set, null otherwise
+    ActorRef membershipStore;
 
     @Override
     public void preStart() {
+        groupMetrics = metrics.groupStarted(groupId, getSelf());
+        if (settings.persistenceEnabled) {
+            membershipStore = getContext().actorOf(GroupMembershipStore.props(groupId), "membership");
+        } else if (settings.groupMembershipDirectory != null) {
+            membershipStore = getContext().actorOf(GroupMembershipFile.props(
+                    groupId, settings.groupMembershipDirectory, settings.groupMembershipFlushInterval), "membership");
+        }
         log.info("DeviceGroup {} started", groupId);
     }
 
     @Override
     public void postStop() {
+        metrics.groupStopped(groupId, getSelf());
+        metrics.devicesPassivated.add(-passivated.size());
         log.info("DeviceGroup {} stopped", groupId);
     }
 
     private void onTrackDevice(DeviceManager.RequestTrackDevice trackMsg) {
+        groupMetrics.messages.increment();
         if (this.groupId.equals(trackMsg.groupId)) {
-            ActorRef deviceActor = deviceIdToActor.get(trackMsg.deviceId);
-            if (deviceActor != null) {
-                deviceActor.forward(trackMsg, getContext());
-            } else {
+            if (!routeToDevice(trackMsg.deviceId, trackMsg, getSender())) {
                 log.info("Creating device actor for {}", trackMsg.deviceId);
-                deviceActor = getContext().actorOf(Device.props(groupId, trackMsg.deviceId), "device-" + trackMsg.deviceId);
-                getContext().watch(deviceActor);
-                actorToDeviceId.put(deviceActor, trackMsg.deviceId);
-                deviceIdToActor.put(trackMsg.deviceId, deviceActor);
-                deviceActor.forward(trackMsg, getContext());
+                createDevice(trackMsg.deviceId).forward(trackMsg, getContext());
+                if (membershipStore != null) {
+                    membershipStore.tell(new GroupMembershipStore.AddDevices(trackMsg.deviceId), getSelf());
+                }
             }
         } else {
             log.warning(
@@ -84,48 +329,617 @@ public class DeviceGroup extends AbstractActor {
         }
     }
 
+    /**
+     * Registers the devices without starting them, their actors are created when they are first needed.
+     */
+    private void onTrackDevices(DeviceManager.RequestTrackDevices trackMsg) {
+        groupMetrics.messages.increment();
+        if (!this.groupId.equals(trackMsg.groupId)) {
+            log.warning(
+                    "Ignoring TrackDevices request for {}. This actor is responsible for {}.",
+                    trackMsg.groupId, this.groupId
+            );
+            return;
+        }
+        String[] added = new String[trackMsg.deviceIds.length];
+        int registered = 0;
+        int alreadyTracked = 0;
+        int rejected = 0;
+        for (String deviceId : trackMsg.deviceIds) {
+            if (deviceId == null || !ActorPath.isValidPathElement("device-" + deviceId)) {
+                // checked now, as the actor of the device is only created later
+                rejected++;
+            } else if (devices.contains(deviceId) || passivated.contains(deviceId)) {
+                alreadyTracked++;
+            } else {
+                passivated.put(deviceId, 0.0, LastReadings.NO_READING);
+                added[registered++] = deviceId;
+            }
+        }
+        metrics.devicesPassivated.add(registered);
+        if (registered > 0 && membershipStore != null) {
+            membershipStore.tell(new GroupMembershipStore.AddDevices(Arrays.copyOf(added, registered)), getSelf());
+        }
+        log.info("Registered {} devices in group {}", registered, groupId);
+        getSender().tell(new DeviceManager.DevicesRegistered(groupId, registered, alreadyTracked, rejected), getSelf());
+    }
+
+    private ActorRef createDevice(String deviceId) {
+        Props props = settings.persistenceEnabled
+                ? PersistentDevice.props(groupId, deviceId, snapshotStaleness, settings.devicePassivationIdleTimeout)
+                : Device.props(groupId, deviceId, snapshotStaleness, settings.devicePassivationIdleTimeout);
+        if (settings.metricsInstrumentDeviceMailboxes) {
+            props = props.withMailbox("iot.metrics.instrumented-mailbox");
+        }
+        ActorRef deviceActor = getContext().actorOf(settings.withIngestDispatcher(props), "device-" + deviceId);
+        getContext().watch(deviceActor);
+        for (Device.AddThresholdSubscription subscription : thresholdSubscriptions) {
+            deviceActor.tell(subscription, getSelf());
+        }
+        devices.put(deviceId, deviceActor);
+        return deviceActor;
+    }
+
+    /**
+     * Sends a message to a tracked device, recreating it if it is passivated.
+     *
+     * @return false if the device is not tracked by this group
+     */
+    private boolean routeToDevice(String deviceId, Object message, ActorRef sender) {
+        ActorRef deviceActor = devices.actorOf(deviceId);
+        if (deviceActor == null) {
+            if (!passivated.contains(deviceId)) {
+                return false;
+            }
+            deviceActor = rehydrate(deviceId);
+        }
+        tellDevice(deviceActor, message, sender);
+        return true;
+    }
+
+    private void tellDevice(ActorRef deviceActor, Object message, ActorRef sender) {
+        List<Buffered> buffer = passivating.get(deviceActor);
+        if (buffer != null) {
+            buffer.add(new Buffered(message, sender));
+        } else {
+            deviceActor.tell(message, sender);
+        }
+    }
+
+    private ActorRef rehydrate(String deviceId) {
+        int index = passivated.indexOf(deviceId);
+        log.debug("Recreating passivated device actor for {}", deviceId);
+        ActorRef deviceActor = createDevice(deviceId);
+        if (passivated.hasReading(index)) {
+            deviceActor.tell(new Device.RestoreLastReading(passivated.timestamp(index), passivated.value(index)), getSelf());
+        } else if (!passivated.isReadingKnown(index)) {
+            unknownReadings--;
+        }
+        passivated.remove(deviceId);
+        metrics.devicesPassivated.decrement();
+        return deviceActor;
+    }
+
+    private void onPassivate(Passivate p) {
+        ActorRef deviceActor = getSender();
+        if (devices.slotOf(deviceActor) >= 0 && !passivating.containsKey(deviceActor)) {
+            passivating.put(deviceActor, new ArrayList<>());
+            passivated.put(p.deviceId, p.value, p.timestamp);
+            metrics.devicesPassivated.increment();
+            // a message rather than stop, so that the messages already routed to the device are processed first. Not a
+            // PoisonPill, which a persistent device handles even while a persist is pending, losing its acknowledgement
+            deviceActor.tell(Device.Stop.INSTANCE, getSelf());
+        }
+    }
+
+    private void onPassivated(Passivated p) {
+        if (passivating.containsKey(getSender())) {
+            passivated.put(p.deviceId, p.value, p.timestamp);
+        }
+        // kept even if the device was recreated in the meantime, the windows are gone from it either way
+        if (p.minuteRollups != null && passivatedMinuteRollups != null) {
+            passivatedMinuteRollups.merge(p.minuteRollups);
+        }
+        if (p.hourRollups != null && passivatedHourRollups != null) {
+            passivatedHourRollups.merge(p.hourRollups);
+        }
+    }
+
+    private void onRecordTemperatureBatch(RecordTemperatureBatch batch) {
+        groupMetrics.messages.increment();
+        // first pass resolves the device of every reading and counts the readings per device,
+        // so that every device gets exactly one RecordTemperatures sized to its readings
+        ActorRef[] targets = new ActorRef[batch.deviceIds.length];
+        Map<ActorRef, int[]> counts = new HashMap<>();
+        int rejected = 0;
+        for (int i = 0; i < targets.length; i++) {
+            ActorRef deviceActor = devices.actorOf(batch.deviceIds[i]);
+            if (deviceActor == null && passivated.contains(batch.deviceIds[i])) {
+                deviceActor = rehydrate(batch.deviceIds[i]);
+            }
+            if (deviceActor == null) {
+                rejected++;
+            } else {
+                targets[i] = deviceActor;
+                counts.computeIfAbsent(deviceActor, d -> new int[1])[0]++;
+            }
+        }
+
+        Map<ActorRef, DeviceReadings> readingsPerDevice = new HashMap<>(counts.size() * 2);
+        for (int i = 0; i < targets.length; i++) {
+            ActorRef deviceActor = targets[i];
+            if (deviceActor != null) {
+                readingsPerDevice.computeIfAbsent(deviceActor, d -> new DeviceReadings(counts.get(d)[0]))
+                        .add(batch.values[i]);
+            }
+        }
+
+        if (!batch.confirmed || readingsPerDevice.isEmpty()) {
+            for (Map.Entry<ActorRef, DeviceReadings> entry : readingsPerDevice.entrySet()) {
+                tellDevice(entry.getKey(), new Device.RecordTemperatures(batch.requestId, entry.getValue().values), getSelf());
+            }
+            getSender().tell(new DeviceManager.TemperatureBatchRecorded(
+                    batch.requestId, targets.length - rejected, rejected), getSelf());
+            return;
+        }
+
+        // the devices answer to the group, under an id of its own as the requester ids of several senders may collide
+        long batchId = nextBatchId++;
+        PendingBatch pending = new PendingBatch(batch.requestId, getSender(), readingsPerDevice.size(), rejected);
+        int slot = 0;
+        for (Map.Entry<ActorRef, DeviceReadings> entry : readingsPerDevice.entrySet()) {
+            pending.deviceIds[slot] = devices.idOf(entry.getKey());
+            pending.readings[slot] = entry.getValue().size;
+            tellDevice(entry.getKey(), new Device.RecordTemperatures(batchId, entry.getValue().values, slot), getSelf());
+            slot++;
+        }
+        pendingBatches.put(batchId, pending);
+        // a device that restarted, or whose readings were lost otherwise, never confirms them, and the sender of the
+        // batch must not wait for it forever
+        pending.expiry = getContext().getSystem().scheduler().scheduleOnce(settings.ingestionBatchTimeout, getSelf(),
+                new BatchExpired(batchId), getContext().dispatcher(), getSelf());
+    }
+
+    private void onTemperaturesRecorded(Device.TemperaturesRecorded r) {
+        PendingBatch pending = pendingBatches.get(r.requestId);
+        if (pending != null) {
+            pending.confirm(r.slot, r.recorded);
+            completeIfDone(r.requestId, pending);
+        }
+    }
+
+    // the readings of the devices that did not confirm in time count as rejected, a late confirmation is ignored
+    private void onBatchExpired(BatchExpired e) {
+        PendingBatch pending = pendingBatches.get(e.batchId);
+        if (pending != null) {
+            log.warning("{} devices did not confirm batch {} in time", pending.waiting, pending.requestId);
+            for (int slot = 0; slot < pending.confirmed.length; slot++) {
+                pending.confirm(slot, false);
+            }
+            completeIfDone(e.batchId, pending);
+        }
+    }
+
+    private void completeIfDone(long batchId, PendingBatch pending) {
+        if (pending.waiting == 0) {
+            pending.replyTo.tell(new DeviceManager.TemperatureBatchRecorded(
+                    pending.requestId, pending.recorded, pending.rejected), getSelf());
+            pendingBatches.remove(batchId);
+            if (pending.expiry != null) {
+                pending.expiry.cancel();
+            }
+        }
+    }
+
     private void onDeviceList(RequestDeviceList r) {
-        getSender().tell(new ReplyDeviceList(r.requestId, deviceIdToActor.keySet()), getSelf());
+        Set<String> ids = new HashSet<>((devices.size() + passivated.size()) * 4 / 3 + 1);
+        for (int i = 0; i < devices.size(); i++) {
+            ids.add(devices.idAt(i));
+        }
+        for (int i = 0; i < passivated.size(); i++) {
+            ids.add(passivated.keyAt(i));
+        }
+        getSender().tell(new ReplyDeviceList(r.requestId, ids), getSelf());
     }
 
     private void onTerminated(Terminated t) {
         ActorRef deviceActor = t.getActor();
-        String deviceId = actorToDeviceId.get(deviceActor);
-        log.info("Device actor for {} has been terminated", deviceId);
-        actorToDeviceId.remove(deviceActor);
-        deviceIdToActor.remove(deviceId);
+        if (devices.slotOf(deviceActor) < 0) {
+            // a threshold subscriber
+            removeThresholdSubscriptions(deviceActor, null);
+            return;
+        }
+        String deviceId = devices.remove(deviceActor);
+
+        List<Buffered> buffered = passivating.remove(deviceActor);
+        if (buffered == null) {
+            log.info("Device actor for {} has been terminated", deviceId);
+            rejectPendingReadings(deviceId);
+            snapshot.remove(deviceId);
+            responseTimes.remove(deviceId);
+            if (membershipStore != null) {
+                membershipStore.tell(new GroupMembershipStore.RemoveDevice(deviceId), getSelf());
+            }
+        } else if (!buffered.isEmpty()) {
+            // messages arrived while it was stopping, so it is needed again right away
+            ActorRef recreated = rehydrate(deviceId);
+            for (Buffered b : buffered) {
+                recreated.tell(b.message, b.sender);
+            }
+        }
+    }
+
+    // readings of confirmed batches that a device stopped with count as rejected, a device stopping for
+    // passivation records them before it stops, or its recreated actor does
+    private void rejectPendingReadings(String deviceId) {
+        Long[] batchIds = pendingBatches.keySet().toArray(new Long[0]);
+        for (Long batchId : batchIds) {
+            PendingBatch pending = pendingBatches.get(batchId);
+            for (int slot = 0; slot < pending.deviceIds.length; slot++) {
+                if (pending.deviceIds[slot].equals(deviceId)) {
+                    pending.confirm(slot, false);
+                }
+            }
+            completeIfDone(batchId, pending);
+        }
+    }
+
+    /**
+     * Merges the rollups of the running devices with the windows the passivated devices left behind. Devices stopping
+     * for passivation are left out, they were told to stop already and hand their windows to the group on the way out.
+     */
+    private void onReadRollups(Device.ReadRollups r) {
+        groupMetrics.messages.increment();
+        RollupWindows passivatedRollups = r.resolution == Device.RollupResolution.MINUTE
+                ? passivatedMinuteRollups
+                : passivatedHourRollups;
+        if (passivatedRollups == null) {
+            getContext().actorOf(settings.withQueryDispatcher(DeviceGroupRollupQuery.props(
+                    new ActorRef[0], r, getSender(), 0, null, settings.groupQueryTimeout)));
+            return;
+        }
+        if (unknownReadings > 0) {
+            // their rollups are in their journals only
+            startDevicesWithUnknownReadings();
+        }
+        ActorRef[] deviceActors = new ActorRef[devices.size() - passivating.size()];
+        for (int slot = 0, i = 0; i < deviceActors.length; slot++) {
+            if (!passivating.containsKey(devices.actorAt(slot))) {
+                deviceActors[i++] = devices.actorAt(slot);
+            }
+        }
+        getContext().actorOf(settings.withQueryDispatcher(DeviceGroupRollupQuery.props(
+                deviceActors, r, getSender(), passivatedRollups.capacity(),
+                passivatedRollups.respond(r.requestId, r.fromTs, r.toTs), settings.groupQueryTimeout)));
+    }
+
+    private void onSubscribeThreshold(Device.SubscribeThreshold s) {
+        groupMetrics.messages.increment();
+        ActorRef subscriber = getSender();
+        removeThresholdSubscriptions(subscriber, s.requestId);
+        Device.AddThresholdSubscription subscription = new Device.AddThresholdSubscription(
+                subscriber, s.requestId, s.min, s.max, s.debounce.toNanos());
+        thresholdSubscriptions.add(subscription);
+        getContext().watch(subscriber);
+        for (int i = 0; i < devices.size(); i++) {
+            devices.actorAt(i).tell(subscription, getSelf());
+        }
+        subscriber.tell(new Device.ThresholdSubscribed(s.requestId), getSelf());
+    }
+
+    private void onUnsubscribeThreshold(Device.UnsubscribeThreshold u) {
+        groupMetrics.messages.increment();
+        ActorRef subscriber = getSender();
+        removeThresholdSubscriptions(subscriber, u.requestId);
+        if (!hasThresholdSubscriptions(subscriber)) {
+            // watched since its first subscription
+            getContext().unwatch(subscriber);
+        }
+        subscriber.tell(new Device.ThresholdUnsubscribed(u.requestId), getSelf());
+    }
+
+    private boolean hasThresholdSubscriptions(ActorRef subscriber) {
+        for (Device.AddThresholdSubscription subscription : thresholdSubscriptions) {
+            if (subscription.subscriber.equals(subscriber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the subscription of the subscriber with the request id, or all its subscriptions if it is null.
+     */
+    private void removeThresholdSubscriptions(ActorRef subscriber, Long requestId) {
+        for (int i = thresholdSubscriptions.size() - 1; i >= 0; i--) {
+            Device.AddThresholdSubscription subscription = thresholdSubscriptions.get(i);
+            if (subscription.subscriber.equals(subscriber)
+                    && (requestId == null || subscription.requestId == requestId)) {
+                thresholdSubscriptions.remove(i);
+                Device.RemoveThresholdSubscription removal =
+                        new Device.RemoveThresholdSubscription(subscriber, subscription.requestId);
+                for (int j = 0; j < devices.size(); j++) {
+                    devices.actorAt(j).tell(removal, getSelf());
+                }
+            }
+        }
+    }
+
+    private void onTemperatureChanged(TemperatureChanged changed) {
+        if (devices.contains(changed.deviceId) || passivated.contains(changed.deviceId)) {
+            snapshot.put(changed.deviceId, new Temperature(changed.value));
+        }
     }
 
     private void onAllTemperatures(RequestAllTemperatures r) {
+        groupMetrics.messages.increment();
+        // the snapshot lacks the devices whose reading is unknown, the query starts them
+        if (snapshotStaleness != null && unknownReadings == 0) {
+            getSender().tell(new RespondAllTemperatures(r.requestId, temperaturesFromSnapshot()), getSelf());
+            return;
+        }
+
+        startQuery(r.requestId, r.timeout != null ? r.timeout : settings.groupQueryTimeout, 0, null);
+    }
+
+    private void onAllTemperaturesStreaming(RequestAllTemperaturesStreaming r) {
+        groupMetrics.messages.increment();
+        if (snapshotStaleness != null && unknownReadings == 0) {
+            // the snapshot is complete at once, so its chunks are all sent right away
+            Map<String, TemperatureReading> temperatures = temperaturesFromSnapshot();
+            int chunks = 0;
+            Map<String, TemperatureReading> chunk = new HashMap<>();
+            for (Map.Entry<String, TemperatureReading> entry : temperatures.entrySet()) {
+                chunk.put(entry.getKey(), entry.getValue());
+                if (chunk.size() == r.chunkSize) {
+                    getSender().tell(new PartialTemperatures(r.requestId, chunks++, chunk), getSelf());
+                    chunk = new HashMap<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                getSender().tell(new PartialTemperatures(r.requestId, chunks++, chunk), getSelf());
+            }
+            getSender().tell(new AllTemperaturesCompleted(r.requestId, chunks, temperatures.size()), getSelf());
+            return;
+        }
+
+        startQuery(r.requestId, r.timeout != null ? r.timeout : settings.groupQueryTimeout, r.chunkSize, r.window);
+    }
+
+    private void onMembershipRecovered(GroupMembershipStore.MembershipRecovered recovered) {
+        int added = 0;
+        // a persistent device has its reading in its journal, the first query starts it to recover it. Without
+        // persistence the devices lost their readings
+        long timestamp = settings.persistenceEnabled ? LastReadings.UNKNOWN_READING : LastReadings.NO_READING;
+        for (String deviceId : recovered.deviceIds) {
+            // devices registered again while the store recovered are running already
+            if (!devices.contains(deviceId) && !passivated.contains(deviceId)) {
+                passivated.put(deviceId, 0.0, timestamp);
+                added++;
+            }
+        }
+        if (settings.persistenceEnabled) {
+            unknownReadings += added;
+        }
+        metrics.devicesPassivated.add(added);
+        log.info("DeviceGroup {} recovered {} devices", groupId, added);
+    }
+
+    private void startQuery(long requestId, FiniteDuration timeout, int chunkSize, FiniteDuration window) {
+        if (unknownReadings > 0) {
+            startDevicesWithUnknownReadings();
+        }
         // since Java collections are mutable, we want to avoid sharing them between actors (since multiple Actors (threads)
-        // modifying the same mutable data-structure is not safe), and perform a defensive copy of the mutable map:
-        //
-        // Feel free to use your favourite immutable data-structures library with Akka in Java applications!
-        Map<ActorRef, String> actorToDeviceIdCopy = new HashMap<>(this.actorToDeviceId);
+        // modifying the same mutable data-structure is not safe), and hand the query its own copy of the membership,
+        // laid out as arrays that the query indexes by device slot. Devices without a running actor are answered
+        // from their last reading, without waking them up.
+        int size = devices.size() - passivating.size() + passivated.size();
+        ActorRef[] deviceActors = new ActorRef[size];
+        String[] deviceIds = new String[size];
+        TemperatureReading[] knownReplies = new TemperatureReading[size];
+        int i = 0;
+        for (int slot = 0; slot < devices.size(); slot++) {
+            if (!passivating.containsKey(devices.actorAt(slot))) {
+                deviceActors[i] = devices.actorAt(slot);
+                deviceIds[i] = devices.idAt(slot);
+                i++;
+            }
+        }
+        for (int j = 0; j < passivated.size(); j++, i++) {
+            deviceIds[i] = passivated.keyAt(j);
+            knownReplies[i] = passivated.hasReading(j)
+                    ? new Temperature(passivated.value(j))
+                    : TemperatureNotAvailable.INSTANCE;
+        }
 
-        getContext().actorOf(DeviceGroupQuery.props(
-                actorToDeviceIdCopy, r.requestId, getSender(), new FiniteDuration(3, TimeUnit.SECONDS)));
+        boolean[] slow = null;
+        if (settings.groupAdaptiveTimeout) {
+            slow = new boolean[size];
+            timeout = adaptiveTimeout(deviceActors, deviceIds, slow, timeout);
+        }
+        getContext().actorOf(settings.withQueryDispatcher(DeviceGroupQuery.props(
+                deviceActors, deviceIds, knownReplies, slow, requestId, getSender(), timeout, chunkSize, window)));
+    }
+
+    // asked by the query like any running device, they answer once they recovered their reading
+    private void startDevicesWithUnknownReadings() {
+        List<String> deviceIds = new ArrayList<>(unknownReadings);
+        for (int i = 0; i < passivated.size(); i++) {
+            if (!passivated.isReadingKnown(i)) {
+                deviceIds.add(passivated.keyAt(i));
+            }
+        }
+        log.info("Starting {} devices of group {} to recover their readings", deviceIds.size(), groupId);
+        for (String deviceId : deviceIds) {
+            rehydrate(deviceId);
+        }
+    }
+
+    /**
+     * Marks the devices that missed the last queries as slow, and shortens the timeout to the longest time one of the
+     * other devices is expected to take, see {@link ResponseTimes}. A device without an estimate gets the whole
+     * {@code requested} timeout.
+     */
+    private FiniteDuration adaptiveTimeout(ActorRef[] deviceActors, String[] deviceIds, boolean[] slow,
+                                           FiniteDuration requested) {
+        long longestMicros = 0;
+        boolean waitsForAny = false;
+        for (int i = 0; i < deviceActors.length; i++) {
+            if (deviceActors[i] == null) {
+                continue;
+            }
+            int index = responseTimes.indexOf(deviceIds[i]);
+            if (index >= 0 && responseTimes.misses(index) >= settings.groupAdaptiveTimeoutSlowAfter) {
+                slow[i] = true;
+                continue;
+            }
+            if (index < 0 || !responseTimes.hasEstimate(index)) {
+                return requested;
+            }
+            waitsForAny = true;
+            longestMicros = Math.max(longestMicros, responseTimes.timeoutMicros(index));
+        }
+        if (waitsForAny) {
+            longestMicros = Math.max(longestMicros, settings.groupAdaptiveTimeoutMin.toMicros());
+        } else {
+            // every device is slow, they get the minimum to prove otherwise
+            longestMicros = settings.groupAdaptiveTimeoutMin.toMicros();
+        }
+        if (longestMicros >= requested.toMicros()) {
+            return requested;
+        }
+        return new FiniteDuration(longestMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private void onResponseTimesObserved(ResponseTimesObserved observed) {
+        for (int i = 0; i < observed.deviceIds.length; i++) {
+            String deviceId = observed.deviceIds[i];
+            // the device may have stopped since the query started
+            if (!devices.contains(deviceId) && !passivated.contains(deviceId)) {
+                continue;
+            }
+            if (observed.micros[i] >= 0) {
+                responseTimes.recordResponse(deviceId, observed.micros[i]);
+            } else {
+                responseTimes.recordTimeout(deviceId);
+            }
+        }
+    }
+
+    private Map<String, TemperatureReading> temperaturesFromSnapshot() {
+        Map<String, TemperatureReading> temperatures = new HashMap<>((devices.size() + passivated.size()) * 4 / 3 + 1);
+        for (int i = 0; i < devices.size(); i++) {
+            temperatures.put(devices.idAt(i), snapshotReading(devices.idAt(i)));
+        }
+        for (int i = 0; i < passivated.size(); i++) {
+            temperatures.put(passivated.keyAt(i), snapshotReading(passivated.keyAt(i)));
+        }
+        return temperatures;
+    }
+
+    private TemperatureReading snapshotReading(String deviceId) {
+        Temperature temperature = snapshot.get(deviceId);
+        return temperature != null ? temperature : TemperatureNotAvailable.INSTANCE;
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(DeviceManager.RequestTrackDevice.class, this::onTrackDevice)
+                .match(DeviceManager.RequestTrackDevices.class, this::onTrackDevices)
+                .match(RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
                 .match(RequestDeviceList.class, this::onDeviceList)
+                .match(Device.TemperaturesRecorded.class, this::onTemperaturesRecorded)
+                .match(BatchExpired.class, this::onBatchExpired)
                 .match(Terminated.class, this::onTerminated)
                 .match(RequestAllTemperatures.class, this::onAllTemperatures)
+                .match(RequestAllTemperaturesStreaming.class, this::onAllTemperaturesStreaming)
+                .match(TemperatureChanged.class, this::onTemperatureChanged)
+                .match(Passivate.class, this::onPassivate)
+                .match(Passivated.class, this::onPassivated)
+                .match(GroupMembershipStore.MembershipRecovered.class, this::onMembershipRecovered)
+                .match(ResponseTimesObserved.class, this::onResponseTimesObserved)
+                .match(Device.ReadRollups.class, this::onReadRollups)
+                .match(Device.SubscribeThreshold.class, this::onSubscribeThreshold)
+                .match(Device.UnsubscribeThreshold.class, this::onUnsubscribeThreshold)
                 .build();
     }
 
-    public static final class RequestAllTemperatures {
+    public static final class RequestAllTemperatures implements IotSerializable {
         final long requestId;
+        // how long the group waits for its devices, null for iot.group.query-timeout. With adaptive timeouts the
+        // group may give up on its devices earlier, but never later
+        final FiniteDuration timeout;
 
         public RequestAllTemperatures(long requestId) {
+            this(requestId, null);
+        }
+
+        public RequestAllTemperatures(long requestId, FiniteDuration timeout) {
+            this.requestId = requestId;
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * Like {@link RequestAllTemperatures}, but the readings are streamed back in {@link PartialTemperatures}
+     * chunks as the devices reply: a chunk is sent once {@code chunkSize} replies are buffered, and every
+     * {@code window} for whatever arrived in the meantime, never more than {@code chunkSize} readings per chunk. The
+     * stream ends with {@link AllTemperaturesCompleted}.
+     */
+    public static final class RequestAllTemperaturesStreaming implements IotSerializable {
+        final long requestId;
+        final int chunkSize;
+        final FiniteDuration window;
+        // see RequestAllTemperatures
+        final FiniteDuration timeout;
+
+        public RequestAllTemperaturesStreaming(long requestId, int chunkSize, FiniteDuration window) {
+            this(requestId, chunkSize, window, null);
+        }
+
+        public RequestAllTemperaturesStreaming(long requestId, int chunkSize, FiniteDuration window, FiniteDuration timeout) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize must be > 0, was " + chunkSize);
+            }
+            if (window == null) {
+                throw new IllegalArgumentException("window must not be null");
+            }
+            this.requestId = requestId;
+            this.chunkSize = chunkSize;
+            this.window = window;
+            this.timeout = timeout;
+        }
+    }
+
+    public static final class PartialTemperatures implements IotSerializable {
+        public final long requestId;
+        // 0 based position of this chunk in the stream
+        public final int seqNr;
+        public final Map<String, TemperatureReading> temperatures;
+
+        public PartialTemperatures(long requestId, int seqNr, Map<String, TemperatureReading> temperatures) {
+            this.requestId = requestId;
+            this.seqNr = seqNr;
+            this.temperatures = temperatures;
+        }
+    }
+
+    public static final class AllTemperaturesCompleted implements IotSerializable {
+        public final long requestId;
+        // number of PartialTemperatures sent before this marker
+        public final int chunks;
+        // number of devices covered by all chunks together
+        public final int devices;
+
+        public AllTemperaturesCompleted(long requestId, int chunks, int devices) {
             this.requestId = requestId;
+            this.chunks = chunks;
+            this.devices = devices;
         }
     }
 
-    public static final class RespondAllTemperatures {
+    public static final class RespondAllTemperatures implements IotSerializable {
         public final long requestId;
         public final Map<String, TemperatureReading> temperatures;
 
@@ -135,7 +949,7 @@ public class DeviceGroup extends AbstractActor {
         }
     }
 
-    public static interface TemperatureReading {
+    public static interface TemperatureReading extends IotSerializable {
     }
 
     public static final class Temperature implements TemperatureReading {
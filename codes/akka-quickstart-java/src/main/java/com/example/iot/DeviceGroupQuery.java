@@ -6,9 +6,7 @@ import akka.event.LoggingAdapter;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * @author Charies Gavin
@@ -20,89 +18,293 @@ public class DeviceGroupQuery extends AbstractActor {
     public static final class CollectionTimeout {
     }
 
+    static final class FlushPartial {
+    }
+
+    // the device of a slot stopped, see getContext().watchWith
+    static final class DeviceTerminated {
+        final int slot;
+
+        DeviceTerminated(int slot) {
+            this.slot = slot;
+        }
+    }
+
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
-    final Map<ActorRef, String> actorToDeviceId;
+    // every device owns one slot, the same index in deviceActors, deviceIds and replies.
+    // The slot is also the request id sent to the device, so replies are matched without a lookup
+    final ActorRef[] deviceActors;
+    final String[] deviceIds;
+    final DeviceGroup.TemperatureReading[] replies;
     final long requestId;
     final ActorRef requester;
 
+    // devices the query waits for and that have not answered yet
+    int stillWaiting;
+    // asked devices that have not answered yet, including the slow ones the query does not wait for
+    int unanswered;
+
+    // adaptive timeouts only, see iot.group.adaptive-timeout: the devices the query does not wait for,
+    // and the response time of every device in microseconds, -1 until it answered. Both are null otherwise.
+    final boolean[] slow;
+    final int[] responseMicros;
+
+    final IotMetrics metrics = IotMetrics.get(getContext().getSystem());
+    final long startNanos = System.nanoTime();
+    // devices asked, not answered up front
+    int asked;
+    // devices asked and waited for
+    int waited;
+
+    // streaming mode only: replies are emitted in PartialTemperatures chunks of up to chunkSize
+    // replies, or whatever arrived within a window, whichever comes first. chunkSize is 0 otherwise.
+    final int chunkSize;
+    final int[] unsentSlots;
+    int unsentCount;
+    int chunksSent;
+
     Cancellable queryTimeoutTimer;
+    Cancellable flushTimer;
 
-    public DeviceGroupQuery(Map<ActorRef, String> actorToDeviceId, long requestId, ActorRef requester, FiniteDuration timeout) {
-        this.actorToDeviceId = actorToDeviceId;
+    public DeviceGroupQuery(ActorRef[] deviceActors, String[] deviceIds, long requestId, ActorRef requester, FiniteDuration timeout) {
+        this(deviceActors, deviceIds, null, null, requestId, requester, timeout, 0, null);
+    }
+
+    /**
+     * @param knownReplies null, or the readings of devices that have no running actor, e.g. passivated ones.
+     *                     Slots with a known reply have a null device actor and are not asked.
+     * @param slow         null, or the devices the query asks but does not wait for. When given, the query reports
+     *                     the response times of the devices to its parent group with
+     *                     {@link DeviceGroup.ResponseTimesObserved}.
+     */
+    public DeviceGroupQuery(ActorRef[] deviceActors, String[] deviceIds, DeviceGroup.TemperatureReading[] knownReplies,
+                            boolean[] slow, long requestId, ActorRef requester, FiniteDuration timeout,
+                            int chunkSize, FiniteDuration window) {
+        this.deviceActors = deviceActors;
+        this.deviceIds = deviceIds;
         this.requestId = requestId;
         this.requester = requester;
+        this.replies = knownReplies != null ? knownReplies : new DeviceGroup.TemperatureReading[deviceActors.length];
+        this.chunkSize = chunkSize;
+        this.unsentSlots = chunkSize > 0 ? new int[deviceActors.length] : null;
+        this.slow = slow;
+        this.responseMicros = slow != null ? new int[deviceActors.length] : null;
+
+        for (int i = 0; i < deviceActors.length; i++) {
+            if (replies[i] == null) {
+                if (slow == null || !slow[i]) {
+                    stillWaiting++;
+                    waited++;
+                }
+                unanswered++;
+                asked++;
+                if (responseMicros != null) {
+                    responseMicros[i] = -1;
+                }
+            } else if (chunkSize > 0) {
+                // known replies go out with the first chunks
+                unsentSlots[unsentCount++] = i;
+            }
+        }
 
         queryTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(
                 timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf()
         );
+
+        if (chunkSize > 0) {
+            flushTimer = getContext().getSystem().scheduler().schedule(
+                    window, window, getSelf(), new FlushPartial(), getContext().dispatcher(), getSelf()
+            );
+        }
+    }
+
+    /**
+     * The query takes ownership of both arrays, they must not be modified after the actor is created.
+     */
+    public static Props props(ActorRef[] deviceActors, String[] deviceIds, long requestId, ActorRef requester, FiniteDuration timeout) {
+        return Props.create(DeviceGroupQuery.class, () -> new DeviceGroupQuery(deviceActors, deviceIds, requestId, requester, timeout));
+    }
+
+    /**
+     * Props for a streaming query, which sends the replies to the requester as {@link DeviceGroup.PartialTemperatures}
+     * while they arrive and finishes with {@link DeviceGroup.AllTemperaturesCompleted}.
+     */
+    public static Props props(ActorRef[] deviceActors, String[] deviceIds, long requestId, ActorRef requester, FiniteDuration timeout,
+                              int chunkSize, FiniteDuration window) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be > 0, was " + chunkSize);
+        }
+        if (window == null) {
+            throw new IllegalArgumentException("window must not be null");
+        }
+        return Props.create(DeviceGroupQuery.class,
+                () -> new DeviceGroupQuery(deviceActors, deviceIds, null, null, requestId, requester, timeout, chunkSize, window));
+    }
+
+    /**
+     * Props for a query where some devices are answered up front or not waited for, see {@link
+     * #DeviceGroupQuery(ActorRef[], String[], DeviceGroup.TemperatureReading[], boolean[], long, ActorRef,
+     * FiniteDuration, int, FiniteDuration)}. A {@code chunkSize} of 0 answers with a single
+     * {@link DeviceGroup.RespondAllTemperatures}.
+     */
+    static Props props(ActorRef[] deviceActors, String[] deviceIds, DeviceGroup.TemperatureReading[] knownReplies,
+                       boolean[] slow, long requestId, ActorRef requester, FiniteDuration timeout,
+                       int chunkSize, FiniteDuration window) {
+        return Props.create(DeviceGroupQuery.class, () -> new DeviceGroupQuery(
+                deviceActors, deviceIds, knownReplies, slow, requestId, requester, timeout, chunkSize, window));
     }
 
     public static Props props(Map<ActorRef, String> actorToDeviceId, long requestId, ActorRef requester, FiniteDuration timeout) {
-        return Props.create(DeviceGroupQuery.class, () -> new DeviceGroupQuery(actorToDeviceId, requestId, requester, timeout));
+        ActorRef[] deviceActors = new ActorRef[actorToDeviceId.size()];
+        String[] deviceIds = new String[actorToDeviceId.size()];
+        int i = 0;
+        for (Map.Entry<ActorRef, String> entry : actorToDeviceId.entrySet()) {
+            deviceActors[i] = entry.getKey();
+            deviceIds[i] = entry.getValue();
+            i++;
+        }
+        return props(deviceActors, deviceIds, requestId, requester, timeout);
     }
 
     @Override
     public void preStart() {
-        for (ActorRef deviceActor : actorToDeviceId.keySet()) {
-            getContext().watch(deviceActor);
-            deviceActor.tell(new Device.ReadTemperature(0L), getSelf());
+        if (asked == 0) {
+            respondAndStop();
+            return;
+        }
+        for (int i = 0; i < deviceActors.length; i++) {
+            if (replies[i] == null) {
+                getContext().watchWith(deviceActors[i], new DeviceTerminated(i));
+                deviceActors[i].tell(new Device.ReadTemperature(i), getSelf());
+            }
         }
     }
 
     @Override
     public void postStop() {
         queryTimeoutTimer.cancel();
+        if (flushTimer != null) {
+            flushTimer.cancel();
+        }
     }
 
     @Override
     public Receive createReceive() {
-        return waitingForReplies(new HashMap<>(), actorToDeviceId.keySet());
-    }
-
-    public Receive waitingForReplies(
-            Map<String, DeviceGroup.TemperatureReading> repliesSoFar,
-            Set<ActorRef> stillWaiting) {
         return receiveBuilder()
                 .match(Device.RespondTemperature.class, r -> {
-                    ActorRef deviceActor = getSender();
-                    DeviceGroup.TemperatureReading reading = r.value
-                            .map(v -> (DeviceGroup.TemperatureReading) new DeviceGroup.Temperature(v))
-                            .orElse(DeviceGroup.TemperatureNotAvailable.INSTANCE);
-                    receivedResponse(deviceActor, reading, stillWaiting, repliesSoFar);
-                })
-                .match(Terminated.class, t -> {
-                    receivedResponse(t.getActor(), DeviceGroup.DeviceNotAvailable.INSTANCE, stillWaiting, repliesSoFar);
-                })
-                .match(CollectionTimeout.class, t -> {
-                    Map<String, DeviceGroup.TemperatureReading> replies = new HashMap<>(repliesSoFar);
-                    for (ActorRef deviceActor : stillWaiting) {
-                        String deviceId = actorToDeviceId.get(deviceActor);
-                        replies.put(deviceId, DeviceGroup.DeviceTimedOut.INSTANCE);
+                    int slot = (int) r.requestId;
+                    // the sender is checked, as devices answer whatever request id they were asked with
+                    if (slot >= 0 && slot < deviceActors.length && getSender().equals(deviceActors[slot])) {
+                        receivedResponse(slot, r.value.isPresent()
+                                ? new DeviceGroup.Temperature(r.value.get())
+                                : DeviceGroup.TemperatureNotAvailable.INSTANCE);
                     }
-                    requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, replies), getSelf());
-                    getContext().stop(getSelf());
                 })
+                .match(DeviceTerminated.class, t -> receivedResponse(t.slot, DeviceGroup.DeviceNotAvailable.INSTANCE))
+                .match(CollectionTimeout.class, t -> respondAndStop())
+                .match(FlushPartial.class, t -> flushPartial())
                 .build();
     }
 
-    public void receivedResponse(ActorRef deviceActor,
-                                 DeviceGroup.TemperatureReading reading,
-                                 Set<ActorRef> stillWaiting,
-                                 Map<String, DeviceGroup.TemperatureReading> repliesSoFar) {
-        getContext().unwatch(deviceActor);
-        String deviceId = actorToDeviceId.get(deviceActor);
+    private void receivedResponse(int slot, DeviceGroup.TemperatureReading reading) {
+        if (replies[slot] != null) {
+            // a known reply, or a late duplicate
+            return;
+        }
+        getContext().unwatch(deviceActors[slot]);
+        replies[slot] = reading;
+        if (responseMicros != null && reading != DeviceGroup.DeviceNotAvailable.INSTANCE) {
+            responseMicros[slot] = (int) Math.min((System.nanoTime() - startNanos) / 1000, Integer.MAX_VALUE);
+        }
+        if (slow == null || !slow[slot]) {
+            stillWaiting--;
+        }
+        unanswered--;
+        if (chunkSize > 0) {
+            unsentSlots[unsentCount++] = slot;
+        }
+        // when the query waits for none of its devices, only the timeout or the last answer ends it
+        if (unanswered == 0 || (stillWaiting == 0 && waited > 0)) {
+            respondAndStop();
+        } else if (chunkSize > 0 && unsentCount >= chunkSize) {
+            flushPartial();
+        }
+    }
 
-        Set<ActorRef> newStillWaiting = new HashSet<>(stillWaiting);
-        newStillWaiting.remove(deviceActor);
+    // sends the unsent replies in chunks of up to chunkSize, the known replies and the devices that timed out can be
+    // more than one chunk
+    private void flushPartial() {
+        for (int from = 0; from < unsentCount; from += chunkSize) {
+            int to = Math.min(unsentCount, from + chunkSize);
+            Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>((to - from) * 4 / 3 + 1);
+            for (int i = from; i < to; i++) {
+                int slot = unsentSlots[i];
+                temperatures.put(deviceIds[slot], replies[slot]);
+            }
+            requester.tell(new DeviceGroup.PartialTemperatures(requestId, chunksSent++, temperatures), getSelf());
+        }
+        unsentCount = 0;
+    }
+
+    private void timeOutUnanswered() {
+        metrics.groupQueryDevicesTimedOut.add(unanswered);
+        for (int i = 0; i < replies.length; i++) {
+            if (replies[i] == null) {
+                log.debug("Device {} did not answer query {} in time", deviceIds[i], requestId);
+                replies[i] = DeviceGroup.DeviceTimedOut.INSTANCE;
+                if (chunkSize > 0) {
+                    unsentSlots[unsentCount++] = i;
+                }
+            }
+        }
+        unanswered = 0;
+    }
+
+    private void reportResponseTimes() {
+        int observed = 0;
+        for (int i = 0; i < replies.length; i++) {
+            if (deviceActors[i] != null && replies[i] != DeviceGroup.DeviceNotAvailable.INSTANCE) {
+                observed++;
+            }
+        }
+        if (observed == 0) {
+            return;
+        }
+        String[] observedIds = new String[observed];
+        int[] observedMicros = new int[observed];
+        int j = 0;
+        for (int i = 0; i < replies.length; i++) {
+            if (deviceActors[i] != null && replies[i] != DeviceGroup.DeviceNotAvailable.INSTANCE) {
+                observedIds[j] = deviceIds[i];
+                observedMicros[j] = responseMicros[i];
+                j++;
+            }
+        }
+        getContext().getParent().tell(new DeviceGroup.ResponseTimesObserved(observedIds, observedMicros), getSelf());
+    }
 
-        Map<String, DeviceGroup.TemperatureReading> newRepliesSoFar = new HashMap<>(repliesSoFar);
-        newRepliesSoFar.put(deviceId, reading);
-        if (newStillWaiting.isEmpty()) {
-            requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, newRepliesSoFar), getSelf());
+    private void respondAndStop() {
+        if (unanswered > 0) {
+            timeOutUnanswered();
+        }
+        if (responseMicros != null) {
+            reportResponseTimes();
+        }
+        metrics.groupQueries.increment();
+        metrics.groupQueryDevicesAsked.add(asked);
+        metrics.groupQueryLatencyMicros.record((System.nanoTime() - startNanos) / 1000);
+        if (chunkSize > 0) {
+            flushPartial();
+            requester.tell(new DeviceGroup.AllTemperaturesCompleted(requestId, chunksSent, replies.length), getSelf());
             getContext().stop(getSelf());
-        } else {
-            getContext().become(waitingForReplies(newRepliesSoFar, newStillWaiting));
+            return;
+        }
+        Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>(replies.length * 4 / 3 + 1);
+        for (int i = 0; i < replies.length; i++) {
+            temperatures.put(deviceIds[i], replies[i]);
         }
+        requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, temperatures), getSelf());
+        getContext().stop(getSelf());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package com.example.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:48 AM
+ * @description merges the rollup windows of the devices of a group into one series
+ *
+ * Every device answers {@link Device.ReadRollups} from its own windows, the replies are added window by window into a
+ * {@link RollupWindows} of the same resolution, so the group never looks at raw readings. The windows the passivated
+ * devices of the group left behind are merged in from the start. Devices that stop or do not answer within the timeout
+ * are left out of the result.
+ */
+public class DeviceGroupRollupQuery extends AbstractActor {
+    static final class CollectionTimeout {
+    }
+
+    final ActorRef[] deviceActors;
+    final Device.ReadRollups request;
+    final ActorRef requester;
+    final RollupWindows merged;
+
+    int stillWaiting;
+
+    Cancellable queryTimeoutTimer;
+
+    DeviceGroupRollupQuery(ActorRef[] deviceActors, Device.ReadRollups request, ActorRef requester, int windows,
+                           Device.RespondRollups passivatedWindows, FiniteDuration timeout) {
+        this.deviceActors = deviceActors;
+        this.request = request;
+        this.requester = requester;
+        this.merged = new RollupWindows(request.resolution.windowMillis, Math.max(1, windows));
+        if (passivatedWindows != null) {
+            merged.merge(passivatedWindows);
+        }
+        this.stillWaiting = deviceActors.length;
+
+        queryTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(
+                timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf()
+        );
+    }
+
+    /**
+     * The query takes ownership of the array, it must not be modified after the actor is created.
+     *
+     * @param windows the number of windows the devices keep at the requested resolution
+     * @param passivatedWindows the windows of the devices that were passivated, null if there are none
+     */
+    static Props props(ActorRef[] deviceActors, Device.ReadRollups request, ActorRef requester, int windows,
+                       Device.RespondRollups passivatedWindows, FiniteDuration timeout) {
+        return Props.create(DeviceGroupRollupQuery.class, () -> new DeviceGroupRollupQuery(
+                deviceActors, request, requester, windows, passivatedWindows, timeout));
+    }
+
+    @Override
+    public void preStart() {
+        if (stillWaiting == 0) {
+            respondAndStop();
+            return;
+        }
+        for (ActorRef deviceActor : deviceActors) {
+            getContext().watch(deviceActor);
+            deviceActor.tell(request, getSelf());
+        }
+    }
+
+    @Override
+    public void postStop() {
+        queryTimeoutTimer.cancel();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Device.RespondRollups.class, r -> {
+                    merged.merge(r);
+                    received(getSender());
+                })
+                .match(Terminated.class, t -> received(t.getActor()))
+                .match(CollectionTimeout.class, t -> respondAndStop())
+                .build();
+    }
+
+    private void received(ActorRef deviceActor) {
+        getContext().unwatch(deviceActor);
+        if (--stillWaiting == 0) {
+            respondAndStop();
+        }
+    }
+
+    private void respondAndStop() {
+        requester.tell(merged.respond(request.requestId, request.fromTs, request.toTs), getSelf());
+        getContext().stop(getSelf());
+    }
+}
@@ -7,8 +7,11 @@ import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 
+import scala.concurrent.duration.FiniteDuration;
+
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Charies Gavin
@@ -19,11 +22,13 @@ import java.util.Map;
 public class DeviceManager extends AbstractActor {
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
+    final IotSettings settings = IotSettings.get(getContext().getSystem());
+
     public static Props props() {
         return Props.create(DeviceManager.class, DeviceManager::new);
     }
 
-    public static final class RequestTrackDevice {
+    public static final class RequestTrackDevice implements IotSerializable {
         public final String groupId;
         public final String deviceId;
 
@@ -33,11 +38,139 @@ public class DeviceManager extends AbstractActor {
         }
     }
 
-    public static final class DeviceRegistered {
+    public static final class DeviceRegistered implements IotSerializable {
+    }
+
+    /**
+     * Registers many devices of a group at once, answered with one {@link DevicesRegistered}. Unlike
+     * {@link RequestTrackDevice} the devices are not started and no device ActorRefs are handed out, a device actor
+     * is created when the first message is routed to the device through its group.
+     */
+    public static final class RequestTrackDevices implements IotSerializable {
+        public final String groupId;
+        public final String[] deviceIds;
+
+        public RequestTrackDevices(String groupId, String[] deviceIds) {
+            this.groupId = groupId;
+            this.deviceIds = deviceIds;
+        }
+    }
+
+    public static final class DevicesRegistered implements IotSerializable {
+        public final String groupId;
+        // devices that were not tracked before
+        public final int registered;
+        public final int alreadyTracked;
+        // device ids that are not valid actor names
+        public final int rejected;
+
+        public DevicesRegistered(String groupId, int registered, int alreadyTracked, int rejected) {
+            this.groupId = groupId;
+            this.registered = registered;
+            this.alreadyTracked = alreadyTracked;
+            this.rejected = rejected;
+        }
+    }
+
+    /**
+     * A burst of readings, given as parallel arrays with one entry per reading. The batch is split per
+     * group and per device, and answered with a single {@link TemperatureBatchRecorded}.
+     */
+    public static final class RecordTemperatureBatch implements IotSerializable {
+        final long requestId;
+        final String[] groupIds;
+        final String[] deviceIds;
+        final double[] values;
+        // whether the groups wait for their devices to record the readings before acknowledging them, which bounds
+        // the readings queued at the devices by the batches a sender has unacknowledged. Otherwise a group
+        // acknowledges its readings as soon as they are handed to the devices.
+        final boolean confirmed;
+
+        public RecordTemperatureBatch(long requestId, String[] groupIds, String[] deviceIds, double[] values) {
+            this(requestId, groupIds, deviceIds, values, false);
+        }
+
+        public RecordTemperatureBatch(long requestId, String[] groupIds, String[] deviceIds, double[] values,
+                                      boolean confirmed) {
+            if (groupIds.length != deviceIds.length || deviceIds.length != values.length) {
+                throw new IllegalArgumentException("groupIds, deviceIds and values must have the same length");
+            }
+            this.requestId = requestId;
+            this.groupIds = groupIds;
+            this.deviceIds = deviceIds;
+            this.values = values;
+            this.confirmed = confirmed;
+        }
+    }
+
+    public static final class TemperatureBatchRecorded implements IotSerializable {
+        public final long requestId;
+        // readings handed to their device, or recorded by it when the batch was confirmed
+        public final int recorded;
+        // readings for groups or devices that are not tracked, or whose device stopped before recording them
+        public final int rejected;
+
+        public TemperatureBatchRecorded(long requestId, int recorded, int rejected) {
+            this.requestId = requestId;
+            this.recorded = recorded;
+            this.rejected = rejected;
+        }
+    }
+
+    /**
+     * Collects the temperatures of all devices of all groups, answered with one {@link RespondAllGroupsTemperatures}
+     * within {@code timeout}.
+     */
+    public static final class RequestAllGroupsTemperatures implements IotSerializable {
+        final long requestId;
+        // overall deadline of the query, null for iot.group.query-timeout
+        final FiniteDuration timeout;
+
+        public RequestAllGroupsTemperatures(long requestId) {
+            this(requestId, null);
+        }
+
+        public RequestAllGroupsTemperatures(long requestId, FiniteDuration timeout) {
+            this.requestId = requestId;
+            this.timeout = timeout;
+        }
+    }
+
+    public static final class RespondAllGroupsTemperatures implements IotSerializable {
+        public final long requestId;
+        // groupId -> deviceId -> reading
+        public final Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures;
+        // groups that did not answer before the deadline
+        public final Set<String> timedOutGroups;
+
+        public RespondAllGroupsTemperatures(long requestId,
+                                            Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures,
+                                            Set<String> timedOutGroups) {
+            this.requestId = requestId;
+            this.temperatures = temperatures;
+            this.timedOutGroups = timedOutGroups;
+        }
+    }
+
+    // a batch that has been split over several groups and waits for their acks
+    static final class PendingBatch {
+        final long requestId;
+        final ActorRef replyTo;
+        // group actor -> number of readings sent to it
+        final Map<ActorRef, Integer> waitingFor = new HashMap<>();
+        int recorded;
+        int rejected;
+
+        PendingBatch(long requestId, ActorRef replyTo) {
+            this.requestId = requestId;
+            this.replyTo = replyTo;
+        }
     }
 
-    final Map<String, ActorRef> groupIdToActor = new HashMap<>();
-    final Map<ActorRef, String> actorToGroupId = new HashMap<>();
+    final DeviceRegistry groups = new DeviceRegistry();
+
+    final Map<Long, PendingBatch> pendingBatches = new HashMap<>();
+    long nextBatchId = 0L;
 
     @Override
     public void preStart() {
@@ -50,31 +183,129 @@ public class DeviceManager extends AbstractActor {
     }
 
     private void onTrackDevice(RequestTrackDevice trackMsg) {
-        String groupId = trackMsg.groupId;
-        ActorRef ref = groupIdToActor.get(groupId);
-        if (ref != null) {
-            ref.forward(trackMsg, getContext());
-        } else {
+        groupActorOf(trackMsg.groupId).forward(trackMsg, getContext());
+    }
+
+    private void onTrackDevices(RequestTrackDevices trackMsg) {
+        groupActorOf(trackMsg.groupId).forward(trackMsg, getContext());
+    }
+
+    private ActorRef groupActorOf(String groupId) {
+        ActorRef ref = groups.actorOf(groupId);
+        if (ref == null) {
             log.info("Creating device group actor for {}", groupId);
-            ActorRef groupActor = getContext().actorOf(DeviceGroup.props(groupId), "group-" + groupId);
-            getContext().watch(groupActor);
-            groupActor.forward(trackMsg, getContext());
-            groupIdToActor.put(groupId, groupActor);
-            actorToGroupId.put(groupActor, groupId);
+            ref = getContext().actorOf(settings.withIngestDispatcher(DeviceGroup.props(groupId)), "group-" + groupId);
+            getContext().watch(ref);
+            groups.put(groupId, ref);
+        }
+        return ref;
+    }
+
+    private void onRecordTemperatureBatch(RecordTemperatureBatch batch) {
+        Map<String, int[]> counts = new HashMap<>();
+        int rejected = 0;
+        for (String groupId : batch.groupIds) {
+            if (groups.contains(groupId)) {
+                counts.computeIfAbsent(groupId, g -> new int[1])[0]++;
+            } else {
+                rejected++;
+            }
+        }
+
+        Map<String, RecordTemperatureBatchSlice> slices = new HashMap<>(counts.size() * 2);
+        for (int i = 0; i < batch.groupIds.length; i++) {
+            int[] count = counts.get(batch.groupIds[i]);
+            if (count != null) {
+                slices.computeIfAbsent(batch.groupIds[i], g -> new RecordTemperatureBatchSlice(count[0]))
+                        .add(batch.deviceIds[i], batch.values[i]);
+            }
+        }
+
+        if (slices.isEmpty()) {
+            getSender().tell(new TemperatureBatchRecorded(batch.requestId, 0, rejected), getSelf());
+            return;
+        }
+
+        long batchId = nextBatchId++;
+        PendingBatch pending = new PendingBatch(batch.requestId, getSender());
+        pending.rejected = rejected;
+        for (Map.Entry<String, RecordTemperatureBatchSlice> entry : slices.entrySet()) {
+            ActorRef groupActor = groups.actorOf(entry.getKey());
+            RecordTemperatureBatchSlice slice = entry.getValue();
+            pending.waitingFor.put(groupActor, slice.deviceIds.length);
+            groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                    batchId, slice.deviceIds, slice.values, batch.confirmed), getSelf());
         }
+        pendingBatches.put(batchId, pending);
+    }
+
+    private void onGroupBatchRecorded(TemperatureBatchRecorded groupAck) {
+        PendingBatch pending = pendingBatches.get(groupAck.requestId);
+        if (pending != null && pending.waitingFor.remove(getSender()) != null) {
+            pending.recorded += groupAck.recorded;
+            pending.rejected += groupAck.rejected;
+            completeIfDone(groupAck.requestId, pending);
+        }
+    }
+
+    private void completeIfDone(long batchId, PendingBatch pending) {
+        if (pending.waitingFor.isEmpty()) {
+            pending.replyTo.tell(new TemperatureBatchRecorded(pending.requestId, pending.recorded, pending.rejected), getSelf());
+            pendingBatches.remove(batchId);
+        }
+    }
+
+    private void onAllGroupsTemperatures(RequestAllGroupsTemperatures r) {
+        ActorRef[] groupActors = new ActorRef[groups.size()];
+        String[] groupIds = new String[groups.size()];
+        groups.copyTo(groupActors, groupIds);
+        FiniteDuration timeout = r.timeout != null ? r.timeout : settings.groupQueryTimeout;
+        getContext().actorOf(settings.withQueryDispatcher(
+                DeviceManagerQuery.props(groupActors, groupIds, r.requestId, getSender(), timeout)));
     }
 
     private void onTerminated(Terminated t) {
         ActorRef groupActor = t.getActor();
-        String groupId = actorToGroupId.get(groupActor);
+        String groupId = groups.remove(groupActor);
         log.info("Device group actor for {} has been terminated", groupId);
-        actorToGroupId.remove(groupActor);
-        groupIdToActor.remove(groupId);
+
+        // readings sent to a group that stopped before acknowledging them count as rejected
+        Long[] batchIds = pendingBatches.keySet().toArray(new Long[0]);
+        for (Long batchId : batchIds) {
+            PendingBatch pending = pendingBatches.get(batchId);
+            Integer lost = pending.waitingFor.remove(groupActor);
+            if (lost != null) {
+                pending.rejected += lost;
+                completeIfDone(batchId, pending);
+            }
+        }
+    }
+
+    // the readings of one batch that go to the same group
+    static final class RecordTemperatureBatchSlice {
+        final String[] deviceIds;
+        final double[] values;
+        int size;
+
+        RecordTemperatureBatchSlice(int capacity) {
+            this.deviceIds = new String[capacity];
+            this.values = new double[capacity];
+        }
+
+        void add(String deviceId, double value) {
+            deviceIds[size] = deviceId;
+            values[size] = value;
+            size++;
+        }
     }
 
     public Receive createReceive() {
         return receiveBuilder()
                 .match(RequestTrackDevice.class, this::onTrackDevice)
+                .match(RequestTrackDevices.class, this::onTrackDevices)
+                .match(RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+                .match(TemperatureBatchRecorded.class, this::onGroupBatchRecorded)
+                .match(RequestAllGroupsTemperatures.class, this::onAllGroupsTemperatures)
                 .match(Terminated.class, this::onTerminated)
                 .build();
     }
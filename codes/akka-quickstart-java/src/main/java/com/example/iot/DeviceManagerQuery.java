@@ -0,0 +1,154 @@
+package com.example.iot;
+
+import akka.actor.*;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,1:55 AM
+ * @description device manager query actor, collects the temperatures of all device groups
+ */
+public class DeviceManagerQuery extends AbstractActor {
+    public static final class CollectionTimeout {
+    }
+
+    // every group owns one slot, the same index in groupActors, groupIds and replies.
+    // The slot is also the request id sent to the group, so replies are matched without a lookup.
+    // null when the groups are not reached through an ActorRef of their own, see the subclass constructor
+    final ActorRef[] groupActors;
+    final String[] groupIds;
+    final Map<ActorRef, Integer> slots;
+    // a group that stopped before answering is answered without replies
+    final boolean[] answered;
+    final List<Map<String, DeviceGroup.TemperatureReading>> replies;
+    final long requestId;
+    final ActorRef requester;
+    final FiniteDuration timeout;
+
+    int stillWaiting;
+
+    final IotMetrics metrics = IotMetrics.get(getContext().getSystem());
+    final long startNanos = System.nanoTime();
+
+    Cancellable queryTimeoutTimer;
+
+    public DeviceManagerQuery(ActorRef[] groupActors, String[] groupIds, long requestId, ActorRef requester, FiniteDuration timeout) {
+        this.groupActors = groupActors;
+        this.groupIds = groupIds;
+        this.requestId = requestId;
+        this.requester = requester;
+        this.timeout = timeout;
+        this.replies = new ArrayList<>(Collections.nCopies(groupIds.length, null));
+        this.answered = new boolean[groupIds.length];
+        this.stillWaiting = groupIds.length;
+
+        this.slots = new HashMap<>(groupIds.length * 4 / 3 + 1);
+        if (groupActors != null) {
+            for (int i = 0; i < groupActors.length; i++) {
+                slots.put(groupActors[i], i);
+            }
+        }
+
+        queryTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(
+                timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf()
+        );
+    }
+
+    /**
+     * For subclasses that reach the groups by their id, e.g. through a cluster sharding region. They send the
+     * {@link DeviceGroup.RequestAllTemperatures} of every slot themselves in {@link #preStart()}, and as there is no
+     * ActorRef of a group to watch, a group that stops only shows as timed out.
+     */
+    protected DeviceManagerQuery(String[] groupIds, long requestId, ActorRef requester, FiniteDuration timeout) {
+        this(null, groupIds, requestId, requester, timeout);
+    }
+
+    /**
+     * The query takes ownership of both arrays, they must not be modified after the actor is created.
+     */
+    public static Props props(ActorRef[] groupActors, String[] groupIds, long requestId, ActorRef requester, FiniteDuration timeout) {
+        return Props.create(DeviceManagerQuery.class, () -> new DeviceManagerQuery(groupActors, groupIds, requestId, requester, timeout));
+    }
+
+    @Override
+    public void preStart() {
+        if (groupIds.length == 0) {
+            respondAndStop();
+            return;
+        }
+        // groups get a share of the overall deadline, so that their answers, including devices that
+        // timed out, still arrive here in time
+        FiniteDuration groupTimeout = new FiniteDuration(timeout.toMillis() * 4 / 5, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < groupActors.length; i++) {
+            getContext().watch(groupActors[i]);
+            groupActors[i].tell(new DeviceGroup.RequestAllTemperatures(i, groupTimeout), getSelf());
+        }
+    }
+
+    @Override
+    public void postStop() {
+        queryTimeoutTimer.cancel();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(DeviceGroup.RespondAllTemperatures.class, r -> {
+                    // answered by the group's own query actor, so the request id identifies the group, not the sender
+                    int slot = (int) r.requestId;
+                    if (slot >= 0 && slot < groupIds.length) {
+                        receivedResponse(slot, r.temperatures);
+                    }
+                })
+                .match(Terminated.class, t -> {
+                    Integer slot = slots.get(t.getActor());
+                    if (slot != null) {
+                        receivedResponse(slot, null);
+                    }
+                })
+                .match(CollectionTimeout.class, t -> respondAndStop())
+                .build();
+    }
+
+    private void receivedResponse(int slot, Map<String, DeviceGroup.TemperatureReading> temperatures) {
+        if (answered[slot]) {
+            // late duplicate
+            return;
+        }
+        if (groupActors != null) {
+            getContext().unwatch(groupActors[slot]);
+        }
+        answered[slot] = true;
+        replies.set(slot, temperatures);
+        stillWaiting--;
+        if (stillWaiting == 0) {
+            respondAndStop();
+        }
+    }
+
+    void respondAndStop() {
+        Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures = new HashMap<>(groupIds.length * 4 / 3 + 1);
+        Set<String> timedOutGroups = new HashSet<>();
+        for (int i = 0; i < groupIds.length; i++) {
+            if (replies.get(i) != null) {
+                temperatures.put(groupIds[i], replies.get(i));
+            } else if (!answered[i]) {
+                timedOutGroups.add(groupIds[i]);
+                metrics.groupTimedOut(groupIds[i]);
+            }
+        }
+        metrics.managerQueryLatencyMicros.record((System.nanoTime() - startNanos) / 1000);
+        requester.tell(new DeviceManager.RespondAllGroupsTemperatures(requestId, temperatures, timedOutGroups), getSelf());
+        getContext().stop(getSelf());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:02 AM
+ * @description bidirectional id to actor registry, replaces a pair of HashMaps without per entry node objects
+ *
+ * Entries live densely in slots 0 until {@link #size()}, indexed by two {@link SlotIndex}es over the same slots, one
+ * by id and one by actor, so a lookup in either direction is one probe sequence over an int[] and no boxed keys,
+ * entries or values are allocated. Every id is stored once. Removing an entry moves the last entry into its slot,
+ * so slots are only stable as long as nothing is removed.
+ *
+ * Ids are not interned. The registry keeps the id instance it was given. The group passes that same instance
+ * on to its other per device state, so every id is retained once per group already. Interning would only
+ * merge equal ids of different groups, at the cost of a lookup in the JVM wide string table for every new
+ * device, and a table that has to be sized for millions of entries with -XX:StringTableSize. Where ids do
+ * repeat across groups, G1's -XX:+UseStringDeduplication shares their characters without that cost.
+ */
+public final class DeviceRegistry {
+    // both indexes always hold the same number of keys, so an entry has the same slot in both
+    private final SlotIndex<String> ids;
+    private final SlotIndex<ActorRef> actors;
+
+    public DeviceRegistry() {
+        this(16);
+    }
+
+    public DeviceRegistry(int expectedSize) {
+        ids = new SlotIndex<>(String[]::new, expectedSize);
+        actors = new SlotIndex<>(ActorRef[]::new, expectedSize);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public boolean isEmpty() {
+        return ids.size() == 0;
+    }
+
+    public String idAt(int slot) {
+        return ids.keyAt(slot);
+    }
+
+    public ActorRef actorAt(int slot) {
+        return actors.keyAt(slot);
+    }
+
+    /**
+     * Slot of the entry with the given id, or -1.
+     */
+    public int slotOf(String id) {
+        return ids.slotOf(id);
+    }
+
+    /**
+     * Slot of the entry with the given actor, or -1.
+     */
+    public int slotOf(ActorRef actor) {
+        return actors.slotOf(actor);
+    }
+
+    public ActorRef actorOf(String id) {
+        int slot = ids.slotOf(id);
+        return slot < 0 ? null : actors.keyAt(slot);
+    }
+
+    public String idOf(ActorRef actor) {
+        int slot = actors.slotOf(actor);
+        return slot < 0 ? null : ids.keyAt(slot);
+    }
+
+    public boolean contains(String id) {
+        return ids.slotOf(id) >= 0;
+    }
+
+    /**
+     * Adds an entry, neither the id nor the actor may be registered already.
+     */
+    public void put(String id, ActorRef actor) {
+        if (ids.slotOf(id) >= 0 || actors.slotOf(actor) >= 0) {
+            throw new IllegalArgumentException("Already registered: " + id + " -> " + actor);
+        }
+        ids.add(id);
+        actors.add(actor);
+    }
+
+    /**
+     * Removes the entry of the given actor.
+     *
+     * @return the id the actor was registered with, or null if it was not registered
+     */
+    public String remove(ActorRef actor) {
+        int slot = actors.slotOf(actor);
+        if (slot < 0) {
+            return null;
+        }
+        String id = ids.keyAt(slot);
+        // both move their last entry into the slot
+        ids.removeAt(slot);
+        actors.removeAt(slot);
+        return id;
+    }
+
+    /**
+     * Copies all entries into the given arrays, starting at index 0, in slot order.
+     */
+    public void copyTo(ActorRef[] actorsOut, String[] idsOut) {
+        actors.copyTo(actorsOut);
+        ids.copyTo(idsOut);
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Terminated;
+import akka.event.LoggingAdapter;
+import akka.japi.pf.ReceiveBuilder;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:51 AM
+ * @description readings, reporting, thresholds and passivation of one device, shared by Device and PersistentDevice
+ *
+ * The two actors only differ in how a reading is recorded, PersistentDevice journals it first. Everything else of the
+ * {@link Device} protocol is handled here, see {@link #matchCommon}. Owned by one actor and only used from within it.
+ */
+final class DeviceState {
+    private final AbstractActor.ActorContext context;
+    private final LoggingAdapter log;
+
+    final String groupId;
+
+    final String deviceId;
+
+    // how often changes are reported to the parent DeviceGroup at most, null if they are not reported
+    final FiniteDuration reportInterval;
+
+    // inactivity after which the device asks its parent DeviceGroup to passivate it, null to never passivate
+    final FiniteDuration idleTimeout;
+
+    final IotSettings settings;
+
+    final IotMetrics metrics;
+
+    // most recent readings, the last one answers ReadTemperature
+    final TemperatureHistory history;
+
+    // null when the resolution is not kept, see iot.device.rollups
+    final RollupWindows minuteRollups;
+    final RollupWindows hourRollups;
+
+    // state of reporting to the parent group, only used when reportInterval is set
+    boolean reported = false;
+    double lastReportedValue;
+    long lastReportNanos;
+    Cancellable reportTimer;
+
+    // set once the device asked its group to passivate it
+    boolean passivating = false;
+
+    // null until the first threshold subscription, most devices never have one
+    ThresholdSubscriptions thresholds;
+    // fires when the first pending threshold change is due
+    Cancellable thresholdTimer;
+    long thresholdTimerDeadline;
+
+    DeviceState(AbstractActor.ActorContext context, LoggingAdapter log, String groupId, String deviceId,
+                FiniteDuration reportInterval, FiniteDuration idleTimeout) {
+        this.context = context;
+        this.log = log;
+        this.groupId = groupId;
+        this.deviceId = deviceId;
+        this.reportInterval = reportInterval;
+        this.idleTimeout = idleTimeout;
+        this.settings = IotSettings.get(context.getSystem());
+        this.metrics = IotMetrics.get(context.getSystem());
+        this.history = new TemperatureHistory(settings.deviceHistoryCapacity);
+        this.minuteRollups = rollupWindows(Device.RollupResolution.MINUTE, settings.deviceRollupMinuteWindows);
+        this.hourRollups = rollupWindows(Device.RollupResolution.HOUR, settings.deviceRollupHourWindows);
+    }
+
+    void started() {
+        if (idleTimeout != null) {
+            context.setReceiveTimeout(idleTimeout);
+        }
+        metrics.devicesStarted.increment();
+    }
+
+    void stopped() {
+        if (reportTimer != null) {
+            reportTimer.cancel();
+        }
+        if (thresholdTimer != null) {
+            thresholdTimer.cancel();
+        }
+        if (passivating) {
+            // sent on the way out, so the group keeps the latest reading even if one was recorded after asking to
+            // passivate, and the rollups of the device, which it merges into those of the other passivated devices
+            context.getParent().tell(new DeviceGroup.Passivated(deviceId,
+                    history.isEmpty() ? LastReadings.NO_READING : history.lastTimestamp(),
+                    history.isEmpty() ? 0.0 : history.lastValue(),
+                    allWindows(minuteRollups), allWindows(hourRollups)), context.self());
+        }
+        metrics.devicesStopped.increment();
+    }
+
+    /**
+     * Adds the handlers of every message of the protocol but the recording of readings to {@code builder}.
+     */
+    ReceiveBuilder matchCommon(ReceiveBuilder builder) {
+        return builder
+                .match(DeviceManager.RequestTrackDevice.class, r -> {
+                    if (this.groupId.equals(r.groupId) && this.deviceId.equals(r.deviceId)) {
+                        context.sender().tell(new DeviceManager.DeviceRegistered(), context.self());
+                    } else {
+                        log.warning(
+                                "Ignoring TrackDevice request for {}-{}.This actor is responsible for {}-{}.",
+                                r.groupId, r.deviceId, this.groupId, this.deviceId
+                        );
+                    }
+                })
+                .match(ReceiveTimeout.class, r -> {
+                    if (thresholds != null && thresholds.hasDirectSubscriptions()) {
+                        // the subscribers know this actor, a recreated device would not know them
+                        return;
+                    }
+                    // the group answers with a Stop, so messages it routed here before are still processed
+                    context.setReceiveTimeout(Duration.Undefined());
+                    passivating = true;
+                    context.getParent().tell(history.isEmpty()
+                            ? new DeviceGroup.Passivate(deviceId, LastReadings.NO_READING, 0.0)
+                            : new DeviceGroup.Passivate(deviceId, history.lastTimestamp(), history.lastValue()), context.self());
+                })
+                .match(Device.Stop.class, s -> context.stop(context.self()))
+                .match(Device.ReportTemperature.class, r -> {
+                    reportTimer = null;
+                    reportTemperature();
+                })
+                .match(Device.ReadTemperature.class, r -> {
+                    metrics.temperatureReads.increment();
+                    Optional<Double> value = history.isEmpty() ? Optional.empty() : Optional.of(history.lastValue());
+                    context.sender().tell(new Device.RespondTemperature(r.requestId, value), context.self());
+                })
+                .match(Device.ReadTemperatureHistory.class, this::onReadTemperatureHistory)
+                .match(Device.ReadRollups.class, r -> context.sender().tell(readRollups(
+                        r, r.resolution == Device.RollupResolution.MINUTE ? minuteRollups : hourRollups), context.self()))
+                .match(Device.SubscribeThreshold.class, s -> {
+                    ActorRef subscriber = context.sender();
+                    subscribe(subscriber, s.requestId, s.min, s.max, s.debounce.toNanos(), true);
+                    context.watch(subscriber);
+                    subscriber.tell(new Device.ThresholdSubscribed(s.requestId), context.self());
+                })
+                .match(Device.AddThresholdSubscription.class, a ->
+                        subscribe(a.subscriber, a.requestId, a.min, a.max, a.debounceNanos, false))
+                .match(Device.UnsubscribeThreshold.class, u -> {
+                    ActorRef subscriber = context.sender();
+                    if (thresholds != null && thresholds.remove(subscriber, u.requestId)
+                            && !thresholds.hasDirectSubscriptions(subscriber)) {
+                        // watched since its first direct subscription
+                        context.unwatch(subscriber);
+                    }
+                    subscriber.tell(new Device.ThresholdUnsubscribed(u.requestId), context.self());
+                })
+                .match(Device.RemoveThresholdSubscription.class, r -> {
+                    if (thresholds != null) {
+                        thresholds.remove(r.subscriber, r.requestId);
+                    }
+                })
+                .match(Device.CheckThresholds.class, c -> {
+                    thresholdTimer = null;
+                    if (thresholds != null && thresholds.checkPending(
+                            history.lastValue(), history.lastTimestamp(), System.nanoTime(), context.self())) {
+                        scheduleThresholdCheck();
+                    }
+                })
+                .match(Terminated.class, t -> {
+                    // a directly subscribed subscriber
+                    if (thresholds != null) {
+                        thresholds.removeSubscriber(t.getActor());
+                    }
+                })
+                .match(Device.ReadTemperatureStats.class, r -> {
+                    if (history.isEmpty()) {
+                        context.sender().tell(new Device.RespondTemperatureStats(
+                                r.requestId, 0, Double.NaN, Double.NaN, Double.NaN), context.self());
+                    } else {
+                        context.sender().tell(new Device.RespondTemperatureStats(
+                                r.requestId, history.size(), history.min(), history.max(), history.mean()), context.self());
+                    }
+                });
+    }
+
+    /**
+     * Keeps a reading in the history and the rollups, without checking thresholds, e.g. one that is recovered.
+     */
+    void restore(long timestamp, double value) {
+        history.record(timestamp, value);
+        if (minuteRollups != null) {
+            minuteRollups.record(timestamp, value);
+        }
+        if (hourRollups != null) {
+            hourRollups.record(timestamp, value);
+        }
+    }
+
+    /**
+     * Keeps a new reading and checks it against the threshold subscriptions. Call {@link #recorded()} after the
+     * readings of a message.
+     */
+    void record(long timestamp, double value) {
+        restore(timestamp, value);
+        if (thresholds != null) {
+            checkThresholds(value, timestamp);
+        }
+    }
+
+    /**
+     * Reports the latest reading to the group, now or once the report interval has passed.
+     */
+    void recorded() {
+        if (reportInterval == null || reportTimer != null) {
+            // not reporting, or a report of the latest reading is already scheduled
+            return;
+        }
+        long sinceLastReport = System.nanoTime() - lastReportNanos;
+        if (!reported || sinceLastReport >= reportInterval.toNanos()) {
+            reportTemperature();
+        } else {
+            reportTimer = context.getSystem().scheduler().scheduleOnce(
+                    new FiniteDuration(reportInterval.toNanos() - sinceLastReport, TimeUnit.NANOSECONDS),
+                    context.self(), new Device.ReportTemperature(), context.dispatcher(), context.self()
+            );
+        }
+    }
+
+    private void reportTemperature() {
+        double value = history.lastValue();
+        if (!reported || Double.compare(value, lastReportedValue) != 0) {
+            reported = true;
+            lastReportedValue = value;
+            lastReportNanos = System.nanoTime();
+            context.getParent().tell(new DeviceGroup.TemperatureChanged(deviceId, value), context.self());
+        }
+    }
+
+    /**
+     * Forgets the rollups, e.g. those a persistent device recovered that its group kept since it was passivated.
+     */
+    void clearRollups() {
+        if (minuteRollups != null) {
+            minuteRollups.clear();
+        }
+        if (hourRollups != null) {
+            hourRollups.clear();
+        }
+    }
+
+    static RollupWindows rollupWindows(Device.RollupResolution resolution, int windows) {
+        return windows > 0 ? new RollupWindows(resolution.windowMillis, windows) : null;
+    }
+
+    static Device.RespondRollups readRollups(Device.ReadRollups r, RollupWindows windows) {
+        if (windows == null) {
+            return new Device.RespondRollups(r.requestId, new long[0], new int[0], new double[0], new double[0], new double[0]);
+        }
+        return windows.respond(r.requestId, r.fromTs, r.toTs);
+    }
+
+    private static Device.RespondRollups allWindows(RollupWindows windows) {
+        return windows != null ? windows.respond(0L, Long.MIN_VALUE, Long.MAX_VALUE) : null;
+    }
+
+    private void subscribe(ActorRef subscriber, long requestId, double min, double max, long debounceNanos, boolean direct) {
+        if (thresholds == null) {
+            thresholds = new ThresholdSubscriptions(groupId, deviceId);
+        }
+        thresholds.add(subscriber, requestId, min, max, debounceNanos, direct);
+    }
+
+    private void checkThresholds(double value, long timestamp) {
+        if (thresholds.record(value, timestamp, System.nanoTime(), context.self())
+                && (thresholdTimer == null || thresholds.nextDeadlineNanos() < thresholdTimerDeadline)) {
+            scheduleThresholdCheck();
+        }
+    }
+
+    private void scheduleThresholdCheck() {
+        if (thresholdTimer != null) {
+            thresholdTimer.cancel();
+        }
+        thresholdTimerDeadline = thresholds.nextDeadlineNanos();
+        thresholdTimer = context.getSystem().scheduler().scheduleOnce(
+                new FiniteDuration(Math.max(0, thresholdTimerDeadline - System.nanoTime()), TimeUnit.NANOSECONDS),
+                context.self(), new Device.CheckThresholds(), context.dispatcher(), context.self()
+        );
+    }
+
+    private void onReadTemperatureHistory(Device.ReadTemperatureHistory r) {
+        int count = history.count(r.fromTs, r.toTs);
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        history.copyRange(r.fromTs, r.toTs, timestamps, values);
+        context.sender().tell(new Device.RespondTemperatureHistory(r.requestId, timestamps, values), context.self());
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:11 AM
+ * @description device membership of a DeviceGroup in a local file, a child of the group when
+ * iot.group.membership-file.directory is set and persistence is off
+ *
+ * Speaks the protocol of {@link GroupMembershipStore}. The file has one line per change, {@code +id} when a device
+ * was added and {@code -id} when it was removed, appended at most once per flush interval. On start the file is
+ * read, rewritten with the remaining devices only, and the device ids are sent to the group with one
+ * {@link GroupMembershipStore.MembershipRecovered}. Runs on the blocking IO dispatcher.
+ */
+public class GroupMembershipFile extends AbstractActor {
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    final String groupId;
+
+    final Path file;
+
+    final FiniteDuration flushInterval;
+
+    final Set<String> deviceIds = new LinkedHashSet<>();
+
+    BufferedWriter writer;
+    Cancellable flushTimer;
+
+    GroupMembershipFile(String groupId, Path directory, FiniteDuration flushInterval) {
+        this.groupId = groupId;
+        this.file = directory.resolve(encode(groupId) + ".members");
+        this.flushInterval = flushInterval;
+    }
+
+    static Props props(String groupId, String directory, FiniteDuration flushInterval) {
+        return Props.create(GroupMembershipFile.class,
+                () -> new GroupMembershipFile(groupId, Paths.get(directory), flushInterval))
+                .withDispatcher("akka.actor.default-blocking-io-dispatcher");
+    }
+
+    private static String encode(String groupId) {
+        try {
+            return URLEncoder.encode(groupId, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Flush {
+        static final Flush INSTANCE = new Flush();
+    }
+
+    @Override
+    public void preStart() throws IOException {
+        Files.createDirectories(file.getParent());
+        if (Files.exists(file)) {
+            read();
+        }
+        compact();
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        log.info("Read {} devices of group {} from {}", deviceIds.size(), groupId, file);
+        getContext().getParent().tell(
+                new GroupMembershipStore.MembershipRecovered(deviceIds.toArray(new String[0])), getSelf());
+    }
+
+    @Override
+    public void postStop() throws IOException {
+        if (flushTimer != null) {
+            flushTimer.cancel();
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private void read() throws IOException {
+        // a crash in the middle of a flush can leave a torn last line without its newline, which is dropped
+        boolean torn = endsTorn();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                if (next == null && torn) {
+                    log.warning("Dropping the torn last line of {}", file);
+                } else if (line.startsWith("+")) {
+                    deviceIds.add(line.substring(1));
+                } else if (line.startsWith("-")) {
+                    deviceIds.remove(line.substring(1));
+                }
+                line = next;
+            }
+        }
+    }
+
+    private boolean endsTorn() throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            if (channel.size() == 0) {
+                return false;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) != '\n';
+        }
+    }
+
+    // writes the remaining devices to a new file that replaces the old one, so the file never holds more lines than
+    // devices plus the changes since the group started
+    private void compact() throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            for (String deviceId : deviceIds) {
+                out.write('+');
+                out.write(deviceId);
+                out.write('\n');
+            }
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void onAddDevices(GroupMembershipStore.AddDevices a) throws IOException {
+        for (String deviceId : a.deviceIds) {
+            if (deviceIds.add(deviceId)) {
+                writer.write('+');
+                writer.write(deviceId);
+                writer.write('\n');
+            }
+        }
+        scheduleFlush();
+    }
+
+    private void onRemoveDevice(GroupMembershipStore.RemoveDevice r) throws IOException {
+        if (deviceIds.remove(r.deviceId)) {
+            writer.write('-');
+            writer.write(r.deviceId);
+            writer.write('\n');
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushTimer == null) {
+            flushTimer = getContext().getSystem().scheduler().scheduleOnce(
+                    flushInterval, getSelf(), Flush.INSTANCE, getContext().dispatcher(), getSelf());
+        }
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(GroupMembershipStore.AddDevices.class, this::onAddDevices)
+                .match(GroupMembershipStore.RemoveDevice.class, this::onRemoveDevice)
+                .match(Flush.class, f -> {
+                    flushTimer = null;
+                    writer.flush();
+                })
+                .build();
+    }
+}
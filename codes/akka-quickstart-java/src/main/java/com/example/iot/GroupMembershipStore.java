@@ -0,0 +1,176 @@
+package com.example.iot;
+
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
+
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:25 AM
+ * @description event sourced device membership of a DeviceGroup, a child of the group when iot.persistence.enabled is on
+ *
+ * After recovery the store sends the recovered device ids to its group with one {@link MembershipRecovered}, so a
+ * restarted group knows all its devices at once, from one snapshot and the events after it. The devices themselves
+ * are only started when they are addressed, or by the first query of the group, which asks them for the reading they
+ * recovered from their journal.
+ */
+public class GroupMembershipStore extends AbstractPersistentActor {
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    final String groupId;
+
+    final int snapshotEvery = IotSettings.get(getContext().getSystem()).persistenceSnapshotEvery;
+
+    final Set<String> deviceIds = new LinkedHashSet<>();
+
+    int eventsSinceSnapshot = 0;
+
+    GroupMembershipStore(String groupId) {
+        this.groupId = groupId;
+    }
+
+    static Props props(String groupId) {
+        return Props.create(GroupMembershipStore.class, () -> new GroupMembershipStore(groupId));
+    }
+
+    static final class AddDevices {
+        final String[] deviceIds;
+
+        AddDevices(String... deviceIds) {
+            this.deviceIds = deviceIds;
+        }
+    }
+
+    static final class RemoveDevice {
+        final String deviceId;
+
+        RemoveDevice(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    static final class MembershipRecovered {
+        final String[] deviceIds;
+
+        MembershipRecovered(String[] deviceIds) {
+            this.deviceIds = deviceIds;
+        }
+    }
+
+    static final class DevicesAdded implements Serializable, IotSerializable {
+        private static final long serialVersionUID = 1L;
+
+        final String[] deviceIds;
+
+        DevicesAdded(String[] deviceIds) {
+            this.deviceIds = deviceIds;
+        }
+    }
+
+    static final class DeviceRemoved implements Serializable, IotSerializable {
+        private static final long serialVersionUID = 1L;
+
+        final String deviceId;
+
+        DeviceRemoved(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    static final class MembershipSnapshot implements Serializable, IotSerializable {
+        private static final long serialVersionUID = 1L;
+
+        final String[] deviceIds;
+
+        MembershipSnapshot(String[] deviceIds) {
+            this.deviceIds = deviceIds;
+        }
+    }
+
+    @Override
+    public String persistenceId() {
+        return "group-membership-" + groupId;
+    }
+
+    @Override
+    public Receive createReceiveRecover() {
+        return receiveBuilder()
+                .match(SnapshotOffer.class, offer -> {
+                    for (String deviceId : ((MembershipSnapshot) offer.snapshot()).deviceIds) {
+                        deviceIds.add(deviceId);
+                    }
+                })
+                .match(DevicesAdded.class, this::apply)
+                .match(DeviceRemoved.class, this::apply)
+                .match(RecoveryCompleted.class, r -> {
+                    log.info("Recovered {} devices of group {}", deviceIds.size(), groupId);
+                    getContext().getParent().tell(
+                            new MembershipRecovered(deviceIds.toArray(new String[0])), getSelf());
+                })
+                .build();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(AddDevices.class, a -> {
+                    String[] added = newDeviceIds(a.deviceIds);
+                    if (added.length > 0) {
+                        // async, so the journal can write the additions of many registrations in one batch
+                        persistAsync(new DevicesAdded(added), this::applyAndSnapshot);
+                    }
+                })
+                .match(RemoveDevice.class, r -> {
+                    // not checked against deviceIds, the addition of the device may still be in flight
+                    persistAsync(new DeviceRemoved(r.deviceId), this::applyAndSnapshot);
+                })
+                .match(SaveSnapshotSuccess.class, s -> {
+                    long seqNr = s.metadata().sequenceNr();
+                    deleteMessages(seqNr);
+                    deleteSnapshots(SnapshotSelectionCriteria.create(seqNr - 1, Long.MAX_VALUE));
+                })
+                .match(SaveSnapshotFailure.class, f -> log.warning("Membership snapshot of group {} failed: {}",
+                        groupId, f.cause().getMessage()))
+                .build();
+    }
+
+    private String[] newDeviceIds(String[] candidates) {
+        Set<String> added = new LinkedHashSet<>();
+        for (String deviceId : candidates) {
+            if (!deviceIds.contains(deviceId)) {
+                added.add(deviceId);
+            }
+        }
+        return added.toArray(new String[0]);
+    }
+
+    private void apply(Object event) {
+        if (event instanceof DevicesAdded) {
+            for (String deviceId : ((DevicesAdded) event).deviceIds) {
+                deviceIds.add(deviceId);
+            }
+        } else {
+            deviceIds.remove(((DeviceRemoved) event).deviceId);
+        }
+        eventsSinceSnapshot++;
+    }
+
+    private void applyAndSnapshot(Object event) {
+        apply(event);
+        if (eventsSinceSnapshot >= snapshotEvery) {
+            eventsSinceSnapshot = 0;
+            saveSnapshot(new MembershipSnapshot(deviceIds.toArray(new String[0])));
+        }
+    }
+}
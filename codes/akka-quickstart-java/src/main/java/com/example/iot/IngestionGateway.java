@@ -0,0 +1,308 @@
+package com.example.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:00 AM
+ * @description bounded front door for readings, with credit based flow control between producers and DeviceManager
+ *
+ * A producer sends {@link Connect} and is granted credit with {@link Demand}, one unit per reading. It sends
+ * readings with {@link Ingest} as far as its credit goes. The gateway copies the readings of all producers into
+ * confirmed {@link DeviceManager.RecordTemperatureBatch} messages, which are acknowledged once the devices recorded
+ * them, and grants credit again as batches are acknowledged. Credit, buffered readings and readings in
+ * unacknowledged batches together never exceed iot.ingestion.max-in-flight, so a producer faster than the devices
+ * waits for credit instead of queueing readings in mailboxes. A batch that is not acknowledged in time still counts,
+ * its readings may yet reach the devices, and only its late acknowledgement grants their credit again. The groups
+ * acknowledge every confirmed batch within iot.ingestion.batch-timeout, counting the readings of devices that did not
+ * confirm as rejected. Readings sent without credit are rejected or shed, see iot.ingestion.overflow-strategy. The
+ * gateway stops when its DeviceManager stops, as no batch would be acknowledged anymore.
+ */
+public class IngestionGateway extends AbstractActor {
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    final ActorRef deviceManager;
+
+    final IotSettings settings = IotSettings.get(getContext().getSystem());
+
+    final IotMetrics metrics = IotMetrics.get(getContext().getSystem());
+
+    public IngestionGateway(ActorRef deviceManager) {
+        this.deviceManager = deviceManager;
+    }
+
+    public static Props props(ActorRef deviceManager) {
+        return Props.create(IngestionGateway.class, () -> new IngestionGateway(deviceManager));
+    }
+
+    /**
+     * Registers the sender as a producer, answered with its first {@link Demand}. The gateway watches the producer and
+     * takes back its credit when it stops.
+     */
+    public static final class Connect implements IotSerializable {
+    }
+
+    /**
+     * Credit for this many more readings.
+     */
+    public static final class Demand implements IotSerializable {
+        public final int readings;
+
+        public Demand(int readings) {
+            this.readings = readings;
+        }
+    }
+
+    /**
+     * Readings given as parallel arrays, see {@link DeviceManager.RecordTemperatureBatch}. Not acknowledged, the
+     * producer learns that the readings were recorded from the credit it is granted again.
+     */
+    public static final class Ingest implements IotSerializable {
+        final long requestId;
+        final String[] groupIds;
+        final String[] deviceIds;
+        final double[] values;
+
+        public Ingest(long requestId, String[] groupIds, String[] deviceIds, double[] values) {
+            if (groupIds.length != deviceIds.length || deviceIds.length != values.length) {
+                throw new IllegalArgumentException("groupIds, deviceIds and values must have the same length");
+            }
+            this.requestId = requestId;
+            this.groupIds = groupIds;
+            this.deviceIds = deviceIds;
+            this.values = values;
+        }
+    }
+
+    /**
+     * An {@link Ingest} that exceeded the credit of its producer, none of its readings were admitted.
+     */
+    public static final class Rejected implements IotSerializable {
+        public final long requestId;
+
+        public Rejected(long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    static final class Flush {
+        static final Flush INSTANCE = new Flush();
+    }
+
+    static final class BatchTimeout {
+        final long batchId;
+
+        BatchTimeout(long batchId) {
+            this.batchId = batchId;
+        }
+    }
+
+    // producer -> its credit, in the order credit is granted, so every producer gets its turn
+    final LinkedHashMap<ActorRef, Integer> producers = new LinkedHashMap<>();
+    // sum of the credit of all producers
+    int granted;
+
+    // readings of the next batch
+    String[] groupIds;
+    String[] deviceIds;
+    double[] values;
+    int buffered;
+    Cancellable flushTimer;
+
+    // batch id -> readings in the batch
+    final Map<Long, Integer> inFlightBatches = new HashMap<>();
+    int inFlight;
+    long nextBatchId = 0L;
+
+    @Override
+    public void preStart() {
+        newBuffer();
+        getContext().watch(deviceManager);
+    }
+
+    @Override
+    public void postStop() {
+        if (flushTimer != null) {
+            flushTimer.cancel();
+        }
+        metrics.ingestionInFlight.add(-(inFlight + buffered));
+    }
+
+    private void newBuffer() {
+        groupIds = new String[settings.ingestionBatchSize];
+        deviceIds = new String[settings.ingestionBatchSize];
+        values = new double[settings.ingestionBatchSize];
+        buffered = 0;
+    }
+
+    private void onConnect(Connect c) {
+        if (!producers.containsKey(getSender())) {
+            producers.put(getSender(), 0);
+            getContext().watch(getSender());
+        }
+        grantCredit();
+    }
+
+    private void onIngest(Ingest ingest) {
+        Integer credit = producers.get(getSender());
+        int admitted = ingest.values.length;
+        int available = credit == null ? 0 : credit;
+        if (admitted > available) {
+            if (settings.ingestionShedOverflow) {
+                metrics.ingestionShed.add(admitted - available);
+                admitted = available;
+            } else {
+                metrics.ingestionRejected.add(admitted);
+                getSender().tell(new Rejected(ingest.requestId), getSelf());
+                return;
+            }
+        }
+        if (admitted == 0) {
+            return;
+        }
+        producers.put(getSender(), available - admitted);
+        granted -= admitted;
+        metrics.ingestionAccepted.add(admitted);
+        metrics.ingestionInFlight.add(admitted);
+
+        for (int i = 0; i < admitted; ) {
+            int n = Math.min(admitted - i, settings.ingestionBatchSize - buffered);
+            System.arraycopy(ingest.groupIds, i, groupIds, buffered, n);
+            System.arraycopy(ingest.deviceIds, i, deviceIds, buffered, n);
+            System.arraycopy(ingest.values, i, values, buffered, n);
+            buffered += n;
+            i += n;
+            if (buffered == settings.ingestionBatchSize) {
+                flush();
+            }
+        }
+        if (buffered > 0 && flushTimer == null) {
+            flushTimer = getContext().getSystem().scheduler().scheduleOnce(
+                    settings.ingestionFlushInterval, getSelf(), Flush.INSTANCE, getContext().dispatcher(), getSelf());
+        }
+        grantCredit();
+    }
+
+    private void onFlush(Flush f) {
+        flushTimer = null;
+        if (buffered > 0) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (flushTimer != null) {
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+        String[] batchGroupIds = groupIds;
+        String[] batchDeviceIds = deviceIds;
+        double[] batchValues = values;
+        if (buffered < batchValues.length) {
+            batchGroupIds = Arrays.copyOf(batchGroupIds, buffered);
+            batchDeviceIds = Arrays.copyOf(batchDeviceIds, buffered);
+            batchValues = Arrays.copyOf(batchValues, buffered);
+        }
+        long batchId = nextBatchId++;
+        inFlightBatches.put(batchId, buffered);
+        inFlight += buffered;
+        deviceManager.tell(new DeviceManager.RecordTemperatureBatch(
+                batchId, batchGroupIds, batchDeviceIds, batchValues, true), getSelf());
+        getContext().getSystem().scheduler().scheduleOnce(settings.ingestionBatchTimeout, getSelf(),
+                new BatchTimeout(batchId), getContext().dispatcher(), getSelf());
+        newBuffer();
+    }
+
+    private void onBatchRecorded(DeviceManager.TemperatureBatchRecorded ack) {
+        Integer size = inFlightBatches.remove(ack.requestId);
+        if (size == null) {
+            // not a batch of this gateway
+            return;
+        }
+        if (ack.rejected > 0) {
+            log.debug("{} readings of batch {} were for unknown groups or devices", ack.rejected, ack.requestId);
+        }
+        release(size);
+    }
+
+    private void onBatchTimeout(BatchTimeout timeout) {
+        Integer size = inFlightBatches.get(timeout.batchId);
+        if (size != null) {
+            // still in flight until its late ack, releasing it now would let more than max-in-flight readings queue
+            log.warning("Batch {} with {} readings was not acknowledged in time", timeout.batchId, size);
+            metrics.ingestionBatchesTimedOut.increment();
+        }
+    }
+
+    private void release(int readings) {
+        inFlight -= readings;
+        metrics.ingestionInFlight.add(-readings);
+        grantCredit();
+    }
+
+    private void onTerminated(Terminated t) {
+        if (t.getActor().equals(deviceManager)) {
+            // none of the batches in flight will be acknowledged, so their readings are released, and readings admitted
+            // from now on would be lost
+            log.error("DeviceManager stopped with {} readings in flight, stopping the gateway", inFlight);
+            inFlightBatches.clear();
+            metrics.ingestionInFlight.add(-inFlight);
+            inFlight = 0;
+            getContext().stop(getSelf());
+            return;
+        }
+        Integer credit = producers.remove(t.getActor());
+        if (credit != null) {
+            granted -= credit;
+            grantCredit();
+        }
+    }
+
+    /**
+     * Tops up the credit of the producers to a batch each, as far as max-in-flight allows. A producer that was granted
+     * credit moves to the end of the line.
+     */
+    private void grantCredit() {
+        int available = settings.ingestionMaxInFlight - granted - buffered - inFlight;
+        if (available <= 0) {
+            return;
+        }
+        ActorRef[] line = producers.keySet().toArray(new ActorRef[0]);
+        for (int i = 0; i < line.length && available > 0; i++) {
+            ActorRef producer = line[i];
+            int credit = producers.get(producer);
+            int grant = Math.min(settings.ingestionBatchSize - credit, available);
+            if (grant > 0) {
+                producers.remove(producer);
+                producers.put(producer, credit + grant);
+                granted += grant;
+                available -= grant;
+                producer.tell(new Demand(grant), getSelf());
+            }
+        }
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Ingest.class, this::onIngest)
+                .match(DeviceManager.TemperatureBatchRecorded.class, this::onBatchRecorded)
+                .match(Flush.class, this::onFlush)
+                .match(BatchTimeout.class, this::onBatchTimeout)
+                .match(Connect.class, this::onConnect)
+                .match(Terminated.class, this::onTerminated)
+                .build();
+    }
+}
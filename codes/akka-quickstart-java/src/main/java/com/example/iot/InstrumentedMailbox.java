@@ -0,0 +1,84 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:07 AM
+ * @description unbounded mailbox that reports its depth to {@link IotMetrics}
+ *
+ * Configured as iot.metrics.instrumented-mailbox, devices use it when iot.metrics.instrument-device-mailboxes is on.
+ */
+public class InstrumentedMailbox implements MailboxType, ProducesMessageQueue<InstrumentedMailbox.InstrumentedMessageQueue> {
+
+    public InstrumentedMailbox(ActorSystem.Settings settings, Config config) {
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        return new InstrumentedMessageQueue(system.isDefined() ? IotMetrics.get(system.get()) : null);
+    }
+
+    public static final class InstrumentedMessageQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private final Queue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        // ConcurrentLinkedQueue.size() walks the whole queue, so the depth is kept separately
+        private final AtomicInteger depth = new AtomicInteger();
+        private final IotMetrics metrics;
+
+        InstrumentedMessageQueue(IotMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            queue.offer(handle);
+            int current = depth.incrementAndGet();
+            if (metrics != null) {
+                metrics.mailboxDepth.increment();
+                metrics.mailboxDepthOnEnqueue.record(current);
+            }
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope envelope = queue.poll();
+            if (envelope != null) {
+                depth.decrementAndGet();
+                if (metrics != null) {
+                    metrics.mailboxDepth.decrement();
+                }
+            }
+            return envelope;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return depth.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            for (Envelope envelope = dequeue(); envelope != null; envelope = dequeue()) {
+                deadLetters.enqueue(owner, envelope);
+            }
+        }
+    }
+}
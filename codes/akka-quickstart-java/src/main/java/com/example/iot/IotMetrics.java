@@ -0,0 +1,379 @@
+package com.example.iot;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:07 AM
+ * @description metrics of iot system, one instance per actor system, updated by the actors with lock free counters
+ *
+ * The metrics are exposed over JMX, see {@link IotMetricsMXBean}, and in the Prometheus text format over HTTP
+ * when iot.metrics.http.port is set.
+ */
+public class IotMetrics implements Extension, IotMetricsMXBean {
+    final LongAdder readingsRecorded = new LongAdder();
+    final LongAdder temperatureReads = new LongAdder();
+    final LongAdder devicesStarted = new LongAdder();
+    final LongAdder devicesStopped = new LongAdder();
+    final LongAdder devicesPassivated = new LongAdder();
+
+    final LongAdder groupQueries = new LongAdder();
+    final LongAdder groupQueryDevicesAsked = new LongAdder();
+    final LongAdder groupQueryDevicesTimedOut = new LongAdder();
+    final LatencyHistogram groupQueryLatencyMicros = new LatencyHistogram();
+    final LatencyHistogram managerQueryLatencyMicros = new LatencyHistogram();
+
+    final LongAdder mailboxDepth = new LongAdder();
+    // depth of an instrumented mailbox right after each enqueue
+    final LatencyHistogram mailboxDepthOnEnqueue = new LatencyHistogram();
+
+    final LongAdder ingestionAccepted = new LongAdder();
+    final LongAdder ingestionRejected = new LongAdder();
+    final LongAdder ingestionShed = new LongAdder();
+    final LongAdder ingestionInFlight = new LongAdder();
+    final LongAdder ingestionBatchesTimedOut = new LongAdder();
+
+    // groups with a running actor
+    final Map<String, GroupMetrics> groups = new ConcurrentHashMap<>();
+
+    // shared by all running actors of a group id, e.g. a group restarted under a new name while the old one stops
+    static final class GroupMetrics {
+        final LongAdder messages = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        // only accessed within a compute of the groups map
+        final Set<ActorRef> groupActors = new HashSet<>();
+    }
+
+    private final LoggingAdapter log;
+    private ObjectName objectName;
+    private HttpServer httpServer;
+
+    public IotMetrics(ExtendedActorSystem system) {
+        this.log = Logging.getLogger(system, getClass());
+        IotSettings settings = IotSettings.get(system);
+        if (settings.metricsJmx) {
+            registerMBean(system.name());
+        }
+        if (settings.metricsHttpPort >= 0) {
+            startHttpServer(settings.metricsHttpHostname, settings.metricsHttpPort);
+        }
+        system.registerOnTermination(this::close);
+    }
+
+    public static IotMetrics get(ActorSystem system) {
+        return Provider.INSTANCE.get(system);
+    }
+
+    GroupMetrics groupStarted(String groupId, ActorRef groupActor) {
+        return groups.compute(groupId, (id, group) -> {
+            if (group == null) {
+                group = new GroupMetrics();
+            }
+            group.groupActors.add(groupActor);
+            return group;
+        });
+    }
+
+    /**
+     * Removes the metrics of the group once the last of its actors stopped.
+     */
+    void groupStopped(String groupId, ActorRef groupActor) {
+        groups.computeIfPresent(groupId, (id, group) -> {
+            group.groupActors.remove(groupActor);
+            return group.groupActors.isEmpty() ? null : group;
+        });
+    }
+
+    void groupTimedOut(String groupId) {
+        GroupMetrics group = groups.get(groupId);
+        if (group != null) {
+            group.timeouts.increment();
+        }
+    }
+
+    /**
+     * The address the pull endpoint listens on, null when it is off.
+     */
+    public InetSocketAddress httpAddress() {
+        return httpServer != null ? httpServer.getAddress() : null;
+    }
+
+    private void registerMBean(String systemName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("com.example.iot:type=IotMetrics,system=" + ObjectName.quote(systemName));
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            // another running actor system with the same name registered first
+            log.warning("IotMetrics of actor system {} are not registered over JMX, the name is taken", systemName);
+        } catch (Exception e) {
+            log.error(e, "Failed to register IotMetrics over JMX");
+        }
+    }
+
+    private void startHttpServer(String hostname, int port) {
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(hostname, port), 0);
+        } catch (IOException e) {
+            log.error(e, "Failed to start the metrics endpoint on {}:{}", hostname, port);
+            return;
+        }
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        httpServer.start();
+        log.info("Serving iot metrics on http://{}:{}/metrics", hostname, httpServer.getAddress().getPort());
+    }
+
+    private void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                // already gone
+            }
+        }
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format.
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(1024);
+        counter(out, "iot_readings_recorded_total", getReadingsRecorded());
+        counter(out, "iot_temperature_reads_total", getTemperatureReads());
+        gauge(out, "iot_devices_active", getActiveDevices());
+        gauge(out, "iot_devices_passivated", getPassivatedDevices());
+        counter(out, "iot_group_queries_total", getGroupQueries());
+        counter(out, "iot_group_query_devices_asked_total", getGroupQueryDevicesAsked());
+        counter(out, "iot_group_query_devices_timed_out_total", getGroupQueryDevicesTimedOut());
+        summary(out, "iot_group_query_latency_micros", groupQueryLatencyMicros);
+        summary(out, "iot_manager_query_latency_micros", managerQueryLatencyMicros);
+        gauge(out, "iot_mailbox_depth", getMailboxDepth());
+        summary(out, "iot_mailbox_depth_on_enqueue", mailboxDepthOnEnqueue);
+        counter(out, "iot_ingestion_accepted_total", getIngestionAccepted());
+        counter(out, "iot_ingestion_rejected_total", getIngestionRejected());
+        counter(out, "iot_ingestion_shed_total", getIngestionShed());
+        gauge(out, "iot_ingestion_in_flight", getIngestionInFlight());
+        counter(out, "iot_ingestion_batches_timed_out_total", getIngestionBatchesTimedOut());
+        out.append("# TYPE iot_group_messages_total counter\n");
+        for (Map.Entry<String, Long> group : getGroupMessages().entrySet()) {
+            out.append("iot_group_messages_total{group=\"").append(escapeLabelValue(group.getKey())).append("\"} ")
+                    .append(group.getValue()).append('\n');
+        }
+        out.append("# TYPE iot_group_timeouts_total counter\n");
+        for (Map.Entry<String, Long> group : getGroupTimeouts().entrySet()) {
+            out.append("iot_group_timeouts_total{group=\"").append(escapeLabelValue(group.getKey())).append("\"} ")
+                    .append(group.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    // backslash, double quote and line feed are the characters the text format escapes in label values
+    static String escapeLabelValue(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, LatencyHistogram histogram) {
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (String quantile : new String[]{"0.5", "0.9", "0.99", "0.999"}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.percentile(Double.parseDouble(quantile) * 100)).append('\n');
+        }
+        out.append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+
+    @Override
+    public long getReadingsRecorded() {
+        return readingsRecorded.sum();
+    }
+
+    @Override
+    public long getTemperatureReads() {
+        return temperatureReads.sum();
+    }
+
+    @Override
+    public long getActiveDevices() {
+        return devicesStarted.sum() - devicesStopped.sum();
+    }
+
+    @Override
+    public long getPassivatedDevices() {
+        return devicesPassivated.sum();
+    }
+
+    @Override
+    public long getGroupQueries() {
+        return groupQueries.sum();
+    }
+
+    @Override
+    public long getGroupQueryDevicesAsked() {
+        return groupQueryDevicesAsked.sum();
+    }
+
+    @Override
+    public long getGroupQueryDevicesTimedOut() {
+        return groupQueryDevicesTimedOut.sum();
+    }
+
+    @Override
+    public double getGroupQueryTimeoutRatio() {
+        long asked = groupQueryDevicesAsked.sum();
+        return asked == 0 ? 0.0 : (double) groupQueryDevicesTimedOut.sum() / asked;
+    }
+
+    @Override
+    public long getGroupQueryLatencyP50Micros() {
+        return groupQueryLatencyMicros.percentile(50);
+    }
+
+    @Override
+    public long getGroupQueryLatencyP99Micros() {
+        return groupQueryLatencyMicros.percentile(99);
+    }
+
+    @Override
+    public long getGroupQueryLatencyMaxMicros() {
+        return groupQueryLatencyMicros.max();
+    }
+
+    @Override
+    public long getManagerQueryLatencyP99Micros() {
+        return managerQueryLatencyMicros.percentile(99);
+    }
+
+    @Override
+    public long getMailboxDepth() {
+        return mailboxDepth.sum();
+    }
+
+    @Override
+    public long getMailboxDepthP99() {
+        return mailboxDepthOnEnqueue.percentile(99);
+    }
+
+    @Override
+    public long getMailboxDepthMax() {
+        return mailboxDepthOnEnqueue.max();
+    }
+
+    @Override
+    public long getIngestionAccepted() {
+        return ingestionAccepted.sum();
+    }
+
+    @Override
+    public long getIngestionRejected() {
+        return ingestionRejected.sum();
+    }
+
+    @Override
+    public long getIngestionShed() {
+        return ingestionShed.sum();
+    }
+
+    @Override
+    public long getIngestionInFlight() {
+        return ingestionInFlight.sum();
+    }
+
+    @Override
+    public long getIngestionBatchesTimedOut() {
+        return ingestionBatchesTimedOut.sum();
+    }
+
+    @Override
+    public Map<String, Long> getGroupMessages() {
+        Map<String, Long> messages = new TreeMap<>();
+        for (Map.Entry<String, GroupMetrics> group : groups.entrySet()) {
+            messages.put(group.getKey(), group.getValue().messages.sum());
+        }
+        return messages;
+    }
+
+    @Override
+    public Map<String, Long> getGroupTimeouts() {
+        Map<String, Long> timeouts = new TreeMap<>();
+        for (Map.Entry<String, GroupMetrics> group : groups.entrySet()) {
+            timeouts.put(group.getKey(), group.getValue().timeouts.sum());
+        }
+        return timeouts;
+    }
+
+    static final class Provider extends AbstractExtensionId<IotMetrics> implements ExtensionIdProvider {
+        static final Provider INSTANCE = new Provider();
+
+        private Provider() {
+        }
+
+        @Override
+        public Provider lookup() {
+            return INSTANCE;
+        }
+
+        @Override
+        public IotMetrics createExtension(ExtendedActorSystem system) {
+            return new IotMetrics(system);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.iot;
+
+import java.util.Map;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:07 AM
+ * @description JMX view of the iot metrics, registered as com.example.iot:type=IotMetrics,system=[actor system name]
+ */
+public interface IotMetricsMXBean {
+    long getReadingsRecorded();
+
+    long getTemperatureReads();
+
+    long getActiveDevices();
+
+    long getPassivatedDevices();
+
+    long getGroupQueries();
+
+    long getGroupQueryDevicesAsked();
+
+    long getGroupQueryDevicesTimedOut();
+
+    /**
+     * Share of the devices asked by group queries that did not answer in time.
+     */
+    double getGroupQueryTimeoutRatio();
+
+    long getGroupQueryLatencyP50Micros();
+
+    long getGroupQueryLatencyP99Micros();
+
+    long getGroupQueryLatencyMaxMicros();
+
+    long getManagerQueryLatencyP99Micros();
+
+    /**
+     * Messages currently queued in instrumented mailboxes, see iot.metrics.instrument-device-mailboxes.
+     */
+    long getMailboxDepth();
+
+    long getMailboxDepthP99();
+
+    long getMailboxDepthMax();
+
+    /**
+     * Readings admitted by the IngestionGateways.
+     */
+    long getIngestionAccepted();
+
+    /**
+     * Readings refused by the IngestionGateways because their producer had no credit for them.
+     */
+    long getIngestionRejected();
+
+    /**
+     * Readings dropped by the IngestionGateways because their producer had no credit for them.
+     */
+    long getIngestionShed();
+
+    /**
+     * Readings admitted by the IngestionGateways and not acknowledged yet.
+     */
+    long getIngestionInFlight();
+
+    long getIngestionBatchesTimedOut();
+
+    /**
+     * Group id -> messages handled by the group, to spot hot groups.
+     */
+    Map<String, Long> getGroupMessages();
+
+    /**
+     * Group id -> times the group missed the deadline of a DeviceManager query.
+     */
+    Map<String, Long> getGroupTimeouts();
+}
@@ -0,0 +1,10 @@
+package com.example.iot;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:06 AM
+ * @description marker of the messages and events serialized by IotSerializer, bound to it in reference.conf
+ */
+public interface IotSerializable {
+}
@@ -0,0 +1,801 @@
+package com.example.iot;
+
+import akka.serialization.SerializerWithStringManifest;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:06 AM
+ * @description compact binary serializer of the iot protocol and the journaled events, bound to IotSerializable
+ *
+ * Every message is written field by field, without any class or field names: request ids, counts and lengths as
+ * varints, timestamps as zigzag varints, arrays of timestamps as deltas, doubles as their raw 8 bytes and the
+ * TemperatureReading family as one tag byte, the ordinal of the enum readings. Group and device ids are dictionary
+ * coded within a message, an id is written once and referenced by its index afterwards, so a batch with many
+ * readings of the same devices carries every id once. The manifest names the message type.
+ *
+ * The events of PersistentDevice and GroupMembershipStore stay Serializable, so events journaled with Java
+ * serialization before this serializer was bound can still be read.
+ */
+public class IotSerializer extends SerializerWithStringManifest {
+    // unique among the serializers of an actor system, 0 to 40 are reserved by akka
+    static final int IDENTIFIER = 7301;
+
+    static final String RECORD_TEMPERATURE = "R";
+    static final String TEMPERATURE_RECORDED = "RA";
+    static final String RECORD_TEMPERATURES = "RS";
+    static final String READ_TEMPERATURE = "T";
+    static final String RESPOND_TEMPERATURE = "TA";
+    static final String READ_TEMPERATURE_HISTORY = "H";
+    static final String RESPOND_TEMPERATURE_HISTORY = "HA";
+    static final String READ_TEMPERATURE_STATS = "S";
+    static final String RESPOND_TEMPERATURE_STATS = "SA";
+    static final String READ_ROLLUPS = "U";
+    static final String RESPOND_ROLLUPS = "UA";
+    static final String SUBSCRIBE_THRESHOLD = "X";
+    static final String THRESHOLD_SUBSCRIBED = "XA";
+    static final String UNSUBSCRIBE_THRESHOLD = "Y";
+    static final String THRESHOLD_UNSUBSCRIBED = "YA";
+    static final String THRESHOLD_CROSSED = "XC";
+    static final String REQUEST_TRACK_DEVICE = "D";
+    static final String DEVICE_REGISTERED = "DA";
+    static final String REQUEST_TRACK_DEVICES = "DB";
+    static final String DEVICES_REGISTERED = "DBA";
+    static final String MANAGER_BATCH = "MB";
+    static final String BATCH_RECORDED = "BA";
+    static final String REQUEST_ALL_GROUPS = "MQ";
+    static final String RESPOND_ALL_GROUPS = "MQA";
+    static final String GROUP_ENVELOPE = "G";
+    static final String REQUEST_DEVICE_LIST = "L";
+    static final String REPLY_DEVICE_LIST = "LA";
+    static final String GROUP_BATCH = "GB";
+    static final String REQUEST_ALL_TEMPERATURES = "GQ";
+    static final String RESPOND_ALL_TEMPERATURES = "GQA";
+    static final String REQUEST_STREAMING = "GS";
+    static final String PARTIAL_TEMPERATURES = "GSP";
+    static final String ALL_TEMPERATURES_COMPLETED = "GSC";
+    static final String TEMPERATURE_READING = "V";
+    static final String CONNECT = "IC";
+    static final String DEMAND = "ID";
+    static final String INGEST = "I";
+    static final String REJECTED = "IR";
+    static final String RECORDED_EVENT = "ER";
+    static final String HISTORY_SNAPSHOT = "EH";
+    static final String DEVICES_ADDED = "EA";
+    static final String DEVICE_REMOVED = "ED";
+    static final String MEMBERSHIP_SNAPSHOT = "ES";
+
+    // tags of the TemperatureReading family, the enum readings by ordinal after Temperature
+    static final int TEMPERATURE = 0;
+    static final int TEMPERATURE_NOT_AVAILABLE = 1;
+    static final int DEVICE_NOT_AVAILABLE = 2;
+    static final int DEVICE_TIMED_OUT = 3;
+
+    private static final Device.RollupResolution[] RESOLUTIONS = Device.RollupResolution.values();
+    private static final Device.ThresholdState[] THRESHOLD_STATES = Device.ThresholdState.values();
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof Device.RecordTemperature) return RECORD_TEMPERATURE;
+        if (o instanceof Device.TemperatureRecorded) return TEMPERATURE_RECORDED;
+        if (o instanceof Device.RecordTemperatures) return RECORD_TEMPERATURES;
+        if (o instanceof Device.ReadTemperature) return READ_TEMPERATURE;
+        if (o instanceof Device.RespondTemperature) return RESPOND_TEMPERATURE;
+        if (o instanceof Device.ReadTemperatureHistory) return READ_TEMPERATURE_HISTORY;
+        if (o instanceof Device.RespondTemperatureHistory) return RESPOND_TEMPERATURE_HISTORY;
+        if (o instanceof Device.ReadTemperatureStats) return READ_TEMPERATURE_STATS;
+        if (o instanceof Device.RespondTemperatureStats) return RESPOND_TEMPERATURE_STATS;
+        if (o instanceof Device.ReadRollups) return READ_ROLLUPS;
+        if (o instanceof Device.RespondRollups) return RESPOND_ROLLUPS;
+        if (o instanceof Device.SubscribeThreshold) return SUBSCRIBE_THRESHOLD;
+        if (o instanceof Device.ThresholdSubscribed) return THRESHOLD_SUBSCRIBED;
+        if (o instanceof Device.UnsubscribeThreshold) return UNSUBSCRIBE_THRESHOLD;
+        if (o instanceof Device.ThresholdUnsubscribed) return THRESHOLD_UNSUBSCRIBED;
+        if (o instanceof Device.ThresholdCrossed) return THRESHOLD_CROSSED;
+        if (o instanceof DeviceManager.RequestTrackDevice) return REQUEST_TRACK_DEVICE;
+        if (o instanceof DeviceManager.DeviceRegistered) return DEVICE_REGISTERED;
+        if (o instanceof DeviceManager.RequestTrackDevices) return REQUEST_TRACK_DEVICES;
+        if (o instanceof DeviceManager.DevicesRegistered) return DEVICES_REGISTERED;
+        if (o instanceof DeviceManager.RecordTemperatureBatch) return MANAGER_BATCH;
+        if (o instanceof DeviceManager.TemperatureBatchRecorded) return BATCH_RECORDED;
+        if (o instanceof DeviceManager.RequestAllGroupsTemperatures) return REQUEST_ALL_GROUPS;
+        if (o instanceof DeviceManager.RespondAllGroupsTemperatures) return RESPOND_ALL_GROUPS;
+        if (o instanceof DeviceGroup.GroupEnvelope) return GROUP_ENVELOPE;
+        if (o instanceof DeviceGroup.RequestDeviceList) return REQUEST_DEVICE_LIST;
+        if (o instanceof DeviceGroup.ReplyDeviceList) return REPLY_DEVICE_LIST;
+        if (o instanceof DeviceGroup.RecordTemperatureBatch) return GROUP_BATCH;
+        if (o instanceof DeviceGroup.RequestAllTemperatures) return REQUEST_ALL_TEMPERATURES;
+        if (o instanceof DeviceGroup.RespondAllTemperatures) return RESPOND_ALL_TEMPERATURES;
+        if (o instanceof DeviceGroup.RequestAllTemperaturesStreaming) return REQUEST_STREAMING;
+        if (o instanceof DeviceGroup.PartialTemperatures) return PARTIAL_TEMPERATURES;
+        if (o instanceof DeviceGroup.AllTemperaturesCompleted) return ALL_TEMPERATURES_COMPLETED;
+        if (o instanceof DeviceGroup.TemperatureReading) return TEMPERATURE_READING;
+        if (o instanceof IngestionGateway.Connect) return CONNECT;
+        if (o instanceof IngestionGateway.Demand) return DEMAND;
+        if (o instanceof IngestionGateway.Ingest) return INGEST;
+        if (o instanceof IngestionGateway.Rejected) return REJECTED;
+        if (o instanceof PersistentDevice.Recorded) return RECORDED_EVENT;
+        if (o instanceof PersistentDevice.HistorySnapshot) return HISTORY_SNAPSHOT;
+        if (o instanceof GroupMembershipStore.DevicesAdded) return DEVICES_ADDED;
+        if (o instanceof GroupMembershipStore.DeviceRemoved) return DEVICE_REMOVED;
+        if (o instanceof GroupMembershipStore.MembershipSnapshot) return MEMBERSHIP_SNAPSHOT;
+        throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        Output out = new Output(32);
+        if (o instanceof Device.RecordTemperature) {
+            Device.RecordTemperature m = (Device.RecordTemperature) o;
+            out.writeVarLong(m.requestId);
+            out.writeDouble(m.value);
+        } else if (o instanceof Device.TemperatureRecorded) {
+            out.writeVarLong(((Device.TemperatureRecorded) o).requestId);
+        } else if (o instanceof Device.RecordTemperatures) {
+            Device.RecordTemperatures m = (Device.RecordTemperatures) o;
+            out.writeVarLong(m.requestId);
+            out.writeSignedVarLong(m.confirmSlot);
+            out.writeDoubles(m.values);
+        } else if (o instanceof Device.ReadTemperature) {
+            out.writeVarLong(((Device.ReadTemperature) o).requestId);
+        } else if (o instanceof Device.RespondTemperature) {
+            Device.RespondTemperature m = (Device.RespondTemperature) o;
+            out.writeVarLong(m.requestId);
+            out.writeBoolean(m.value.isPresent());
+            if (m.value.isPresent()) {
+                out.writeDouble(m.value.get());
+            }
+        } else if (o instanceof Device.ReadTemperatureHistory) {
+            Device.ReadTemperatureHistory m = (Device.ReadTemperatureHistory) o;
+            out.writeVarLong(m.requestId);
+            out.writeSignedVarLong(m.fromTs);
+            out.writeSignedVarLong(m.toTs);
+        } else if (o instanceof Device.RespondTemperatureHistory) {
+            Device.RespondTemperatureHistory m = (Device.RespondTemperatureHistory) o;
+            out.writeVarLong(m.requestId);
+            out.writeTimestamps(m.timestamps);
+            out.writeDoubles(m.values);
+        } else if (o instanceof Device.ReadTemperatureStats) {
+            out.writeVarLong(((Device.ReadTemperatureStats) o).requestId);
+        } else if (o instanceof Device.RespondTemperatureStats) {
+            Device.RespondTemperatureStats m = (Device.RespondTemperatureStats) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.count);
+            out.writeDouble(m.min);
+            out.writeDouble(m.max);
+            out.writeDouble(m.mean);
+        } else if (o instanceof Device.ReadRollups) {
+            Device.ReadRollups m = (Device.ReadRollups) o;
+            out.writeVarLong(m.requestId);
+            out.writeByte(m.resolution.ordinal());
+            out.writeSignedVarLong(m.fromTs);
+            out.writeSignedVarLong(m.toTs);
+        } else if (o instanceof Device.RespondRollups) {
+            Device.RespondRollups m = (Device.RespondRollups) o;
+            out.writeVarLong(m.requestId);
+            out.writeTimestamps(m.windowStarts);
+            for (int count : m.counts) {
+                out.writeVarLong(count);
+            }
+            out.writeRawDoubles(m.mins);
+            out.writeRawDoubles(m.maxs);
+            out.writeRawDoubles(m.means);
+        } else if (o instanceof Device.SubscribeThreshold) {
+            Device.SubscribeThreshold m = (Device.SubscribeThreshold) o;
+            out.writeVarLong(m.requestId);
+            out.writeDouble(m.min);
+            out.writeDouble(m.max);
+            out.writeDuration(m.debounce);
+        } else if (o instanceof Device.ThresholdSubscribed) {
+            out.writeVarLong(((Device.ThresholdSubscribed) o).requestId);
+        } else if (o instanceof Device.UnsubscribeThreshold) {
+            out.writeVarLong(((Device.UnsubscribeThreshold) o).requestId);
+        } else if (o instanceof Device.ThresholdUnsubscribed) {
+            out.writeVarLong(((Device.ThresholdUnsubscribed) o).requestId);
+        } else if (o instanceof Device.ThresholdCrossed) {
+            Device.ThresholdCrossed m = (Device.ThresholdCrossed) o;
+            out.writeVarLong(m.requestId);
+            out.writeId(m.groupId);
+            out.writeId(m.deviceId);
+            out.writeByte(m.state.ordinal());
+            out.writeDouble(m.value);
+            out.writeSignedVarLong(m.timestamp);
+        } else if (o instanceof DeviceManager.RequestTrackDevice) {
+            DeviceManager.RequestTrackDevice m = (DeviceManager.RequestTrackDevice) o;
+            out.writeId(m.groupId);
+            out.writeId(m.deviceId);
+        } else if (o instanceof DeviceManager.DeviceRegistered) {
+            // no fields
+        } else if (o instanceof DeviceManager.RequestTrackDevices) {
+            DeviceManager.RequestTrackDevices m = (DeviceManager.RequestTrackDevices) o;
+            out.writeId(m.groupId);
+            out.writeIds(m.deviceIds);
+        } else if (o instanceof DeviceManager.DevicesRegistered) {
+            DeviceManager.DevicesRegistered m = (DeviceManager.DevicesRegistered) o;
+            out.writeId(m.groupId);
+            out.writeVarLong(m.registered);
+            out.writeVarLong(m.alreadyTracked);
+            out.writeVarLong(m.rejected);
+        } else if (o instanceof DeviceManager.RecordTemperatureBatch) {
+            DeviceManager.RecordTemperatureBatch m = (DeviceManager.RecordTemperatureBatch) o;
+            out.writeVarLong(m.requestId);
+            out.writeBoolean(m.confirmed);
+            out.writeVarLong(m.values.length);
+            for (int i = 0; i < m.values.length; i++) {
+                out.writeId(m.groupIds[i]);
+                out.writeId(m.deviceIds[i]);
+            }
+            out.writeRawDoubles(m.values);
+        } else if (o instanceof DeviceManager.TemperatureBatchRecorded) {
+            DeviceManager.TemperatureBatchRecorded m = (DeviceManager.TemperatureBatchRecorded) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.recorded);
+            out.writeVarLong(m.rejected);
+        } else if (o instanceof DeviceManager.RequestAllGroupsTemperatures) {
+            DeviceManager.RequestAllGroupsTemperatures m = (DeviceManager.RequestAllGroupsTemperatures) o;
+            out.writeVarLong(m.requestId);
+            out.writeDuration(m.timeout);
+        } else if (o instanceof DeviceManager.RespondAllGroupsTemperatures) {
+            DeviceManager.RespondAllGroupsTemperatures m = (DeviceManager.RespondAllGroupsTemperatures) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.temperatures.size());
+            for (Map.Entry<String, Map<String, DeviceGroup.TemperatureReading>> group : m.temperatures.entrySet()) {
+                out.writeId(group.getKey());
+                out.writeReadings(group.getValue());
+            }
+            out.writeVarLong(m.timedOutGroups.size());
+            for (String groupId : m.timedOutGroups) {
+                out.writeId(groupId);
+            }
+        } else if (o instanceof DeviceGroup.GroupEnvelope) {
+            // the manifest of the message, followed by the message as it is serialized on its own
+            DeviceGroup.GroupEnvelope m = (DeviceGroup.GroupEnvelope) o;
+            out.writeString(m.groupId);
+            out.writeString(manifest(m.message));
+            out.writeRawBytes(toBinary(m.message));
+        } else if (o instanceof DeviceGroup.RequestDeviceList) {
+            out.writeVarLong(((DeviceGroup.RequestDeviceList) o).requestId);
+        } else if (o instanceof DeviceGroup.ReplyDeviceList) {
+            DeviceGroup.ReplyDeviceList m = (DeviceGroup.ReplyDeviceList) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.ids.size());
+            for (String deviceId : m.ids) {
+                out.writeId(deviceId);
+            }
+        } else if (o instanceof DeviceGroup.RecordTemperatureBatch) {
+            DeviceGroup.RecordTemperatureBatch m = (DeviceGroup.RecordTemperatureBatch) o;
+            out.writeVarLong(m.requestId);
+            out.writeBoolean(m.confirmed);
+            out.writeVarLong(m.values.length);
+            for (String deviceId : m.deviceIds) {
+                out.writeId(deviceId);
+            }
+            out.writeRawDoubles(m.values);
+        } else if (o instanceof DeviceGroup.RequestAllTemperatures) {
+            DeviceGroup.RequestAllTemperatures m = (DeviceGroup.RequestAllTemperatures) o;
+            out.writeVarLong(m.requestId);
+            out.writeDuration(m.timeout);
+        } else if (o instanceof DeviceGroup.RespondAllTemperatures) {
+            DeviceGroup.RespondAllTemperatures m = (DeviceGroup.RespondAllTemperatures) o;
+            out.writeVarLong(m.requestId);
+            out.writeReadings(m.temperatures);
+        } else if (o instanceof DeviceGroup.RequestAllTemperaturesStreaming) {
+            DeviceGroup.RequestAllTemperaturesStreaming m = (DeviceGroup.RequestAllTemperaturesStreaming) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.chunkSize);
+            out.writeDuration(m.window);
+            out.writeDuration(m.timeout);
+        } else if (o instanceof DeviceGroup.PartialTemperatures) {
+            DeviceGroup.PartialTemperatures m = (DeviceGroup.PartialTemperatures) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.seqNr);
+            out.writeReadings(m.temperatures);
+        } else if (o instanceof DeviceGroup.AllTemperaturesCompleted) {
+            DeviceGroup.AllTemperaturesCompleted m = (DeviceGroup.AllTemperaturesCompleted) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.chunks);
+            out.writeVarLong(m.devices);
+        } else if (o instanceof DeviceGroup.TemperatureReading) {
+            out.writeReading((DeviceGroup.TemperatureReading) o);
+        } else if (o instanceof IngestionGateway.Connect) {
+            // no fields
+        } else if (o instanceof IngestionGateway.Demand) {
+            out.writeVarLong(((IngestionGateway.Demand) o).readings);
+        } else if (o instanceof IngestionGateway.Ingest) {
+            IngestionGateway.Ingest m = (IngestionGateway.Ingest) o;
+            out.writeVarLong(m.requestId);
+            out.writeVarLong(m.values.length);
+            for (int i = 0; i < m.values.length; i++) {
+                out.writeId(m.groupIds[i]);
+                out.writeId(m.deviceIds[i]);
+            }
+            out.writeRawDoubles(m.values);
+        } else if (o instanceof IngestionGateway.Rejected) {
+            out.writeVarLong(((IngestionGateway.Rejected) o).requestId);
+        } else if (o instanceof PersistentDevice.Recorded) {
+            PersistentDevice.Recorded m = (PersistentDevice.Recorded) o;
+            out.writeSignedVarLong(m.timestamp);
+            out.writeDouble(m.value);
+        } else if (o instanceof PersistentDevice.HistorySnapshot) {
+            PersistentDevice.HistorySnapshot m = (PersistentDevice.HistorySnapshot) o;
+            out.writeTimestamps(m.timestamps);
+            out.writeDoubles(m.values);
+        } else if (o instanceof GroupMembershipStore.DevicesAdded) {
+            out.writeIds(((GroupMembershipStore.DevicesAdded) o).deviceIds);
+        } else if (o instanceof GroupMembershipStore.DeviceRemoved) {
+            out.writeId(((GroupMembershipStore.DeviceRemoved) o).deviceId);
+        } else if (o instanceof GroupMembershipStore.MembershipSnapshot) {
+            out.writeIds(((GroupMembershipStore.MembershipSnapshot) o).deviceIds);
+        } else {
+            throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+        }
+        return out.toBytes();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        Input in = new Input(bytes);
+        switch (manifest) {
+            case RECORD_TEMPERATURE:
+                return new Device.RecordTemperature(in.readVarLong(), in.readDouble());
+            case TEMPERATURE_RECORDED:
+                return new Device.TemperatureRecorded(in.readVarLong());
+            case RECORD_TEMPERATURES: {
+                long requestId = in.readVarLong();
+                int confirmSlot = (int) in.readSignedVarLong();
+                return new Device.RecordTemperatures(requestId, in.readDoubles(), confirmSlot);
+            }
+            case READ_TEMPERATURE:
+                return new Device.ReadTemperature(in.readVarLong());
+            case RESPOND_TEMPERATURE: {
+                long requestId = in.readVarLong();
+                return new Device.RespondTemperature(requestId,
+                        in.readBoolean() ? Optional.of(in.readDouble()) : Optional.empty());
+            }
+            case READ_TEMPERATURE_HISTORY:
+                return new Device.ReadTemperatureHistory(in.readVarLong(), in.readSignedVarLong(), in.readSignedVarLong());
+            case RESPOND_TEMPERATURE_HISTORY: {
+                long requestId = in.readVarLong();
+                long[] timestamps = in.readTimestamps();
+                return new Device.RespondTemperatureHistory(requestId, timestamps, in.readDoubles());
+            }
+            case READ_TEMPERATURE_STATS:
+                return new Device.ReadTemperatureStats(in.readVarLong());
+            case RESPOND_TEMPERATURE_STATS:
+                return new Device.RespondTemperatureStats(
+                        in.readVarLong(), in.readVarInt(), in.readDouble(), in.readDouble(), in.readDouble());
+            case READ_ROLLUPS:
+                return new Device.ReadRollups(
+                        in.readVarLong(), RESOLUTIONS[in.readByte()], in.readSignedVarLong(), in.readSignedVarLong());
+            case RESPOND_ROLLUPS: {
+                long requestId = in.readVarLong();
+                long[] windowStarts = in.readTimestamps();
+                int[] counts = new int[windowStarts.length];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = in.readVarInt();
+                }
+                return new Device.RespondRollups(requestId, windowStarts, counts,
+                        in.readRawDoubles(counts.length), in.readRawDoubles(counts.length), in.readRawDoubles(counts.length));
+            }
+            case SUBSCRIBE_THRESHOLD:
+                return new Device.SubscribeThreshold(in.readVarLong(), in.readDouble(), in.readDouble(), in.readDuration());
+            case THRESHOLD_SUBSCRIBED:
+                return new Device.ThresholdSubscribed(in.readVarLong());
+            case UNSUBSCRIBE_THRESHOLD:
+                return new Device.UnsubscribeThreshold(in.readVarLong());
+            case THRESHOLD_UNSUBSCRIBED:
+                return new Device.ThresholdUnsubscribed(in.readVarLong());
+            case THRESHOLD_CROSSED:
+                return new Device.ThresholdCrossed(in.readVarLong(), in.readId(), in.readId(),
+                        THRESHOLD_STATES[in.readByte()], in.readDouble(), in.readSignedVarLong());
+            case REQUEST_TRACK_DEVICE:
+                return new DeviceManager.RequestTrackDevice(in.readId(), in.readId());
+            case DEVICE_REGISTERED:
+                return new DeviceManager.DeviceRegistered();
+            case REQUEST_TRACK_DEVICES:
+                return new DeviceManager.RequestTrackDevices(in.readId(), in.readIds());
+            case DEVICES_REGISTERED:
+                return new DeviceManager.DevicesRegistered(in.readId(), in.readVarInt(), in.readVarInt(), in.readVarInt());
+            case MANAGER_BATCH: {
+                long requestId = in.readVarLong();
+                boolean confirmed = in.readBoolean();
+                int size = in.readVarInt();
+                String[] groupIds = new String[size];
+                String[] deviceIds = new String[size];
+                for (int i = 0; i < size; i++) {
+                    groupIds[i] = in.readId();
+                    deviceIds[i] = in.readId();
+                }
+                return new DeviceManager.RecordTemperatureBatch(
+                        requestId, groupIds, deviceIds, in.readRawDoubles(size), confirmed);
+            }
+            case BATCH_RECORDED:
+                return new DeviceManager.TemperatureBatchRecorded(in.readVarLong(), in.readVarInt(), in.readVarInt());
+            case REQUEST_ALL_GROUPS:
+                return new DeviceManager.RequestAllGroupsTemperatures(in.readVarLong(), in.readDuration());
+            case RESPOND_ALL_GROUPS: {
+                long requestId = in.readVarLong();
+                int groups = in.readVarInt();
+                Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures = new HashMap<>(capacity(groups));
+                for (int i = 0; i < groups; i++) {
+                    temperatures.put(in.readId(), in.readReadings());
+                }
+                int timedOut = in.readVarInt();
+                Set<String> timedOutGroups = new HashSet<>(capacity(timedOut));
+                for (int i = 0; i < timedOut; i++) {
+                    timedOutGroups.add(in.readId());
+                }
+                return new DeviceManager.RespondAllGroupsTemperatures(requestId, temperatures, timedOutGroups);
+            }
+            case GROUP_ENVELOPE: {
+                String groupId = in.readString();
+                String messageManifest = in.readString();
+                return new DeviceGroup.GroupEnvelope(groupId, (IotSerializable) fromBinary(in.readRemaining(), messageManifest));
+            }
+            case REQUEST_DEVICE_LIST:
+                return new DeviceGroup.RequestDeviceList(in.readVarLong());
+            case REPLY_DEVICE_LIST: {
+                long requestId = in.readVarLong();
+                int size = in.readVarInt();
+                Set<String> ids = new HashSet<>(capacity(size));
+                for (int i = 0; i < size; i++) {
+                    ids.add(in.readId());
+                }
+                return new DeviceGroup.ReplyDeviceList(requestId, ids);
+            }
+            case GROUP_BATCH: {
+                long requestId = in.readVarLong();
+                boolean confirmed = in.readBoolean();
+                int size = in.readVarInt();
+                String[] deviceIds = new String[size];
+                for (int i = 0; i < size; i++) {
+                    deviceIds[i] = in.readId();
+                }
+                return new DeviceGroup.RecordTemperatureBatch(requestId, deviceIds, in.readRawDoubles(size), confirmed);
+            }
+            case REQUEST_ALL_TEMPERATURES:
+                return new DeviceGroup.RequestAllTemperatures(in.readVarLong(), in.readDuration());
+            case RESPOND_ALL_TEMPERATURES:
+                return new DeviceGroup.RespondAllTemperatures(in.readVarLong(), in.readReadings());
+            case REQUEST_STREAMING:
+                return new DeviceGroup.RequestAllTemperaturesStreaming(
+                        in.readVarLong(), in.readVarInt(), in.readDuration(), in.readDuration());
+            case PARTIAL_TEMPERATURES:
+                return new DeviceGroup.PartialTemperatures(in.readVarLong(), in.readVarInt(), in.readReadings());
+            case ALL_TEMPERATURES_COMPLETED:
+                return new DeviceGroup.AllTemperaturesCompleted(in.readVarLong(), in.readVarInt(), in.readVarInt());
+            case TEMPERATURE_READING:
+                return in.readReading();
+            case CONNECT:
+                return new IngestionGateway.Connect();
+            case DEMAND:
+                return new IngestionGateway.Demand(in.readVarInt());
+            case INGEST: {
+                long requestId = in.readVarLong();
+                int size = in.readVarInt();
+                String[] groupIds = new String[size];
+                String[] deviceIds = new String[size];
+                for (int i = 0; i < size; i++) {
+                    groupIds[i] = in.readId();
+                    deviceIds[i] = in.readId();
+                }
+                return new IngestionGateway.Ingest(requestId, groupIds, deviceIds, in.readRawDoubles(size));
+            }
+            case REJECTED:
+                return new IngestionGateway.Rejected(in.readVarLong());
+            case RECORDED_EVENT:
+                return new PersistentDevice.Recorded(in.readSignedVarLong(), in.readDouble());
+            case HISTORY_SNAPSHOT: {
+                long[] timestamps = in.readTimestamps();
+                return new PersistentDevice.HistorySnapshot(timestamps, in.readDoubles());
+            }
+            case DEVICES_ADDED:
+                return new GroupMembershipStore.DevicesAdded(in.readIds());
+            case DEVICE_REMOVED:
+                return new GroupMembershipStore.DeviceRemoved(in.readId());
+            case MEMBERSHIP_SNAPSHOT:
+                return new GroupMembershipStore.MembershipSnapshot(in.readIds());
+            default:
+                throw new NotSerializableException("Unknown manifest " + manifest + " for " + getClass().getName());
+        }
+    }
+
+    private static int capacity(int size) {
+        return size * 4 / 3 + 1;
+    }
+
+    static final class Output {
+        private byte[] buffer;
+        private int position;
+        // id -> index in the order the ids were first written, created with the first id
+        private Map<String, Integer> ids;
+
+        Output(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void ensure(int bytes) {
+            if (position + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buffer[position++] = (byte) b;
+        }
+
+        void writeBoolean(boolean b) {
+            writeByte(b ? 1 : 0);
+        }
+
+        /**
+         * 7 bits per byte, least significant group first, the high bit set on all but the last byte. Negative values
+         * take 10 bytes, see {@link #writeSignedVarLong(long)}.
+         */
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        // zigzag, so that small negative values are short as well
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(double value) {
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeRawDoubles(double[] values) {
+            ensure(values.length * 8);
+            for (double value : values) {
+                writeDouble(value);
+            }
+        }
+
+        void writeDoubles(double[] values) {
+            writeVarLong(values.length);
+            writeRawDoubles(values);
+        }
+
+        // the first timestamp and then the difference to the previous one, which is small for readings in order
+        void writeTimestamps(long[] timestamps) {
+            writeVarLong(timestamps.length);
+            long previous = 0L;
+            for (long timestamp : timestamps) {
+                writeSignedVarLong(timestamp - previous);
+                previous = timestamp;
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        /**
+         * 0 followed by the id when it is new in this message, otherwise 1 + its index.
+         */
+        void writeId(String id) {
+            if (ids == null) {
+                ids = new HashMap<>();
+            }
+            Integer index = ids.get(id);
+            if (index != null) {
+                writeVarLong(index + 1);
+            } else {
+                ids.put(id, ids.size());
+                writeVarLong(0);
+                writeString(id);
+            }
+        }
+
+        void writeIds(String[] values) {
+            writeVarLong(values.length);
+            for (String value : values) {
+                writeId(value);
+            }
+        }
+
+        // 0 for no duration
+        void writeDuration(FiniteDuration duration) {
+            writeVarLong(duration == null ? 0L : duration.toNanos() + 1);
+        }
+
+        void writeReading(DeviceGroup.TemperatureReading reading) {
+            if (reading instanceof DeviceGroup.Temperature) {
+                writeByte(TEMPERATURE);
+                writeDouble(((DeviceGroup.Temperature) reading).value);
+            } else if (reading instanceof DeviceGroup.TemperatureNotAvailable) {
+                writeByte(TEMPERATURE_NOT_AVAILABLE);
+            } else if (reading instanceof DeviceGroup.DeviceNotAvailable) {
+                writeByte(DEVICE_NOT_AVAILABLE);
+            } else if (reading instanceof DeviceGroup.DeviceTimedOut) {
+                writeByte(DEVICE_TIMED_OUT);
+            } else {
+                throw new IllegalArgumentException("Can't serialize reading of type " + reading.getClass());
+            }
+        }
+
+        void writeReadings(Map<String, DeviceGroup.TemperatureReading> readings) {
+            writeVarLong(readings.size());
+            for (Map.Entry<String, DeviceGroup.TemperatureReading> entry : readings.entrySet()) {
+                writeId(entry.getKey());
+                writeReading(entry.getValue());
+            }
+        }
+
+        void writeRawBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    static final class Input {
+        private final byte[] buffer;
+        private int position;
+        // ids in the order they were first read, created with the first id
+        private List<String> ids;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int readByte() {
+            return buffer[position++] & 0xFF;
+        }
+
+        boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        long readVarLong() {
+            long value = 0L;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        double readDouble() {
+            long bits = 0L;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buffer[position++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        double[] readRawDoubles(int length) {
+            double[] values = new double[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = readDouble();
+            }
+            return values;
+        }
+
+        double[] readDoubles() {
+            return readRawDoubles(readVarInt());
+        }
+
+        long[] readTimestamps() {
+            long[] timestamps = new long[readVarInt()];
+            long previous = 0L;
+            for (int i = 0; i < timestamps.length; i++) {
+                previous += readSignedVarLong();
+                timestamps[i] = previous;
+            }
+            return timestamps;
+        }
+
+        byte[] readRemaining() {
+            byte[] remaining = Arrays.copyOfRange(buffer, position, buffer.length);
+            position = buffer.length;
+            return remaining;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readId() {
+            if (ids == null) {
+                ids = new ArrayList<>();
+            }
+            int index = readVarInt();
+            if (index > 0) {
+                return ids.get(index - 1);
+            }
+            String id = readString();
+            ids.add(id);
+            return id;
+        }
+
+        String[] readIds() {
+            String[] values = new String[readVarInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readId();
+            }
+            return values;
+        }
+
+        FiniteDuration readDuration() {
+            long nanos = readVarLong();
+            return nanos == 0L ? null : new FiniteDuration(nanos - 1, TimeUnit.NANOSECONDS);
+        }
+
+        DeviceGroup.TemperatureReading readReading() {
+            int tag = readByte();
+            switch (tag) {
+                case TEMPERATURE:
+                    return new DeviceGroup.Temperature(readDouble());
+                case TEMPERATURE_NOT_AVAILABLE:
+                    return DeviceGroup.TemperatureNotAvailable.INSTANCE;
+                case DEVICE_NOT_AVAILABLE:
+                    return DeviceGroup.DeviceNotAvailable.INSTANCE;
+                case DEVICE_TIMED_OUT:
+                    return DeviceGroup.DeviceTimedOut.INSTANCE;
+                default:
+                    throw new IllegalArgumentException("Unknown temperature reading tag " + tag);
+            }
+        }
+
+        Map<String, DeviceGroup.TemperatureReading> readReadings() {
+            int size = readVarInt();
+            Map<String, DeviceGroup.TemperatureReading> readings = new HashMap<>(capacity(size));
+            for (int i = 0; i < size; i++) {
+                readings.put(readId(), readReading());
+            }
+            return readings;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.iot;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.actor.Props;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,1:47 AM
+ * @description settings of iot system, read once per actor system from the {@code iot} config section
+ */
+public class IotSettings implements Extension {
+    public final int deviceHistoryCapacity;
+
+    // whether every recorded reading is logged at INFO
+    public final boolean deviceLogReadings;
+
+    // number of one minute and one hour rollup windows every device keeps, 0 for none
+    public final int deviceRollupMinuteWindows;
+
+    public final int deviceRollupHourWindows;
+
+    // null when devices are never passivated
+    public final FiniteDuration devicePassivationIdleTimeout;
+
+    // null when group snapshots are off
+    public final FiniteDuration groupSnapshotStaleness;
+
+    // how long a group query waits for the devices when the requester gives no timeout
+    public final FiniteDuration groupQueryTimeout;
+
+    public final boolean groupAdaptiveTimeout;
+
+    public final FiniteDuration groupAdaptiveTimeoutMin;
+
+    public final int groupAdaptiveTimeoutSlowAfter;
+
+    // directory of the group membership files, null when they are off
+    public final String groupMembershipDirectory;
+
+    public final FiniteDuration groupMembershipFlushInterval;
+
+    public final boolean persistenceEnabled;
+
+    public final int persistenceSnapshotEvery;
+
+    // config path of the dispatcher of devices and groups, null for the default dispatcher
+    public final String ingestDispatcher;
+
+    // config path of the dispatcher of group and manager queries, null for the default dispatcher
+    public final String queryDispatcher;
+
+    // readings an IngestionGateway admits before their batches are acknowledged
+    public final int ingestionMaxInFlight;
+
+    public final int ingestionBatchSize;
+
+    public final FiniteDuration ingestionFlushInterval;
+
+    public final FiniteDuration ingestionBatchTimeout;
+
+    // whether readings beyond the credit of a producer are dropped rather than the Ingest rejected
+    public final boolean ingestionShedOverflow;
+
+    public final boolean metricsJmx;
+
+    public final String metricsHttpHostname;
+
+    // -1 when the metrics endpoint is off, 0 for any free port
+    public final int metricsHttpPort;
+
+    public final boolean metricsInstrumentDeviceMailboxes;
+
+    public IotSettings(Config config) {
+        Config iot = config.getConfig("iot");
+        this.deviceHistoryCapacity = iot.getInt("device.history-capacity");
+        if (deviceHistoryCapacity <= 0) {
+            throw new IllegalArgumentException("iot.device.history-capacity must be > 0, was " + deviceHistoryCapacity);
+        }
+        this.deviceLogReadings = iot.getBoolean("device.log-readings");
+        this.deviceRollupMinuteWindows = iot.getInt("device.rollups.minute-windows");
+        this.deviceRollupHourWindows = iot.getInt("device.rollups.hour-windows");
+        if (deviceRollupMinuteWindows < 0 || deviceRollupHourWindows < 0) {
+            throw new IllegalArgumentException("iot.device.rollups windows must be >= 0, were " +
+                    deviceRollupMinuteWindows + " and " + deviceRollupHourWindows);
+        }
+        this.devicePassivationIdleTimeout = durationOrOff(iot, "device.passivation-idle-timeout");
+        this.groupSnapshotStaleness = durationOrOff(iot, "group.snapshot-staleness");
+        this.groupQueryTimeout = duration(iot, "group.query-timeout");
+        this.groupAdaptiveTimeout = iot.getBoolean("group.adaptive-timeout.enabled");
+        this.groupAdaptiveTimeoutMin = duration(iot, "group.adaptive-timeout.min-timeout");
+        this.groupAdaptiveTimeoutSlowAfter = iot.getInt("group.adaptive-timeout.slow-after");
+        if (groupAdaptiveTimeoutSlowAfter <= 0) {
+            throw new IllegalArgumentException("iot.group.adaptive-timeout.slow-after must be > 0, was " + groupAdaptiveTimeoutSlowAfter);
+        }
+        String membershipDirectory = iot.getString("group.membership-file.directory");
+        this.groupMembershipDirectory = "off".equalsIgnoreCase(membershipDirectory) ? null : membershipDirectory;
+        this.groupMembershipFlushInterval = duration(iot, "group.membership-file.flush-interval");
+        this.persistenceEnabled = iot.getBoolean("persistence.enabled");
+        if (persistenceEnabled && !persistenceAvailable()) {
+            throw new IllegalArgumentException("iot.persistence.enabled is on, but akka-persistence is not on the classpath");
+        }
+        this.persistenceSnapshotEvery = iot.getInt("persistence.snapshot-every");
+        if (persistenceSnapshotEvery <= 0) {
+            throw new IllegalArgumentException("iot.persistence.snapshot-every must be > 0, was " + persistenceSnapshotEvery);
+        }
+        this.ingestDispatcher = dispatcherOrDefault(config, "iot.dispatchers.ingest");
+        this.queryDispatcher = dispatcherOrDefault(config, "iot.dispatchers.query");
+        this.ingestionMaxInFlight = iot.getInt("ingestion.max-in-flight");
+        this.ingestionBatchSize = iot.getInt("ingestion.batch-size");
+        if (ingestionBatchSize <= 0 || ingestionMaxInFlight < ingestionBatchSize) {
+            throw new IllegalArgumentException("iot.ingestion.batch-size must be > 0 and at most max-in-flight, were " +
+                    ingestionBatchSize + " and " + ingestionMaxInFlight);
+        }
+        this.ingestionFlushInterval = duration(iot, "ingestion.flush-interval");
+        this.ingestionBatchTimeout = duration(iot, "ingestion.batch-timeout");
+        String overflowStrategy = iot.getString("ingestion.overflow-strategy");
+        if (!"reject".equals(overflowStrategy) && !"shed".equals(overflowStrategy)) {
+            throw new IllegalArgumentException("iot.ingestion.overflow-strategy must be reject or shed, was " + overflowStrategy);
+        }
+        this.ingestionShedOverflow = "shed".equals(overflowStrategy);
+        this.metricsJmx = iot.getBoolean("metrics.jmx");
+        this.metricsHttpHostname = iot.getString("metrics.http.hostname");
+        this.metricsHttpPort = "off".equalsIgnoreCase(iot.getString("metrics.http.port")) ? -1 : iot.getInt("metrics.http.port");
+        this.metricsInstrumentDeviceMailboxes = iot.getBoolean("metrics.instrument-device-mailboxes");
+    }
+
+    static FiniteDuration durationOrOff(Config config, String path) {
+        if ("off".equalsIgnoreCase(config.getString(path))) {
+            return null;
+        }
+        return duration(config, path);
+    }
+
+    static FiniteDuration duration(Config config, String path) {
+        return new FiniteDuration(config.getDuration(path, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    }
+
+    static String dispatcherOrDefault(Config config, String path) {
+        String dispatcher = config.getString(path);
+        if ("default".equals(dispatcher)) {
+            return null;
+        }
+        if (!config.hasPath(dispatcher)) {
+            throw new IllegalArgumentException(path + " must be default or the config path of a dispatcher, there is no " + dispatcher);
+        }
+        return dispatcher;
+    }
+
+    // akka-persistence is an optional dependency, only needed with iot.persistence.enabled on
+    static boolean persistenceAvailable() {
+        try {
+            Class.forName("akka.persistence.AbstractPersistentActor", false, IotSettings.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The props on the dispatcher of the ingest path, iot.dispatchers.ingest.
+     */
+    public Props withIngestDispatcher(Props props) {
+        return ingestDispatcher != null ? props.withDispatcher(ingestDispatcher) : props;
+    }
+
+    /**
+     * The props on the dispatcher of the query actors, iot.dispatchers.query.
+     */
+    public Props withQueryDispatcher(Props props) {
+        return queryDispatcher != null ? props.withDispatcher(queryDispatcher) : props;
+    }
+
+    public static IotSettings get(ActorSystem system) {
+        return Provider.INSTANCE.get(system);
+    }
+
+    static final class Provider extends AbstractExtensionId<IotSettings> implements ExtensionIdProvider {
+        static final Provider INSTANCE = new Provider();
+
+        private Provider() {
+        }
+
+        @Override
+        public Provider lookup() {
+            return INSTANCE;
+        }
+
+        @Override
+        public IotSettings createExtension(ExtendedActorSystem system) {
+            return new IotSettings(system.settings().config());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.iot;
+
+import java.util.Arrays;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,1:58 AM
+ * @description compact device id to last reading map, a {@link SlotIndex} over primitive arrays
+ *
+ * Devices are iterated by slot from 0 until {@link #size()}. Removing a device moves the last device into its slot.
+ */
+final class LastReadings {
+    // timestamp of a device that has not recorded anything
+    static final long NO_READING = Long.MIN_VALUE;
+    // timestamp of a device whose last reading the group does not know, a recovered persistent device has it only in
+    // its journal
+    static final long UNKNOWN_READING = Long.MIN_VALUE + 1;
+
+    private final SlotIndex<String> keys;
+    private double[] values;
+    private long[] timestamps;
+
+    LastReadings() {
+        this(16);
+    }
+
+    LastReadings(int expectedSize) {
+        keys = new SlotIndex<>(String[]::new, expectedSize);
+        values = new double[keys.capacity()];
+        timestamps = new long[keys.capacity()];
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * Slot of the device, or -1 if it is not contained.
+     */
+    int indexOf(String deviceId) {
+        return keys.slotOf(deviceId);
+    }
+
+    boolean contains(String deviceId) {
+        return keys.slotOf(deviceId) >= 0;
+    }
+
+    String keyAt(int index) {
+        return keys.keyAt(index);
+    }
+
+    boolean hasReading(int index) {
+        return timestamps[index] > UNKNOWN_READING;
+    }
+
+    boolean isReadingKnown(int index) {
+        return timestamps[index] != UNKNOWN_READING;
+    }
+
+    double value(int index) {
+        return values[index];
+    }
+
+    long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Inserts or replaces the last reading of a device, {@link #NO_READING} as timestamp records a device without readings
+     * and {@link #UNKNOWN_READING} one whose reading is not known.
+     */
+    void put(String deviceId, double value, long timestamp) {
+        int i = keys.slotOf(deviceId);
+        if (i < 0) {
+            i = keys.add(deviceId);
+            if (i == values.length) {
+                values = Arrays.copyOf(values, keys.capacity());
+                timestamps = Arrays.copyOf(timestamps, keys.capacity());
+            }
+        }
+        values[i] = value;
+        timestamps[i] = timestamp;
+    }
+
+    void remove(String deviceId) {
+        int i = keys.slotOf(deviceId);
+        if (i < 0) {
+            return;
+        }
+        int moved = keys.removeAt(i);
+        values[i] = values[moved];
+        timestamps[i] = timestamps[moved];
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:25 AM
+ * @description event sourced device actor, used by DeviceGroup instead of Device when iot.persistence.enabled is on
+ *
+ * Speaks the protocol of {@link Device}, sharing all of it but the recording of readings through {@link DeviceState}.
+ * Every reading is journaled before it is acknowledged, readings of a {@link Device.RecordTemperatures} batch are
+ * written together with persistAll. Every iot.persistence.snapshot-every events the retained history is saved as a
+ * snapshot and the events before it are deleted, so recovery replays at most one snapshot and that many events.
+ */
+public class PersistentDevice extends AbstractPersistentActor {
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    final DeviceState state;
+
+    int eventsSinceSnapshot = 0;
+
+    // the confirmed RecordTemperatures being persisted, answered as not recorded if the journal rejects it
+    Device.RecordTemperatures persisting;
+    ActorRef persistingSender;
+
+    PersistentDevice(String groupId, String deviceId, FiniteDuration reportInterval, FiniteDuration idleTimeout) {
+        this.state = new DeviceState(getContext(), log, groupId, deviceId, reportInterval, idleTimeout);
+    }
+
+    static Props props(String groupId, String deviceId, FiniteDuration reportInterval, FiniteDuration idleTimeout) {
+        return Props.create(PersistentDevice.class, () -> new PersistentDevice(groupId, deviceId, reportInterval, idleTimeout));
+    }
+
+    static String persistenceId(String groupId, String deviceId) {
+        return "device-" + groupId + "-" + deviceId;
+    }
+
+    static final class Recorded implements Serializable, IotSerializable {
+        private static final long serialVersionUID = 1L;
+
+        final long timestamp;
+        final double value;
+
+        Recorded(long timestamp, double value) {
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    // the retained history, oldest reading first
+    static final class HistorySnapshot implements Serializable, IotSerializable {
+        private static final long serialVersionUID = 1L;
+
+        final long[] timestamps;
+        final double[] values;
+
+        HistorySnapshot(long[] timestamps, double[] values) {
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+    }
+
+    @Override
+    public String persistenceId() {
+        return persistenceId(state.groupId, state.deviceId);
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        state.started();
+        log.info("Persistent device actor {}-{} started", state.groupId, state.deviceId);
+    }
+
+    @Override
+    public void postStop() {
+        state.stopped();
+        log.info("Persistent device actor {}-{} stopped", state.groupId, state.deviceId);
+        super.postStop();
+    }
+
+    @Override
+    public Receive createReceiveRecover() {
+        // the rollups are rebuilt from the recovered snapshot and events, so they cover at least the retained history
+        return receiveBuilder()
+                .match(SnapshotOffer.class, offer -> {
+                    HistorySnapshot snapshot = (HistorySnapshot) offer.snapshot();
+                    for (int i = 0; i < snapshot.values.length; i++) {
+                        state.restore(snapshot.timestamps[i], snapshot.values[i]);
+                    }
+                })
+                .match(Recorded.class, e -> {
+                    state.restore(e.timestamp, e.value);
+                    eventsSinceSnapshot++;
+                })
+                .match(RecoveryCompleted.class, r -> {
+                    if (!state.history.isEmpty()) {
+                        // lets a group that keeps snapshots learn the recovered reading
+                        state.recorded();
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return state.matchCommon(receiveBuilder()
+                .match(Device.RecordTemperature.class, r -> {
+                    persist(new Recorded(System.currentTimeMillis(), r.value), e -> {
+                        if (state.settings.deviceLogReadings) {
+                            log.info("Recorded temperature reading {} with {}", r.value, r.requestId);
+                        }
+                        applyRecorded(e);
+                        state.recorded();
+                        getSender().tell(new Device.TemperatureRecorded(r.requestId), getSelf());
+                    });
+                })
+                .match(Device.RecordTemperatures.class, r -> {
+                    long now = System.currentTimeMillis();
+                    List<Recorded> events = new ArrayList<>(r.values.length);
+                    for (double value : r.values) {
+                        events.add(new Recorded(now, value));
+                    }
+                    int[] applied = {0};
+                    if (r.confirmSlot >= 0) {
+                        persisting = r;
+                        persistingSender = getSender();
+                    }
+                    persistAll(events, e -> {
+                        applyRecorded(e);
+                        if (++applied[0] == events.size()) {
+                            state.recorded();
+                            if (r.confirmSlot >= 0) {
+                                persisting = null;
+                                persistingSender = null;
+                                getSender().tell(new Device.TemperaturesRecorded(r.requestId, r.confirmSlot), getSelf());
+                            }
+                        }
+                    });
+                })
+                .match(Device.RestoreLastReading.class, r -> {
+                    // the journal already holds the reading the group remembered. The group also kept the rollups of
+                    // every reading up to it, which the recovery rebuilt here a second time
+                    state.clearRollups();
+                })
+                .match(SaveSnapshotSuccess.class, s -> {
+                    long seqNr = s.metadata().sequenceNr();
+                    deleteMessages(seqNr);
+                    deleteSnapshots(SnapshotSelectionCriteria.create(seqNr - 1, Long.MAX_VALUE));
+                })
+                .match(SaveSnapshotFailure.class, f -> log.warning("Snapshot of device {}-{} failed: {}",
+                        state.groupId, state.deviceId, f.cause().getMessage())))
+                .build();
+    }
+
+    @Override
+    public void onPersistRejected(Throwable cause, Object event, long seqNr) {
+        super.onPersistRejected(cause, event, seqNr);
+        // called for every event of a rejected persistAll, the group is answered once
+        if (persisting != null) {
+            persistingSender.tell(new Device.TemperaturesRecorded(
+                    persisting.requestId, persisting.confirmSlot, false), getSelf());
+            persisting = null;
+            persistingSender = null;
+        }
+    }
+
+    private void applyRecorded(Recorded e) {
+        state.record(e.timestamp, e.value);
+        state.metrics.readingsRecorded.increment();
+        if (++eventsSinceSnapshot >= state.settings.persistenceSnapshotEvery) {
+            eventsSinceSnapshot = 0;
+            TemperatureHistory history = state.history;
+            int size = history.size();
+            long[] timestamps = new long[size];
+            double[] values = new double[size];
+            history.copyRange(Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values);
+            saveSnapshot(new HistorySnapshot(timestamps, values));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.iot;
+
+import java.util.Arrays;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:42 AM
+ * @description compact device id to query response time estimate map, a {@link SlotIndex} over primitive arrays
+ *
+ * Every device has a smoothed response time and its mean deviation, updated like the round trip time estimate of
+ * TCP (RFC 6298): {@code srtt += (r - srtt) / 8}, {@code rttvar += (|srtt - r| - rttvar) / 4}. A query that waits
+ * {@code srtt + 4 * rttvar} for a device rarely gives up on an answer that was on its way. Next to the estimate the
+ * number of consecutive queries the device did not answer in time is counted.
+ */
+final class ResponseTimes {
+    // response time of a device that has not answered any query yet
+    static final int NO_ESTIMATE = -1;
+
+    private final SlotIndex<String> keys = new SlotIndex<>(String[]::new, 16);
+    // microseconds
+    private int[] smoothed = new int[keys.capacity()];
+    private int[] deviation = new int[keys.capacity()];
+    private int[] misses = new int[keys.capacity()];
+
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * Slot of the device, or -1 if it is not contained.
+     */
+    int indexOf(String deviceId) {
+        return keys.slotOf(deviceId);
+    }
+
+    boolean hasEstimate(int index) {
+        return smoothed[index] != NO_ESTIMATE;
+    }
+
+    /**
+     * How long a query should wait for the device, {@code srtt + 4 * rttvar}.
+     */
+    long timeoutMicros(int index) {
+        return smoothed[index] + 4L * deviation[index];
+    }
+
+    int misses(int index) {
+        return misses[index];
+    }
+
+    void recordResponse(String deviceId, long micros) {
+        int i = slotFor(deviceId);
+        int sample = (int) Math.min(micros, Integer.MAX_VALUE);
+        if (smoothed[i] == NO_ESTIMATE) {
+            smoothed[i] = sample;
+            deviation[i] = sample / 2;
+        } else {
+            deviation[i] += (Math.abs(smoothed[i] - sample) - deviation[i]) / 4;
+            smoothed[i] += (sample - smoothed[i]) / 8;
+        }
+        misses[i] = 0;
+    }
+
+    void recordTimeout(String deviceId) {
+        misses[slotFor(deviceId)]++;
+    }
+
+    private int slotFor(String deviceId) {
+        int i = keys.slotOf(deviceId);
+        if (i < 0) {
+            i = keys.add(deviceId);
+            if (i == smoothed.length) {
+                smoothed = Arrays.copyOf(smoothed, keys.capacity());
+                deviation = Arrays.copyOf(deviation, keys.capacity());
+                misses = Arrays.copyOf(misses, keys.capacity());
+            }
+            smoothed[i] = NO_ESTIMATE;
+            deviation[i] = 0;
+            misses[i] = 0;
+        }
+        return i;
+    }
+
+    void remove(String deviceId) {
+        int i = keys.slotOf(deviceId);
+        if (i < 0) {
+            return;
+        }
+        int moved = keys.removeAt(i);
+        smoothed[i] = smoothed[moved];
+        deviation[i] = deviation[moved];
+        misses[i] = misses[moved];
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.iot;
+
+import java.util.Arrays;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:48 AM
+ * @description tumbling window aggregates of readings, count, min, max and sum per window, backed by primitive arrays
+ *
+ * Keeps the most recent {@code capacity} windows of {@code windowMillis} each in a ring indexed by the window number,
+ * so recording a reading is a division and an array update. A reading for a window older than the retained ones is
+ * dropped. Windows without readings take no slot in answers.
+ */
+final class RollupWindows {
+    // start of a slot that holds no window
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long windowMillis;
+    private final long[] starts;
+    private final int[] counts;
+    private final double[] mins;
+    private final double[] maxs;
+    private final double[] sums;
+    // start of the newest window, EMPTY before the first reading
+    private long latestStart = EMPTY;
+
+    RollupWindows(long windowMillis, int capacity) {
+        this.windowMillis = windowMillis;
+        this.starts = new long[capacity];
+        this.counts = new int[capacity];
+        this.mins = new double[capacity];
+        this.maxs = new double[capacity];
+        this.sums = new double[capacity];
+        Arrays.fill(starts, EMPTY);
+    }
+
+    long windowMillis() {
+        return windowMillis;
+    }
+
+    int capacity() {
+        return starts.length;
+    }
+
+    void record(long timestamp, double value) {
+        merge(timestamp, 1, value, value, value);
+    }
+
+    /**
+     * Adds the aggregate of several readings in the window containing {@code timestamp}, e.g. the window of another
+     * device.
+     */
+    void merge(long timestamp, int count, double min, double max, double sum) {
+        long start = Math.floorDiv(timestamp, windowMillis) * windowMillis;
+        if (latestStart != EMPTY && start <= latestStart - starts.length * windowMillis) {
+            return;
+        }
+        int slot = (int) Math.floorMod(start / windowMillis, (long) starts.length);
+        if (starts[slot] != start) {
+            if (starts[slot] != EMPTY && starts[slot] > start) {
+                // the slot already holds a newer window
+                return;
+            }
+            starts[slot] = start;
+            counts[slot] = 0;
+            mins[slot] = Double.POSITIVE_INFINITY;
+            maxs[slot] = Double.NEGATIVE_INFINITY;
+            sums[slot] = 0.0;
+        }
+        counts[slot] += count;
+        mins[slot] = Math.min(mins[slot], min);
+        maxs[slot] = Math.max(maxs[slot], max);
+        sums[slot] += sum;
+        if (latestStart == EMPTY || start > latestStart) {
+            latestStart = start;
+        }
+    }
+
+    /**
+     * Adds every window of {@code windows}, e.g. the answer of a device or the windows a passivated device left behind.
+     */
+    void merge(Device.RespondRollups windows) {
+        for (int i = 0; i < windows.windowStarts.length; i++) {
+            merge(windows.windowStarts[i], windows.counts[i], windows.mins[i], windows.maxs[i],
+                    windows.means[i] * windows.counts[i]);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(starts, EMPTY);
+        latestStart = EMPTY;
+    }
+
+    /**
+     * Number of retained windows with readings that overlap {@code fromTs <= timestamp <= toTs}.
+     */
+    int count(long fromTs, long toTs) {
+        int count = 0;
+        for (int k = starts.length - 1; k >= 0; k--) {
+            if (slotOf(k, fromTs, toTs) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the windows counted by {@link #count(long, long)}, oldest first, into the given arrays, which must hold at
+     * least that many elements.
+     */
+    void copyRange(long fromTs, long toTs, long[] startsOut, int[] countsOut, double[] minsOut, double[] maxsOut,
+                   double[] meansOut) {
+        int j = 0;
+        for (int k = starts.length - 1; k >= 0; k--) {
+            int slot = slotOf(k, fromTs, toTs);
+            if (slot >= 0) {
+                startsOut[j] = starts[slot];
+                countsOut[j] = counts[slot];
+                minsOut[j] = mins[slot];
+                maxsOut[j] = maxs[slot];
+                meansOut[j] = sums[slot] / counts[slot];
+                j++;
+            }
+        }
+    }
+
+    Device.RespondRollups respond(long requestId, long fromTs, long toTs) {
+        int count = count(fromTs, toTs);
+        long[] startsOut = new long[count];
+        int[] countsOut = new int[count];
+        double[] minsOut = new double[count];
+        double[] maxsOut = new double[count];
+        double[] meansOut = new double[count];
+        copyRange(fromTs, toTs, startsOut, countsOut, minsOut, maxsOut, meansOut);
+        return new Device.RespondRollups(requestId, startsOut, countsOut, minsOut, maxsOut, meansOut);
+    }
+
+    // slot of the window k windows before the newest one, -1 if it holds no readings or is outside the range
+    private int slotOf(int k, long fromTs, long toTs) {
+        if (latestStart == EMPTY) {
+            return -1;
+        }
+        long start = latestStart - k * windowMillis;
+        int slot = (int) Math.floorMod(start / windowMillis, (long) starts.length);
+        if (starts[slot] != start || start > toTs || start + windowMillis <= fromTs) {
+            return -1;
+        }
+        return slot;
+    }
+}
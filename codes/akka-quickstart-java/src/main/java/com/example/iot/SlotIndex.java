@@ -0,0 +1,158 @@
+package com.example.iot;
+
+import java.util.function.IntFunction;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:54 AM
+ * @description keys in dense slots with an open addressing table of ints over them, the map behind the per device tables
+ *
+ * Keys live in slots 0 until {@link #size()}. The owner keeps the values of a key in its own primitive arrays at the
+ * same slot, so a table of n devices is a few arrays and no boxed keys, entries or values. The table maps the hash of
+ * a key to its slot + 1, 0 marks a free position, and is kept at a load factor of at most 1/2, so a lookup is one
+ * short probe sequence over an int[]. Removing a key moves the last key into its slot, so slots are only stable as
+ * long as nothing is removed, and removal from the table uses backward shift deletion, so lookups never need
+ * tombstones.
+ */
+final class SlotIndex<K> {
+    private final IntFunction<K[]> newArray;
+    private K[] keys;
+    private int[] table;
+    private int size;
+
+    SlotIndex(IntFunction<K[]> newArray, int expectedSize) {
+        int capacity = Math.max(4, expectedSize);
+        this.newArray = newArray;
+        this.keys = newArray.apply(capacity);
+        this.table = new int[tableSizeFor(capacity)];
+    }
+
+    private static int tableSizeFor(int capacity) {
+        // a power of two at least twice the capacity
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Number of slots before the index grows. Owners grow their value arrays to it when {@link #add} returns a slot
+     * beyond them.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    K keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Slot of the key, or -1 if it is not contained.
+     */
+    int slotOf(Object key) {
+        int mask = table.length - 1;
+        for (int i = mix(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) {
+                return -1;
+            }
+            if (keys[entry - 1].equals(key)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds a key that is not contained yet.
+     *
+     * @return its slot, always the previous size
+     */
+    int add(K key) {
+        if (size == keys.length) {
+            grow();
+        }
+        int slot = size++;
+        keys[slot] = key;
+        insert(mix(key.hashCode()), slot);
+        return slot;
+    }
+
+    /**
+     * Removes the key in the slot, and moves the last key into it.
+     *
+     * @return the slot the moved key had, the owner moves its values from there, equal to {@code slot} when the
+     * removed key was the last one
+     */
+    int removeAt(int slot) {
+        delete(slot);
+        int last = --size;
+        if (slot != last) {
+            keys[slot] = keys[last];
+            repoint(mix(keys[slot].hashCode()), last, slot);
+        }
+        keys[last] = null;
+        return last;
+    }
+
+    /**
+     * Copies the keys into the array, starting at index 0, in slot order.
+     */
+    void copyTo(K[] out) {
+        System.arraycopy(keys, 0, out, 0, size);
+    }
+
+    private void insert(int hash, int slot) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    private void repoint(int hash, int fromSlot, int toSlot) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != fromSlot + 1) {
+            i = (i + 1) & mask;
+        }
+        table[i] = toSlot + 1;
+    }
+
+    private void delete(int slot) {
+        int mask = table.length - 1;
+        int i = mix(keys[slot].hashCode()) & mask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        int gap = i;
+        for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = mix(keys[table[j] - 1].hashCode()) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = 0;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        K[] grown = newArray.apply(capacity);
+        System.arraycopy(keys, 0, grown, 0, size);
+        keys = grown;
+        table = new int[tableSizeFor(capacity)];
+        for (int slot = 0; slot < size; slot++) {
+            insert(mix(keys[slot].hashCode()), slot);
+        }
+    }
+
+    private static int mix(int hash) {
+        // spread the bits of the hash codes, as neighbouring ids like device-1, device-2 hash to neighbouring values
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.iot;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,1:47 AM
+ * @description bounded ring buffer of temperature readings, backed by primitive arrays
+ */
+final class TemperatureHistory {
+    private final double[] values;
+    private final long[] timestamps;
+
+    // slot the next reading is written to
+    private int next;
+    private int size;
+
+    TemperatureHistory(int capacity) {
+        this.values = new double[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    void record(long timestamp, double value) {
+        values[next] = value;
+        timestamps[next] = timestamp;
+        next = next + 1 == values.length ? 0 : next + 1;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    double lastValue() {
+        return values[lastSlot()];
+    }
+
+    long lastTimestamp() {
+        return timestamps[lastSlot()];
+    }
+
+    private int lastSlot() {
+        if (size == 0) {
+            throw new IllegalStateException("No temperature recorded yet");
+        }
+        return next == 0 ? values.length - 1 : next - 1;
+    }
+
+    // slot of the i-th oldest retained reading
+    private int slot(int i) {
+        int slot = next - size + i;
+        return slot < 0 ? slot + values.length : slot;
+    }
+
+    /**
+     * Number of retained readings with {@code fromTs <= timestamp <= toTs}.
+     */
+    int count(long fromTs, long toTs) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            long ts = timestamps[slot(i)];
+            if (ts >= fromTs && ts <= toTs) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the retained readings with {@code fromTs <= timestamp <= toTs}, oldest first,
+     * into the given arrays, which must hold at least {@link #count(long, long)} elements.
+     */
+    void copyRange(long fromTs, long toTs, long[] timestampsOut, double[] valuesOut) {
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            long ts = timestamps[slot];
+            if (ts >= fromTs && ts <= toTs) {
+                timestampsOut[j] = ts;
+                valuesOut[j] = values[slot];
+                j++;
+            }
+        }
+    }
+
+    double min() {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    double max() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    double mean() {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i];
+        }
+        return sum / size;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.iot;
+
+import akka.actor.ActorRef;
+
+import java.util.Arrays;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:45 AM
+ * @description threshold subscriptions of one device, evaluated against every recorded reading
+ *
+ * Subscriptions are kept in parallel primitive arrays and checked in a loop on the ingest path, so a reading costs
+ * no message unless it changes the state of a subscription. Every subscription starts {@link
+ * Device.ThresholdState#IN_RANGE}. A reading in another state than the current one starts a pending change, which
+ * is committed and sent as {@link Device.ThresholdCrossed} once every reading for {@code debounce} was in that state.
+ * A reading back in the current state cancels the pending change.
+ */
+final class ThresholdSubscriptions {
+    private static final Device.ThresholdState[] STATES = Device.ThresholdState.values();
+    // pending state of a subscription without a pending change
+    private static final byte NONE = -1;
+
+    private final String groupId;
+    private final String deviceId;
+
+    private ActorRef[] subscribers = new ActorRef[0];
+    private long[] requestIds = new long[0];
+    private double[] mins = new double[0];
+    private double[] maxs = new double[0];
+    private long[] debounceNanos = new long[0];
+    // subscribed directly at the device rather than through its group
+    private boolean[] direct = new boolean[0];
+    // ordinals of Device.ThresholdState
+    private byte[] states = new byte[0];
+    private byte[] pendingStates = new byte[0];
+    private long[] pendingSinceNanos = new long[0];
+    private int size;
+
+    ThresholdSubscriptions(String groupId, String deviceId) {
+        this.groupId = groupId;
+        this.deviceId = deviceId;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean hasDirectSubscriptions() {
+        for (int i = 0; i < size; i++) {
+            if (direct[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasDirectSubscriptions(ActorRef subscriber) {
+        for (int i = 0; i < size; i++) {
+            if (direct[i] && subscribers[i].equals(subscriber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a subscription, or replaces the bounds of the subscription with the same subscriber and request id.
+     */
+    void add(ActorRef subscriber, long requestId, double min, double max, long debounce, boolean direct) {
+        int i = indexOf(subscriber, requestId);
+        if (i < 0) {
+            if (size == subscribers.length) {
+                grow();
+            }
+            i = size++;
+            subscribers[i] = subscriber;
+            requestIds[i] = requestId;
+        }
+        mins[i] = min;
+        maxs[i] = max;
+        debounceNanos[i] = debounce;
+        this.direct[i] = direct;
+        states[i] = (byte) Device.ThresholdState.IN_RANGE.ordinal();
+        pendingStates[i] = NONE;
+    }
+
+    boolean remove(ActorRef subscriber, long requestId) {
+        int i = indexOf(subscriber, requestId);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    void removeSubscriber(ActorRef subscriber) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (subscribers[i].equals(subscriber)) {
+                removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Evaluates a recorded reading against all subscriptions.
+     *
+     * @return true if a change is pending, see {@link #nextDeadlineNanos()}
+     */
+    boolean record(double value, long timestamp, long nowNanos, ActorRef self) {
+        boolean pending = false;
+        for (int i = 0; i < size; i++) {
+            byte state = (byte) (value < mins[i] ? Device.ThresholdState.BELOW.ordinal()
+                    : value > maxs[i] ? Device.ThresholdState.ABOVE.ordinal()
+                    : Device.ThresholdState.IN_RANGE.ordinal());
+            if (state == states[i]) {
+                pendingStates[i] = NONE;
+                continue;
+            }
+            if (state != pendingStates[i]) {
+                pendingStates[i] = state;
+                pendingSinceNanos[i] = nowNanos;
+            }
+            if (nowNanos - pendingSinceNanos[i] >= debounceNanos[i]) {
+                commit(i, value, timestamp, self);
+            } else {
+                pending = true;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Commits the pending changes that held for their debounce interval, with the latest reading of the device.
+     *
+     * @return true if a change is still pending
+     */
+    boolean checkPending(double value, long timestamp, long nowNanos, ActorRef self) {
+        boolean pending = false;
+        for (int i = 0; i < size; i++) {
+            if (pendingStates[i] == NONE) {
+                continue;
+            }
+            if (nowNanos - pendingSinceNanos[i] >= debounceNanos[i]) {
+                commit(i, value, timestamp, self);
+            } else {
+                pending = true;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * When the first pending change is due, {@link Long#MAX_VALUE} if there is none.
+     */
+    long nextDeadlineNanos() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (pendingStates[i] != NONE) {
+                next = Math.min(next, pendingSinceNanos[i] + debounceNanos[i]);
+            }
+        }
+        return next;
+    }
+
+    private void commit(int i, double value, long timestamp, ActorRef self) {
+        states[i] = pendingStates[i];
+        pendingStates[i] = NONE;
+        subscribers[i].tell(new Device.ThresholdCrossed(
+                requestIds[i], groupId, deviceId, STATES[states[i]], value, timestamp), self);
+    }
+
+    private int indexOf(ActorRef subscriber, long requestId) {
+        for (int i = 0; i < size; i++) {
+            if (requestIds[i] == requestId && subscribers[i].equals(subscriber)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int i) {
+        int last = --size;
+        subscribers[i] = subscribers[last];
+        requestIds[i] = requestIds[last];
+        mins[i] = mins[last];
+        maxs[i] = maxs[last];
+        debounceNanos[i] = debounceNanos[last];
+        direct[i] = direct[last];
+        states[i] = states[last];
+        pendingStates[i] = pendingStates[last];
+        pendingSinceNanos[i] = pendingSinceNanos[last];
+        subscribers[last] = null;
+    }
+
+    private void grow() {
+        // devices have few subscribers, so the arrays start empty and grow in small steps
+        int capacity = Math.max(2, subscribers.length * 2);
+        subscribers = Arrays.copyOf(subscribers, capacity);
+        requestIds = Arrays.copyOf(requestIds, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+        debounceNanos = Arrays.copyOf(debounceNanos, capacity);
+        direct = Arrays.copyOf(direct, capacity);
+        states = Arrays.copyOf(states, capacity);
+        pendingStates = Arrays.copyOf(pendingStates, capacity);
+        pendingSinceNanos = Arrays.copyOf(pendingSinceNanos, capacity);
+    }
+}
@@ -3,6 +3,7 @@ package com.lightbend.akka.sample;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.PoisonPill;
+import akka.actor.Props;
 import akka.testkit.javadsl.TestKit;
 import com.example.iot.Device;
 import com.example.iot.DeviceGroup;
@@ -11,6 +12,7 @@ import com.example.iot.DeviceManager;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import com.typesafe.config.ConfigFactory;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.util.HashMap;
@@ -19,6 +21,7 @@ import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 /**
  * @author Charies Gavin
@@ -57,11 +60,11 @@ public class DeviceGroupQueryTest {
                 requester.getRef(),
                 new FiniteDuration(3, TimeUnit.SECONDS)));
 
-        assertEquals(0L, device1.expectMsgClass(Device.ReadTemperature.class).requestId);
-        assertEquals(0L, device2.expectMsgClass(Device.ReadTemperature.class).requestId);
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        long slot2 = device2.expectMsgClass(Device.ReadTemperature.class).requestId;
 
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.of(2.0)), device2.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot2, Optional.of(2.0)), device2.getRef());
 
         DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
         assertEquals(1L, response.requestId);
@@ -90,11 +93,11 @@ public class DeviceGroupQueryTest {
                 requester.getRef(),
                 new FiniteDuration(3, TimeUnit.SECONDS)));
 
-        assertEquals(0L, device1.expectMsgClass(Device.ReadTemperature.class).requestId);
-        assertEquals(0L, device2.expectMsgClass(Device.ReadTemperature.class).requestId);
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        long slot2 = device2.expectMsgClass(Device.ReadTemperature.class).requestId;
 
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.empty()), device1.getRef());
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.of(2.0)), device2.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.empty()), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot2, Optional.of(2.0)), device2.getRef());
 
         DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
         assertEquals(1L, response.requestId);
@@ -123,10 +126,10 @@ public class DeviceGroupQueryTest {
                 requester.getRef(),
                 new FiniteDuration(3, TimeUnit.SECONDS)));
 
-        assertEquals(0L, device1.expectMsgClass(Device.ReadTemperature.class).requestId);
-        assertEquals(0L, device2.expectMsgClass(Device.ReadTemperature.class).requestId);
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        assertNotEquals(slot1, device2.expectMsgClass(Device.ReadTemperature.class).requestId);
 
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
         device2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
 
         DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
@@ -156,11 +159,11 @@ public class DeviceGroupQueryTest {
                 requester.getRef(),
                 new FiniteDuration(3, TimeUnit.SECONDS)));
 
-        assertEquals(0L, device1.expectMsgClass(Device.ReadTemperature.class).requestId);
-        assertEquals(0L, device2.expectMsgClass(Device.ReadTemperature.class).requestId);
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        long slot2 = device2.expectMsgClass(Device.ReadTemperature.class).requestId;
 
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.of(2.0)), device2.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot2, Optional.of(2.0)), device2.getRef());
         device2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
 
         DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
@@ -190,10 +193,10 @@ public class DeviceGroupQueryTest {
                 requester.getRef(),
                 new FiniteDuration(1, TimeUnit.SECONDS)));
 
-        assertEquals(0L, device1.expectMsgClass(Device.ReadTemperature.class).requestId);
-        assertEquals(0L, device2.expectMsgClass(Device.ReadTemperature.class).requestId);
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        assertNotEquals(slot1, device2.expectMsgClass(Device.ReadTemperature.class).requestId);
 
-        queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
 
         DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(
                 java.time.Duration.ofSeconds(5),
@@ -242,4 +245,299 @@ public class DeviceGroupQueryTest {
 
         assertEquals(expectedTemperatures, response.temperatures);
     }
+
+    @Test
+    public void testIgnoreDuplicateAndUnknownReplies() {
+        TestKit requester = new TestKit(system);
+
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+        TestKit stranger = new TestKit(system);
+
+        ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+                new ActorRef[]{device1.getRef(), device2.getRef()},
+                new String[]{"device1", "device2"},
+                1L,
+                requester.getRef(),
+                new FiniteDuration(3, TimeUnit.SECONDS)));
+
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        long slot2 = device2.expectMsgClass(Device.ReadTemperature.class).requestId;
+
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(9.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot2, Optional.of(9.0)), stranger.getRef());
+        requester.expectNoMessage(java.time.Duration.ofMillis(200));
+
+        queryActor.tell(new Device.RespondTemperature(slot2, Optional.of(2.0)), device2.getRef());
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+        assertEquals(expectedTemperatures, response.temperatures);
+    }
+
+    @Test
+    public void testRespondImmediatelyForEmptyGroup() {
+        TestKit requester = new TestKit(system);
+
+        system.actorOf(DeviceGroupQuery.props(
+                new HashMap<>(),
+                1L,
+                requester.getRef(),
+                new FiniteDuration(3, TimeUnit.SECONDS)));
+
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(
+                java.time.Duration.ofMillis(500),
+                DeviceGroup.RespondAllTemperatures.class);
+        assertEquals(0, response.temperatures.size());
+    }
+
+    @Test
+    public void testAnswerFromGroupSnapshotWhenEnabled() {
+        ActorSystem snapshotSystem = ActorSystem.create("snapshot", ConfigFactory
+                .parseString("iot.group.snapshot-staleness = 100ms")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestKit probe = new TestKit(snapshotSystem);
+            ActorRef groupActor = snapshotSystem.actorOf(DeviceGroup.props("group"));
+
+            groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef deviceActor1 = probe.getLastSender();
+
+            groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+            for (int i = 1; i <= 3; i++) {
+                deviceActor1.tell(new Device.RecordTemperature(i, i), probe.getRef());
+                probe.expectMsgClass(Device.TemperatureRecorded.class);
+            }
+
+            Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+            expectedTemperatures.put("device1", new DeviceGroup.Temperature(3.0));
+            expectedTemperatures.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+
+            // the latest reading reaches the snapshot within the staleness bound
+            probe.awaitAssert(java.time.Duration.ofSeconds(1), () -> {
+                groupActor.tell(new DeviceGroup.RequestAllTemperatures(5L), probe.getRef());
+                DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+                assertEquals(5L, response.requestId);
+                assertEquals(expectedTemperatures, response.temperatures);
+                // answered by the group itself, no query actor in between
+                assertEquals(groupActor, probe.getLastSender());
+                return null;
+            });
+        } finally {
+            TestKit.shutdownActorSystem(snapshotSystem);
+        }
+    }
+
+    @Test
+    public void testStreamPartialTemperaturesByChunkSize() {
+        TestKit requester = new TestKit(system);
+
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+        TestKit device3 = new TestKit(system);
+
+        ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+                new ActorRef[]{device1.getRef(), device2.getRef(), device3.getRef()},
+                new String[]{"device1", "device2", "device3"},
+                1L,
+                requester.getRef(),
+                new FiniteDuration(1, TimeUnit.SECONDS),
+                2,
+                new FiniteDuration(1, TimeUnit.MINUTES)));
+
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        long slot2 = device2.expectMsgClass(Device.ReadTemperature.class).requestId;
+        device3.expectMsgClass(Device.ReadTemperature.class);
+
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
+        queryActor.tell(new Device.RespondTemperature(slot2, Optional.empty()), device2.getRef());
+
+        DeviceGroup.PartialTemperatures first = requester.expectMsgClass(DeviceGroup.PartialTemperatures.class);
+        assertEquals(1L, first.requestId);
+        assertEquals(0, first.seqNr);
+        Map<String, DeviceGroup.TemperatureReading> expectedFirst = new HashMap<>();
+        expectedFirst.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedFirst.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        assertEquals(expectedFirst, first.temperatures);
+
+        // device3 never answers, it is streamed as timed out before the completion marker
+        DeviceGroup.PartialTemperatures second = requester.expectMsgClass(
+                java.time.Duration.ofSeconds(5),
+                DeviceGroup.PartialTemperatures.class);
+        assertEquals(1, second.seqNr);
+        assertEquals(DeviceGroup.DeviceTimedOut.INSTANCE, second.temperatures.get("device3"));
+
+        DeviceGroup.AllTemperaturesCompleted completed = requester.expectMsgClass(DeviceGroup.AllTemperaturesCompleted.class);
+        assertEquals(1L, completed.requestId);
+        assertEquals(2, completed.chunks);
+        assertEquals(3, completed.devices);
+    }
+
+    @Test
+    public void testStreamAllTemperaturesOfGroup() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor1 = probe.getLastSender();
+        deviceActor1.tell(new Device.RecordTemperature(0L, 1.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceGroup.RequestAllTemperaturesStreaming(
+                3L, 100, new FiniteDuration(50, TimeUnit.MILLISECONDS)), probe.getRef());
+
+        Map<String, DeviceGroup.TemperatureReading> streamed = new HashMap<>();
+        DeviceGroup.AllTemperaturesCompleted completed = null;
+        while (completed == null) {
+            Object msg = probe.receiveOne(java.time.Duration.ofSeconds(3));
+            if (msg instanceof DeviceGroup.PartialTemperatures) {
+                streamed.putAll(((DeviceGroup.PartialTemperatures) msg).temperatures);
+            } else {
+                completed = (DeviceGroup.AllTemperaturesCompleted) msg;
+            }
+        }
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        assertEquals(expectedTemperatures, streamed);
+        assertEquals(3L, completed.requestId);
+        assertEquals(2, completed.devices);
+    }
+
+    @Test
+    public void testStreamKnownRepliesInChunksOfChunkSize() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("knownGroup"));
+        // registered in bulk, so none of them is running and the group knows all replies up front
+        groupActor.tell(new DeviceManager.RequestTrackDevices(
+                "knownGroup", new String[]{"device1", "device2", "device3", "device4", "device5"}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+
+        groupActor.tell(new DeviceGroup.RequestAllTemperaturesStreaming(
+                4L, 2, new FiniteDuration(1, TimeUnit.MINUTES)), probe.getRef());
+
+        Map<String, DeviceGroup.TemperatureReading> streamed = new HashMap<>();
+        for (int seqNr = 0; seqNr < 3; seqNr++) {
+            DeviceGroup.PartialTemperatures partial = probe.expectMsgClass(DeviceGroup.PartialTemperatures.class);
+            assertEquals(seqNr, partial.seqNr);
+            assertEquals(seqNr < 2 ? 2 : 1, partial.temperatures.size());
+            streamed.putAll(partial.temperatures);
+        }
+        DeviceGroup.AllTemperaturesCompleted completed = probe.expectMsgClass(DeviceGroup.AllTemperaturesCompleted.class);
+        assertEquals(3, completed.chunks);
+        assertEquals(5, completed.devices);
+        assertEquals(5, streamed.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectStreamingRequestWithoutWindow() {
+        new DeviceGroup.RequestAllTemperaturesStreaming(4L, 100, null);
+    }
+
+    @Test
+    public void testDoNotWaitForSlowDevices() {
+        TestKit requester = new TestKit(system);
+        TestKit group = new TestKit(system);
+
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+
+        ActorRef queryActor = group.childActorOf(Props.create(DeviceGroupQuery.class, () -> new DeviceGroupQuery(
+                new ActorRef[]{device1.getRef(), device2.getRef()},
+                new String[]{"device1", "device2"},
+                null,
+                new boolean[]{false, true},
+                1L,
+                requester.getRef(),
+                new FiniteDuration(3, TimeUnit.SECONDS),
+                0,
+                null)));
+
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        device2.expectMsgClass(Device.ReadTemperature.class);
+
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
+
+        // answered once the devices it waits for answered, long before the timeout
+        DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(
+                java.time.Duration.ofMillis(500),
+                DeviceGroup.RespondAllTemperatures.class);
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", DeviceGroup.DeviceTimedOut.INSTANCE);
+        assertEquals(expectedTemperatures, response.temperatures);
+    }
+
+    @Test
+    public void testUseAnswerOfSlowDeviceWhileWaitingForOthers() {
+        TestKit requester = new TestKit(system);
+        TestKit group = new TestKit(system);
+
+        TestKit device1 = new TestKit(system);
+        TestKit device2 = new TestKit(system);
+
+        ActorRef queryActor = group.childActorOf(Props.create(DeviceGroupQuery.class, () -> new DeviceGroupQuery(
+                new ActorRef[]{device1.getRef(), device2.getRef()},
+                new String[]{"device1", "device2"},
+                null,
+                new boolean[]{false, true},
+                1L,
+                requester.getRef(),
+                new FiniteDuration(3, TimeUnit.SECONDS),
+                0,
+                null)));
+
+        long slot1 = device1.expectMsgClass(Device.ReadTemperature.class).requestId;
+        long slot2 = device2.expectMsgClass(Device.ReadTemperature.class).requestId;
+
+        queryActor.tell(new Device.RespondTemperature(slot2, Optional.of(2.0)), device2.getRef());
+        requester.expectNoMessage(java.time.Duration.ofMillis(100));
+        queryActor.tell(new Device.RespondTemperature(slot1, Optional.of(1.0)), device1.getRef());
+
+        Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+        expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+        assertEquals(expectedTemperatures, requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures);
+    }
+
+    @Test
+    public void testKeepAnsweringHealthyDevicesWithAdaptiveTimeouts() {
+        ActorSystem adaptiveSystem = ActorSystem.create("adaptive", ConfigFactory
+                .parseString("iot.group.adaptive-timeout.enabled = on")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestKit probe = new TestKit(adaptiveSystem);
+            ActorRef groupActor = adaptiveSystem.actorOf(DeviceGroup.props("group"));
+            for (int i = 0; i < 20; i++) {
+                groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device" + i), probe.getRef());
+                probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+                probe.getLastSender().tell(new Device.RecordTemperature(i, i), probe.getRef());
+                probe.expectMsgClass(Device.TemperatureRecorded.class);
+            }
+
+            // the first query learns the response times, the later ones wait only as long as the estimates say
+            for (long requestId = 0; requestId < 10; requestId++) {
+                groupActor.tell(new DeviceGroup.RequestAllTemperatures(requestId), probe.getRef());
+                DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+                assertEquals(20, response.temperatures.size());
+                for (int i = 0; i < 20; i++) {
+                    assertEquals(new DeviceGroup.Temperature(i), response.temperatures.get("device" + i));
+                }
+            }
+        } finally {
+            TestKit.shutdownActorSystem(adaptiveSystem);
+        }
+    }
 }
@@ -5,14 +5,24 @@ import akka.actor.ActorSystem;
 import akka.actor.PoisonPill;
 import akka.actor.Terminated;
 import akka.testkit.javadsl.TestKit;
+import com.example.iot.Device;
 import com.example.iot.DeviceGroup;
 import com.example.iot.DeviceManager;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Charies Gavin
@@ -63,4 +73,125 @@ public class DeviceManagerTest {
         ActorRef groupActor2 = probe.getLastSender();
         assertEquals(groupActor1, groupActor2);
     }
+
+    @Test
+    public void testRecordTemperatureBatchAcrossGroups() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceManagerActor = system.actorOf(DeviceManager.props());
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor1 = probe.getLastSender();
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group2", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor2 = probe.getLastSender();
+
+        deviceManagerActor.tell(new DeviceManager.RecordTemperatureBatch(
+                7L,
+                new String[]{"group1", "group2", "group1", "unknownGroup", "group2"},
+                new String[]{"device1", "device2", "device1", "device1", "unknownDevice"},
+                new double[]{1.0, 2.0, 3.0, 4.0, 5.0}), probe.getRef());
+        DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        assertEquals(7L, ack.requestId);
+        assertEquals(3, ack.recorded);
+        assertEquals(2, ack.rejected);
+
+        deviceActor1.tell(new Device.ReadTemperatureHistory(0L, 0L, Long.MAX_VALUE), probe.getRef());
+        assertArrayEquals(new double[]{1.0, 3.0},
+                probe.expectMsgClass(Device.RespondTemperatureHistory.class).values, 0.0);
+
+        deviceActor2.tell(new Device.ReadTemperature(1L), probe.getRef());
+        assertEquals(Optional.of(2.0), probe.expectMsgClass(Device.RespondTemperature.class).value);
+    }
+
+    @Test
+    public void testAcknowledgeConfirmedBatchOnceRecorded() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceManagerActor = system.actorOf(DeviceManager.props());
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor1 = probe.getLastSender();
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group1", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor2 = probe.getLastSender();
+
+        // whether the group still routes to the stopped device or not, its reading is not recorded
+        deviceActor2.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        deviceManagerActor.tell(new DeviceManager.RecordTemperatureBatch(
+                8L,
+                new String[]{"group1", "group1", "group1"},
+                new String[]{"device1", "device1", "device2"},
+                new double[]{1.0, 2.0, 3.0}, true), probe.getRef());
+        DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        assertEquals(8L, ack.requestId);
+        assertEquals(2, ack.recorded);
+        assertEquals(1, ack.rejected);
+
+        // acknowledged only once recorded, so a read after the ack sees the readings
+        deviceActor1.tell(new Device.ReadTemperature(1L), probe.getRef());
+        assertEquals(Optional.of(2.0), probe.expectMsgClass(Device.RespondTemperature.class).value);
+    }
+
+    @Test
+    public void testCollectTemperaturesAcrossAllGroups() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceManagerActor = system.actorOf(DeviceManager.props());
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor1 = probe.getLastSender();
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group1", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group2", "device3"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor3 = probe.getLastSender();
+
+        deviceActor1.tell(new Device.RecordTemperature(0L, 1.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        deviceActor3.tell(new Device.RecordTemperature(1L, 3.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+        deviceManagerActor.tell(new DeviceManager.RequestAllGroupsTemperatures(
+                9L, new FiniteDuration(3, TimeUnit.SECONDS)), probe.getRef());
+        DeviceManager.RespondAllGroupsTemperatures response =
+                probe.expectMsgClass(DeviceManager.RespondAllGroupsTemperatures.class);
+        assertEquals(9L, response.requestId);
+
+        Map<String, DeviceGroup.TemperatureReading> group1 = new HashMap<>();
+        group1.put("device1", new DeviceGroup.Temperature(1.0));
+        group1.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        Map<String, DeviceGroup.TemperatureReading> group2 = new HashMap<>();
+        group2.put("device3", new DeviceGroup.Temperature(3.0));
+        Map<String, Map<String, DeviceGroup.TemperatureReading>> expectedTemperatures = new HashMap<>();
+        expectedTemperatures.put("group1", group1);
+        expectedTemperatures.put("group2", group2);
+
+        assertEquals(expectedTemperatures, response.temperatures);
+        assertTrue(response.timedOutGroups.isEmpty());
+    }
+
+    @Test
+    public void testQueryAllGroupsWithTheDefaultTimeout() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceManagerActor = system.actorOf(DeviceManager.props());
+
+        deviceManagerActor.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor1 = probe.getLastSender();
+        deviceActor1.tell(new Device.RecordTemperature(0L, 1.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+        // no timeout given, iot.group.query-timeout applies
+        deviceManagerActor.tell(new DeviceManager.RequestAllGroupsTemperatures(10L), probe.getRef());
+        DeviceManager.RespondAllGroupsTemperatures response =
+                probe.expectMsgClass(DeviceManager.RespondAllGroupsTemperatures.class);
+        assertEquals(10L, response.requestId);
+        assertEquals(new DeviceGroup.Temperature(1.0), response.temperatures.get("group1").get("device1"));
+        assertTrue(response.timedOutGroups.isEmpty());
+    }
 }
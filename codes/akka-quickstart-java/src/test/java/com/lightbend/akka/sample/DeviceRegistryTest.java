@@ -0,0 +1,109 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.example.iot.DeviceRegistry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:02 AM
+ * @description device registry test class
+ */
+public class DeviceRegistryTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testLookupInBothDirections() {
+        ActorRef device1 = new TestKit(system).getRef();
+        ActorRef device2 = new TestKit(system).getRef();
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.put("device1", device1);
+        registry.put("device2", device2);
+
+        assertEquals(2, registry.size());
+        assertSame(device1, registry.actorOf("device1"));
+        assertSame(device2, registry.actorOf("device2"));
+        assertEquals("device1", registry.idOf(device1));
+        assertEquals("device2", registry.idOf(device2));
+        assertNull(registry.actorOf("device3"));
+        assertNull(registry.idOf(new TestKit(system).getRef()));
+
+        assertEquals("device1", registry.remove(device1));
+        assertEquals(1, registry.size());
+        assertFalse(registry.contains("device1"));
+        assertNull(registry.idOf(device1));
+        assertSame(device2, registry.actorOf("device2"));
+        assertNull(registry.remove(device1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectRegisteringAnIdTwice() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.put("device1", new TestKit(system).getRef());
+        registry.put("device1", new TestKit(system).getRef());
+    }
+
+    @Test
+    public void testStayConsistentWithHashMapsUnderRandomPutsAndRemoves() {
+        ActorRef[] refs = new ActorRef[300];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = new TestKit(system).getRef();
+        }
+        // start small so that the tables grow several times
+        DeviceRegistry registry = new DeviceRegistry(4);
+        Map<String, ActorRef> idToActor = new HashMap<>();
+        Map<ActorRef, String> actorToId = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int step = 0; step < 20000; step++) {
+            int i = random.nextInt(refs.length);
+            String id = "device-" + i;
+            if (actorToId.containsKey(refs[i])) {
+                assertEquals(id, registry.remove(refs[i]));
+                actorToId.remove(refs[i]);
+                idToActor.remove(id);
+            } else {
+                registry.put(id, refs[i]);
+                actorToId.put(refs[i], id);
+                idToActor.put(id, refs[i]);
+            }
+        }
+
+        assertEquals(idToActor.size(), registry.size());
+        for (int i = 0; i < refs.length; i++) {
+            String id = "device-" + i;
+            assertSame(idToActor.get(id), registry.actorOf(id));
+            assertEquals(actorToId.get(refs[i]), registry.idOf(refs[i]));
+        }
+        for (int slot = 0; slot < registry.size(); slot++) {
+            assertTrue(idToActor.containsKey(registry.idAt(slot)));
+            assertSame(idToActor.get(registry.idAt(slot)), registry.actorAt(slot));
+        }
+    }
+}
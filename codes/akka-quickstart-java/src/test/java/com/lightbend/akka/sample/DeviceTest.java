@@ -7,16 +7,22 @@ import akka.testkit.javadsl.TestKit;
 import com.example.iot.Device;
 import com.example.iot.DeviceGroup;
 import com.example.iot.DeviceManager;
+import com.example.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
 
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Charies Gavin
@@ -185,4 +191,314 @@ public class DeviceTest {
             return null;
         });
     }
+
+    @Test
+    public void testReplyWithTemperatureHistoryInRange() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+
+        long before = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            deviceActor.tell(new Device.RecordTemperature(i, 20.0 + i), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+        }
+
+        deviceActor.tell(new Device.ReadTemperatureHistory(7L, before, Long.MAX_VALUE), probe.getRef());
+        Device.RespondTemperatureHistory response = probe.expectMsgClass(Device.RespondTemperatureHistory.class);
+        assertEquals(7L, response.requestId);
+        assertArrayEquals(new double[]{20.0, 21.0, 22.0}, response.values, 0.0);
+        assertEquals(3, response.timestamps.length);
+
+        deviceActor.tell(new Device.ReadTemperatureHistory(8L, 0L, before - 1), probe.getRef());
+        assertEquals(0, probe.expectMsgClass(Device.RespondTemperatureHistory.class).values.length);
+    }
+
+    @Test
+    public void testKeepOnlyMostRecentReadingsInHistory() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+
+        int capacity = IotSettings.get(system).deviceHistoryCapacity;
+        for (int i = 0; i < capacity + 5; i++) {
+            deviceActor.tell(new Device.RecordTemperature(i, i), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+        }
+
+        deviceActor.tell(new Device.ReadTemperatureHistory(1L, 0L, Long.MAX_VALUE), probe.getRef());
+        Device.RespondTemperatureHistory history = probe.expectMsgClass(Device.RespondTemperatureHistory.class);
+        assertEquals(capacity, history.values.length);
+        assertEquals(5.0, history.values[0], 0.0);
+        assertEquals(capacity + 4.0, history.values[capacity - 1], 0.0);
+
+        deviceActor.tell(new Device.ReadTemperatureStats(2L), probe.getRef());
+        Device.RespondTemperatureStats stats = probe.expectMsgClass(Device.RespondTemperatureStats.class);
+        assertEquals(capacity, stats.count);
+        assertEquals(5.0, stats.min, 0.0);
+        assertEquals(capacity + 4.0, stats.max, 0.0);
+        assertEquals((5.0 + capacity + 4.0) / 2, stats.mean, 1e-9);
+
+        deviceActor.tell(new Device.ReadTemperature(3L), probe.getRef());
+        assertEquals(Optional.of(capacity + 4.0), probe.expectMsgClass(Device.RespondTemperature.class).value);
+    }
+
+    @Test
+    public void testReplyWithEmptyStatsIfNoTemperatureIsKnown() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+
+        deviceActor.tell(new Device.ReadTemperatureStats(42L), probe.getRef());
+        Device.RespondTemperatureStats stats = probe.expectMsgClass(Device.RespondTemperatureStats.class);
+        assertEquals(42L, stats.requestId);
+        assertEquals(0, stats.count);
+        assertTrue(Double.isNaN(stats.mean));
+    }
+
+    @Test
+    public void testPassivateIdleDevicesAndRecreateThemOnDemand() {
+        ActorSystem passivationSystem = ActorSystem.create("passivation", ConfigFactory
+                .parseString("iot.device.passivation-idle-timeout = 300ms")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestKit probe = new TestKit(passivationSystem);
+            ActorRef groupActor = passivationSystem.actorOf(DeviceGroup.props("group"));
+
+            groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef deviceActor1 = probe.getLastSender();
+
+            deviceActor1.tell(new Device.RecordTemperature(0L, 5.0), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+            probe.watch(deviceActor1);
+            probe.expectTerminated(java.time.Duration.ofSeconds(3), deviceActor1);
+
+            // still tracked, and answered from the compact record without recreating the device
+            groupActor.tell(new DeviceGroup.RequestDeviceList(1L), probe.getRef());
+            assertEquals(Stream.of("device1").collect(Collectors.toSet()),
+                    probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).ids);
+
+            groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+            assertEquals(new DeviceGroup.Temperature(5.0),
+                    probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures.get("device1"));
+
+            // the next message routed through the group recreates it with its last reading
+            groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef recreated = probe.getLastSender();
+            assertNotEquals(deviceActor1, recreated);
+
+            recreated.tell(new Device.ReadTemperature(3L), probe.getRef());
+            assertEquals(Optional.of(5.0), probe.expectMsgClass(Device.RespondTemperature.class).value);
+        } finally {
+            TestKit.shutdownActorSystem(passivationSystem);
+        }
+    }
+
+    private static void record(TestKit probe, ActorRef deviceActor, double value) {
+        deviceActor.tell(new Device.RecordTemperature(0L, value), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+    }
+
+    @Test
+    public void testPushThresholdCrossingsOnlyOnChange() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+
+        deviceActor.tell(new Device.SubscribeThreshold(7L, 10.0, 30.0, FiniteDuration.Zero()), subscriber.getRef());
+        assertEquals(7L, subscriber.expectMsgClass(Device.ThresholdSubscribed.class).requestId);
+
+        record(probe, deviceActor, 20.0);
+        subscriber.expectNoMessage(java.time.Duration.ofMillis(100));
+
+        record(probe, deviceActor, 35.0);
+        Device.ThresholdCrossed above = subscriber.expectMsgClass(Device.ThresholdCrossed.class);
+        assertEquals(7L, above.requestId);
+        assertEquals("device", above.deviceId);
+        assertEquals(Device.ThresholdState.ABOVE, above.state);
+        assertEquals(35.0, above.value, 0.0);
+
+        // edge triggered, staying above is not reported again
+        record(probe, deviceActor, 40.0);
+        subscriber.expectNoMessage(java.time.Duration.ofMillis(100));
+
+        record(probe, deviceActor, 5.0);
+        assertEquals(Device.ThresholdState.BELOW, subscriber.expectMsgClass(Device.ThresholdCrossed.class).state);
+        record(probe, deviceActor, 15.0);
+        assertEquals(Device.ThresholdState.IN_RANGE, subscriber.expectMsgClass(Device.ThresholdCrossed.class).state);
+
+        deviceActor.tell(new Device.UnsubscribeThreshold(7L), subscriber.getRef());
+        subscriber.expectMsgClass(Device.ThresholdUnsubscribed.class);
+        record(probe, deviceActor, 50.0);
+        subscriber.expectNoMessage(java.time.Duration.ofMillis(100));
+    }
+
+    @Test
+    public void testDebounceThresholdCrossings() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+
+        deviceActor.tell(new Device.SubscribeThreshold(1L, 10.0, 30.0, new FiniteDuration(300, TimeUnit.MILLISECONDS)),
+                subscriber.getRef());
+        subscriber.expectMsgClass(Device.ThresholdSubscribed.class);
+
+        // a spike that is back in range within the debounce interval is not reported
+        record(probe, deviceActor, 35.0);
+        record(probe, deviceActor, 20.0);
+        subscriber.expectNoMessage(java.time.Duration.ofMillis(500));
+
+        // a change that holds is reported once the interval passed, without another reading
+        record(probe, deviceActor, 36.0);
+        Device.ThresholdCrossed crossed = subscriber.expectMsgClass(java.time.Duration.ofSeconds(1), Device.ThresholdCrossed.class);
+        assertEquals(Device.ThresholdState.ABOVE, crossed.state);
+        assertEquals(36.0, crossed.value, 0.0);
+    }
+
+    @Test
+    public void testSubscribeToThresholdsOfAllDevicesOfGroup() {
+        TestKit probe = new TestKit(system);
+        TestKit subscriber = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor1 = probe.getLastSender();
+
+        groupActor.tell(new Device.SubscribeThreshold(3L, 0.0, 100.0, FiniteDuration.Zero()), subscriber.getRef());
+        subscriber.expectMsgClass(Device.ThresholdSubscribed.class);
+
+        // tracked after the subscription
+        groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor2 = probe.getLastSender();
+
+        record(probe, deviceActor1, 120.0);
+        Device.ThresholdCrossed crossed1 = subscriber.expectMsgClass(Device.ThresholdCrossed.class);
+        assertEquals("device1", crossed1.deviceId);
+        assertEquals(Device.ThresholdState.ABOVE, crossed1.state);
+
+        groupActor.tell(new DeviceGroup.RecordTemperatureBatch(1L, new String[]{"device2"}, new double[]{-5.0}),
+                probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        Device.ThresholdCrossed crossed2 = subscriber.expectMsgClass(Device.ThresholdCrossed.class);
+        assertEquals("device2", crossed2.deviceId);
+        assertEquals(Device.ThresholdState.BELOW, crossed2.state);
+
+        groupActor.tell(new Device.UnsubscribeThreshold(3L), subscriber.getRef());
+        subscriber.expectMsgClass(Device.ThresholdUnsubscribed.class);
+        record(probe, deviceActor2, 50.0);
+        subscriber.expectNoMessage(java.time.Duration.ofMillis(100));
+    }
+
+    private static int totalCount(Device.RespondRollups rollups) {
+        int count = 0;
+        for (int c : rollups.counts) {
+            count += c;
+        }
+        return count;
+    }
+
+    @Test
+    public void testAnswerRollupsOfDevicesAndGroups() {
+        ActorSystem rollupSystem = ActorSystem.create("rollups", ConfigFactory
+                .parseString("iot.device.rollups.minute-windows = 10\n" +
+                        "iot.device.rollups.hour-windows = 2")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestKit probe = new TestKit(rollupSystem);
+            ActorRef groupActor = rollupSystem.actorOf(DeviceGroup.props("group"));
+            groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef deviceActor1 = probe.getLastSender();
+            groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+            long before = System.currentTimeMillis();
+            record(probe, deviceActor1, 1.0);
+            record(probe, deviceActor1, 2.0);
+            record(probe, deviceActor1, 6.0);
+            groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                    1L, new String[]{"device2", "device2"}, new double[]{-4.0, 10.0}), probe.getRef());
+            probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+
+            deviceActor1.tell(new Device.ReadRollups(2L, Device.RollupResolution.HOUR, 0L, Long.MAX_VALUE), probe.getRef());
+            Device.RespondRollups hours = probe.expectMsgClass(Device.RespondRollups.class);
+            assertEquals(2L, hours.requestId);
+            // the readings may straddle the turn of an hour
+            assertEquals(3, totalCount(hours));
+            assertEquals(1.0, hours.mins[0], 0.0);
+            assertEquals(6.0, hours.maxs[hours.maxs.length - 1], 0.0);
+            assertTrue(hours.windowStarts[0] <= before && hours.windowStarts[0] % 3_600_000L == 0);
+            if (hours.counts.length == 1) {
+                assertEquals(3.0, hours.means[0], 1e-9);
+            }
+
+            // windows that end before the range are left out
+            deviceActor1.tell(new Device.ReadRollups(3L, Device.RollupResolution.MINUTE, 0L, before - 60_000L), probe.getRef());
+            assertEquals(0, probe.expectMsgClass(Device.RespondRollups.class).counts.length);
+
+            groupActor.tell(new Device.ReadRollups(4L, Device.RollupResolution.MINUTE, 0L, Long.MAX_VALUE), probe.getRef());
+            Device.RespondRollups merged = probe.expectMsgClass(Device.RespondRollups.class);
+            assertEquals(4L, merged.requestId);
+            assertEquals(5, totalCount(merged));
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0.0;
+            for (int i = 0; i < merged.counts.length; i++) {
+                min = Math.min(min, merged.mins[i]);
+                max = Math.max(max, merged.maxs[i]);
+                sum += merged.means[i] * merged.counts[i];
+            }
+            assertEquals(-4.0, min, 0.0);
+            assertEquals(10.0, max, 0.0);
+            assertEquals(15.0, sum, 1e-9);
+        } finally {
+            TestKit.shutdownActorSystem(rollupSystem);
+        }
+    }
+
+    @Test
+    public void testKeepRollupsOfPassivatedDevicesInTheGroup() {
+        ActorSystem rollupSystem = ActorSystem.create("rollups-passivation", ConfigFactory
+                .parseString("iot.device.rollups.minute-windows = 10\n" +
+                        "iot.device.passivation-idle-timeout = 300ms")
+                .withFallback(ConfigFactory.load()));
+        try {
+            TestKit probe = new TestKit(rollupSystem);
+            ActorRef groupActor = rollupSystem.actorOf(DeviceGroup.props("group"));
+            groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+            ActorRef deviceActor1 = probe.getLastSender();
+            record(probe, deviceActor1, 1.0);
+            record(probe, deviceActor1, 2.0);
+            record(probe, deviceActor1, 6.0);
+
+            probe.watch(deviceActor1);
+            probe.expectTerminated(java.time.Duration.ofSeconds(3), deviceActor1);
+
+            groupActor.tell(new Device.ReadRollups(1L, Device.RollupResolution.MINUTE, 0L, Long.MAX_VALUE), probe.getRef());
+            assertEquals(3, totalCount(probe.expectMsgClass(Device.RespondRollups.class)));
+
+            // the recreated device counts only its new readings, the group still has the earlier ones
+            groupActor.tell(new DeviceGroup.RecordTemperatureBatch(2L, new String[]{"device1"}, new double[]{10.0}),
+                    probe.getRef());
+            probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+            groupActor.tell(new Device.ReadRollups(3L, Device.RollupResolution.MINUTE, 0L, Long.MAX_VALUE), probe.getRef());
+            Device.RespondRollups merged = probe.expectMsgClass(Device.RespondRollups.class);
+            assertEquals(4, totalCount(merged));
+            assertEquals(10.0, merged.maxs[merged.maxs.length - 1], 0.0);
+        } finally {
+            TestKit.shutdownActorSystem(rollupSystem);
+        }
+    }
+
+    @Test
+    public void testAnswerNoRollupsWhenNotKept() {
+        TestKit probe = new TestKit(system);
+        ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+        record(probe, deviceActor, 1.0);
+        deviceActor.tell(new Device.ReadRollups(1L, Device.RollupResolution.MINUTE, 0L, Long.MAX_VALUE), probe.getRef());
+        assertEquals(0, probe.expectMsgClass(Device.RespondRollups.class).counts.length);
+    }
 }
@@ -0,0 +1,52 @@
+package com.lightbend.akka.sample;
+
+import akka.dispatch.Futures;
+import akka.persistence.AtomicWrite;
+import akka.persistence.PersistentRepr;
+import akka.persistence.journal.japi.AsyncWriteJournal;
+import scala.concurrent.Future;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,4:17 AM
+ * @description journal that keeps nothing, rejects the writes of persistence ids ending with -rejecting and never
+ * completes the writes of persistence ids ending with -stalling
+ */
+public class FaultyJournal extends AsyncWriteJournal {
+
+    @Override
+    public Future<Iterable<Optional<Exception>>> doAsyncWriteMessages(Iterable<AtomicWrite> messages) {
+        List<Optional<Exception>> results = new ArrayList<>();
+        for (AtomicWrite write : messages) {
+            if (write.persistenceId().endsWith("-stalling")) {
+                return Futures.<Iterable<Optional<Exception>>>promise().future();
+            }
+            results.add(write.persistenceId().endsWith("-rejecting")
+                    ? Optional.of(new IllegalArgumentException("rejected by FaultyJournal"))
+                    : Optional.empty());
+        }
+        return Futures.successful(results);
+    }
+
+    @Override
+    public Future<Void> doAsyncDeleteMessagesTo(String persistenceId, long toSequenceNr) {
+        return Futures.successful(null);
+    }
+
+    @Override
+    public Future<Void> doAsyncReplayMessages(String persistenceId, long fromSequenceNr, long toSequenceNr, long max,
+                                              Consumer<PersistentRepr> replayCallback) {
+        return Futures.successful(null);
+    }
+
+    @Override
+    public Future<Long> doAsyncReadHighestSequenceNr(String persistenceId, long fromSequenceNr) {
+        return Futures.successful(0L);
+    }
+}
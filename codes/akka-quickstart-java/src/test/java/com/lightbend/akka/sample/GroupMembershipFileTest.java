@@ -0,0 +1,168 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:11 AM
+ * @description bulk device registration and group membership file test class
+ */
+public class GroupMembershipFileTest {
+    static ActorSystem system;
+    static Path directory;
+
+    @BeforeClass
+    public static void setup() {
+        directory = Paths.get("target", "membership-" + UUID.randomUUID());
+        system = ActorSystem.create("membership", ConfigFactory.parseString(
+                "iot.group.membership-file.directory = \"" + directory + "\"\n" +
+                        "iot.group.membership-file.flush-interval = 10ms")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static void stop(TestKit probe, ActorRef actor) {
+        probe.watch(actor);
+        actor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(actor);
+    }
+
+    private static List<String> membershipFile(String groupId) {
+        try {
+            return Files.readAllLines(directory.resolve(groupId + ".members"), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void awaitDeviceList(TestKit probe, ActorRef groupActor, String... deviceIds) {
+        probe.awaitAssert(() -> {
+            groupActor.tell(new DeviceGroup.RequestDeviceList(0L), probe.getRef());
+            assertEquals(new HashSet<>(Arrays.asList(deviceIds)),
+                    probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).ids);
+            return null;
+        });
+    }
+
+    @Test
+    public void testRegisterDevicesInBulk() {
+        TestKit probe = new TestKit(system);
+        ActorRef managerActor = system.actorOf(DeviceManager.props());
+
+        managerActor.tell(new DeviceManager.RequestTrackDevices(
+                "bulkGroup", new String[]{"device1", "device2", "device2", "bad/device"}), probe.getRef());
+        DeviceManager.DevicesRegistered registered = probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+        assertEquals(2, registered.registered);
+        assertEquals(1, registered.alreadyTracked);
+        assertEquals(1, registered.rejected);
+        ActorRef groupActor = probe.getLastSender();
+
+        managerActor.tell(new DeviceManager.RequestTrackDevices(
+                "bulkGroup", new String[]{"device1", "device3"}), probe.getRef());
+        registered = probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+        assertEquals(1, registered.registered);
+        assertEquals(1, registered.alreadyTracked);
+
+        // the device actor is created by the first reading routed to it
+        managerActor.tell(new DeviceManager.RecordTemperatureBatch(
+                1L, new String[]{"bulkGroup"}, new String[]{"device1"}, new double[]{21.0}), probe.getRef());
+        assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).recorded);
+
+        groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+        Map<String, DeviceGroup.TemperatureReading> temperatures =
+                probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).temperatures;
+        assertEquals(new DeviceGroup.Temperature(21.0), temperatures.get("device1"));
+        assertEquals(DeviceGroup.TemperatureNotAvailable.INSTANCE, temperatures.get("device2"));
+        assertEquals(DeviceGroup.TemperatureNotAvailable.INSTANCE, temperatures.get("device3"));
+    }
+
+    @Test
+    public void testRejectNullDeviceIdsInBulk() {
+        TestKit probe = new TestKit(system);
+        ActorRef managerActor = system.actorOf(DeviceManager.props());
+
+        managerActor.tell(new DeviceManager.RequestTrackDevices(
+                "nullGroup", new String[]{"device1", null}), probe.getRef());
+        DeviceManager.DevicesRegistered registered = probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+        assertEquals(1, registered.registered);
+        assertEquals(0, registered.alreadyTracked);
+        assertEquals(1, registered.rejected);
+        ActorRef groupActor = probe.getLastSender();
+        awaitDeviceList(probe, groupActor, "device1");
+    }
+
+    @Test
+    public void testWarmStartFromMembershipFile() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("warmGroup"));
+        groupActor.tell(new DeviceManager.RequestTrackDevices(
+                "warmGroup", new String[]{"device1", "device2"}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+        groupActor.tell(new DeviceManager.RequestTrackDevice("warmGroup", "device3"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef device3 = probe.getLastSender();
+
+        // a stopped device is removed from the group, and from its file
+        stop(probe, device3);
+        awaitDeviceList(probe, groupActor, "device1", "device2");
+        // changes still in flight to the file are lost when the group stops
+        probe.awaitAssert(() -> {
+            assertTrue(membershipFile("warmGroup").contains("-device3"));
+            return null;
+        });
+        stop(probe, groupActor);
+
+        ActorRef restartedGroup = system.actorOf(DeviceGroup.props("warmGroup"));
+        awaitDeviceList(probe, restartedGroup, "device1", "device2");
+        restartedGroup.tell(new DeviceManager.RequestTrackDevices(
+                "warmGroup", new String[]{"device1", "device4"}), probe.getRef());
+        DeviceManager.DevicesRegistered registered = probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+        assertEquals(1, registered.registered);
+        assertEquals(1, registered.alreadyTracked);
+    }
+
+    @Test
+    public void testDropTornLastLine() throws IOException {
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("tornGroup.members"),
+                "+device1\n+device2\n-device1\n+device3\n+dev".getBytes(StandardCharsets.UTF_8));
+
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("tornGroup"));
+        awaitDeviceList(probe, groupActor, "device2", "device3");
+        stop(probe, groupActor);
+
+        // compacted on start
+        assertEquals(Arrays.asList("+device2", "+device3"), membershipFile("tornGroup"));
+    }
+}
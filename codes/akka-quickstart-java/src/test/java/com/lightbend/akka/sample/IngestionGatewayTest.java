@@ -0,0 +1,233 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.example.iot.Device;
+import com.example.iot.DeviceManager;
+import com.example.iot.IngestionGateway;
+import com.example.iot.IotMetrics;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:00 AM
+ * @description ingestion gateway test class
+ */
+public class IngestionGatewayTest {
+    static ActorSystem system;
+
+    static Config config(String overflowStrategy) {
+        return ConfigFactory.parseString(
+                "iot.ingestion.max-in-flight = 4\n" +
+                        "iot.ingestion.batch-size = 2\n" +
+                        "iot.ingestion.overflow-strategy = " + overflowStrategy)
+                .withFallback(ConfigFactory.load());
+    }
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("ingestion", config("reject"));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    static ActorRef trackDevice(ActorSystem system, ActorRef managerActor, String deviceId) {
+        TestKit probe = new TestKit(system);
+        managerActor.tell(new DeviceManager.RequestTrackDevice("group", deviceId), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        return probe.getLastSender();
+    }
+
+    static IngestionGateway.Ingest ingest(long requestId, double... values) {
+        String[] groupIds = new String[values.length];
+        String[] deviceIds = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            groupIds[i] = "group";
+            deviceIds[i] = "device";
+        }
+        return new IngestionGateway.Ingest(requestId, groupIds, deviceIds, values);
+    }
+
+    @Test
+    public void testGrantCreditAsBatchesAreRecorded() {
+        TestKit producer = new TestKit(system);
+        ActorRef managerActor = system.actorOf(DeviceManager.props());
+        ActorRef deviceActor = trackDevice(system, managerActor, "device");
+        ActorRef gatewayActor = system.actorOf(IngestionGateway.props(managerActor));
+
+        gatewayActor.tell(new IngestionGateway.Connect(), producer.getRef());
+        assertEquals(2, producer.expectMsgClass(IngestionGateway.Demand.class).readings);
+
+        // the first batch leaves half of max-in-flight, which is granted right away
+        gatewayActor.tell(ingest(0L, 1.0, 2.0), producer.getRef());
+        assertEquals(2, producer.expectMsgClass(IngestionGateway.Demand.class).readings);
+
+        // the second one uses the rest, more credit follows the acks of the batches
+        gatewayActor.tell(ingest(1L, 3.0, 4.0), producer.getRef());
+        assertEquals(2, producer.expectMsgClass(IngestionGateway.Demand.class).readings);
+
+        TestKit probe = new TestKit(system);
+        probe.awaitAssert(() -> {
+            deviceActor.tell(new Device.ReadTemperature(2L), probe.getRef());
+            assertEquals(Optional.of(4.0), probe.expectMsgClass(Device.RespondTemperature.class).value);
+            return null;
+        });
+    }
+
+    @Test
+    public void testKeepTimedOutBatchesInFlightUntilAcknowledged() {
+        ActorSystem timeoutSystem = ActorSystem.create("ingestion-timeout", ConfigFactory.parseString(
+                "iot.ingestion.batch-timeout = 100ms").withFallback(config("reject")));
+        try {
+            IotMetrics metrics = IotMetrics.get(timeoutSystem);
+            TestKit producer = new TestKit(timeoutSystem);
+            TestKit manager = new TestKit(timeoutSystem);
+            ActorRef gatewayActor = timeoutSystem.actorOf(IngestionGateway.props(manager.getRef()));
+
+            gatewayActor.tell(new IngestionGateway.Connect(), producer.getRef());
+            producer.expectMsgClass(IngestionGateway.Demand.class);
+            gatewayActor.tell(ingest(0L, 1.0, 2.0), producer.getRef());
+            producer.expectMsgClass(IngestionGateway.Demand.class);
+            gatewayActor.tell(ingest(1L, 3.0, 4.0), producer.getRef());
+            manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+            manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+
+            // max-in-flight is taken by the unacknowledged batches, their timeout grants no credit
+            producer.expectNoMessage(Duration.ofMillis(300));
+            assertEquals(2, metrics.getIngestionBatchesTimedOut());
+            assertEquals(4, metrics.getIngestionInFlight());
+
+            // the late ack of the first batch does
+            gatewayActor.tell(new DeviceManager.TemperatureBatchRecorded(0L, 2, 0), manager.getRef());
+            assertEquals(2, producer.expectMsgClass(IngestionGateway.Demand.class).readings);
+            assertEquals(2, metrics.getIngestionInFlight());
+        } finally {
+            TestKit.shutdownActorSystem(timeoutSystem);
+        }
+    }
+
+    @Test
+    public void testStopWithTheManager() {
+        ActorSystem stopSystem = ActorSystem.create("ingestion-stop", config("reject"));
+        try {
+            IotMetrics metrics = IotMetrics.get(stopSystem);
+            TestKit producer = new TestKit(stopSystem);
+            TestKit manager = new TestKit(stopSystem);
+            ActorRef gatewayActor = stopSystem.actorOf(IngestionGateway.props(manager.getRef()));
+            producer.watch(gatewayActor);
+
+            gatewayActor.tell(new IngestionGateway.Connect(), producer.getRef());
+            producer.expectMsgClass(IngestionGateway.Demand.class);
+            gatewayActor.tell(ingest(0L, 1.0, 2.0), producer.getRef());
+            producer.expectMsgClass(IngestionGateway.Demand.class);
+            manager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+            assertEquals(2, metrics.getIngestionInFlight());
+
+            // the batch will never be acknowledged
+            stopSystem.stop(manager.getRef());
+            producer.expectTerminated(gatewayActor);
+            assertEquals(0, metrics.getIngestionInFlight());
+        } finally {
+            TestKit.shutdownActorSystem(stopSystem);
+        }
+    }
+
+    @Test
+    public void testBoundReadingsInFlightUnderOverload() {
+        ActorSystem overloadSystem = ActorSystem.create("ingestion-overload", config("reject"));
+        try {
+            IotMetrics metrics = IotMetrics.get(overloadSystem);
+            TestKit producer = new TestKit(overloadSystem);
+            ActorRef managerActor = overloadSystem.actorOf(DeviceManager.props());
+            trackDevice(overloadSystem, managerActor, "device");
+            ActorRef gatewayActor = overloadSystem.actorOf(IngestionGateway.props(managerActor));
+            gatewayActor.tell(new IngestionGateway.Connect(), producer.getRef());
+
+            // offered regardless of credit, far more than max-in-flight
+            int offered = 0;
+            for (int i = 0; i < 500; i++) {
+                gatewayActor.tell(ingest(i, 1.0, 2.0), producer.getRef());
+                offered += 2;
+                assertTrue(metrics.getIngestionInFlight() <= 4);
+            }
+
+            int total = offered;
+            producer.awaitAssert(Duration.ofSeconds(3), () -> {
+                assertEquals(total, metrics.getIngestionAccepted() + metrics.getIngestionRejected());
+                assertEquals(0, metrics.getIngestionInFlight());
+                return null;
+            });
+            assertTrue(metrics.getIngestionRejected() > 0);
+        } finally {
+            TestKit.shutdownActorSystem(overloadSystem);
+        }
+    }
+
+    @Test
+    public void testRejectReadingsBeyondCredit() {
+        IotMetrics metrics = IotMetrics.get(system);
+        long rejected = metrics.getIngestionRejected();
+        TestKit producer = new TestKit(system);
+        ActorRef managerActor = system.actorOf(DeviceManager.props());
+        trackDevice(system, managerActor, "device");
+        ActorRef gatewayActor = system.actorOf(IngestionGateway.props(managerActor));
+
+        // not connected, so without any credit
+        gatewayActor.tell(ingest(3L, 1.0), producer.getRef());
+        assertEquals(3L, producer.expectMsgClass(IngestionGateway.Rejected.class).requestId);
+
+        gatewayActor.tell(new IngestionGateway.Connect(), producer.getRef());
+        producer.expectMsgClass(IngestionGateway.Demand.class);
+        gatewayActor.tell(ingest(4L, 1.0, 2.0, 3.0), producer.getRef());
+        assertEquals(4L, producer.expectMsgClass(IngestionGateway.Rejected.class).requestId);
+        assertEquals(rejected + 4, metrics.getIngestionRejected());
+
+        // the rejected readings took no credit
+        gatewayActor.tell(ingest(5L, 1.0, 2.0), producer.getRef());
+        producer.expectMsgClass(IngestionGateway.Demand.class);
+    }
+
+    @Test
+    public void testShedReadingsBeyondCredit() {
+        ActorSystem shedSystem = ActorSystem.create("ingestion-shed", config("shed"));
+        try {
+            IotMetrics metrics = IotMetrics.get(shedSystem);
+            TestKit producer = new TestKit(shedSystem);
+            ActorRef managerActor = shedSystem.actorOf(DeviceManager.props());
+            ActorRef deviceActor = trackDevice(shedSystem, managerActor, "device");
+            ActorRef gatewayActor = shedSystem.actorOf(IngestionGateway.props(managerActor));
+
+            gatewayActor.tell(new IngestionGateway.Connect(), producer.getRef());
+            producer.expectMsgClass(IngestionGateway.Demand.class);
+            gatewayActor.tell(ingest(0L, 1.0, 2.0, 3.0), producer.getRef());
+            producer.expectMsgClass(IngestionGateway.Demand.class);
+            assertEquals(2, metrics.getIngestionAccepted());
+            assertEquals(1, metrics.getIngestionShed());
+
+            TestKit probe = new TestKit(shedSystem);
+            probe.awaitAssert(Duration.ofSeconds(3), () -> {
+                deviceActor.tell(new Device.ReadTemperature(1L), probe.getRef());
+                assertEquals(Optional.of(2.0), probe.expectMsgClass(Device.RespondTemperature.class).value);
+                return null;
+            });
+        } finally {
+            TestKit.shutdownActorSystem(shedSystem);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.example.iot.IotSettings;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:38 AM
+ * @description ingest and query dispatchers test class
+ */
+public class IotDispatchersTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("dispatchers", ConfigFactory.parseString(
+                "iot.dispatchers.ingest = \"iot.ingest-dispatcher\"\n" +
+                        "iot.dispatchers.query = \"iot.query-dispatcher\"")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testRunDevicesAndQueriesOnTheirDispatchers() {
+        TestKit probe = new TestKit(system);
+        ActorRef managerActor = system.actorOf(DeviceManager.props());
+        for (int i = 0; i < 10; i++) {
+            managerActor.tell(new DeviceManager.RequestTrackDevice("group", "device" + i), probe.getRef());
+            probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        }
+        managerActor.tell(new DeviceManager.RecordTemperatureBatch(
+                0L, new String[]{"group", "group"}, new String[]{"device1", "device2"}, new double[]{1.0, 2.0}),
+                probe.getRef());
+        assertEquals(2, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).recorded);
+
+        managerActor.tell(new DeviceManager.RequestAllGroupsTemperatures(1L, new FiniteDuration(3, TimeUnit.SECONDS)), probe.getRef());
+        DeviceManager.RespondAllGroupsTemperatures response =
+                probe.expectMsgClass(DeviceManager.RespondAllGroupsTemperatures.class);
+        assertEquals(new DeviceGroup.Temperature(2.0), response.temperatures.get("group").get("device2"));
+
+        assertTrue(hasThread("dispatchers-iot.ingest-dispatcher-"));
+        assertTrue(hasThread("dispatchers-iot.query-dispatcher-"));
+    }
+
+    private static boolean hasThread(String prefix) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectUnknownDispatcher() {
+        new IotSettings(ConfigFactory.parseString("iot.dispatchers.query = \"iot.no-such-dispatcher\"")
+                .withFallback(ConfigFactory.load()));
+    }
+}
@@ -0,0 +1,149 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.example.iot.Device;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.example.iot.IotMetrics;
+import com.example.iot.LatencyHistogram;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:07 AM
+ * @description iot metrics test class
+ */
+public class IotMetricsTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("metrics", ConfigFactory.parseString(
+                "iot.metrics.http.port = 0\n" +
+                        "iot.metrics.instrument-device-mailboxes = on")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void testHistogramPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10000, histogram.count());
+        assertEquals(5000.5, histogram.mean(), 0.001);
+        assertWithinPrecision(5000, histogram.percentile(50));
+        assertWithinPrecision(9900, histogram.percentile(99));
+        assertWithinPrecision(10000, histogram.max());
+        assertEquals(0, new LatencyHistogram().percentile(99));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+
+    @Test
+    public void testCountReadingsQueriesAndGroupMessages() throws Exception {
+        IotMetrics metrics = IotMetrics.get(system);
+        long recordedBefore = metrics.getReadingsRecorded();
+        long queriesBefore = metrics.getGroupQueries();
+
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("metricsGroup"));
+        groupActor.tell(new DeviceManager.RequestTrackDevice("metricsGroup", "device1"), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        ActorRef deviceActor = probe.getLastSender();
+
+        deviceActor.tell(new Device.RecordTemperature(0L, 1.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        groupActor.tell(new DeviceGroup.RecordTemperatureBatch(1L, new String[]{"device1", "device1"}, new double[]{2.0, 3.0}),
+                probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+        probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+        assertEquals(recordedBefore + 3, metrics.getReadingsRecorded());
+        assertEquals(queriesBefore + 1, metrics.getGroupQueries());
+        assertEquals(Long.valueOf(3), metrics.getGroupMessages().get("metricsGroup"));
+        assertTrue(metrics.getMailboxDepthMax() >= 1);
+
+        ObjectName name = new ObjectName("com.example.iot:type=IotMetrics,system=\"metrics\"");
+        assertEquals(metrics.getReadingsRecorded(),
+                ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ReadingsRecorded"));
+
+        String body = get(metrics.httpAddress());
+        assertTrue(body, body.contains("iot_readings_recorded_total " + metrics.getReadingsRecorded()));
+        assertTrue(body, body.contains("iot_group_messages_total{group=\"metricsGroup\"} 3"));
+    }
+
+    @Test
+    public void testKeepGroupMetricsWhileAnotherActorOfTheGroupRuns() {
+        IotMetrics metrics = IotMetrics.get(system);
+        String groupId = "quoted \"group\"\\\n";
+        TestKit probe = new TestKit(system);
+        ActorRef first = system.actorOf(DeviceGroup.props(groupId));
+        ActorRef second = system.actorOf(DeviceGroup.props(groupId));
+        first.tell(new DeviceGroup.RequestDeviceList(0L), probe.getRef());
+        probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class);
+        second.tell(new DeviceGroup.RequestDeviceList(1L), probe.getRef());
+        probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class);
+
+        probe.watch(first);
+        first.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(first);
+        assertTrue(metrics.getGroupMessages().containsKey(groupId));
+        assertTrue(metrics.render(), metrics.render().contains(
+                "iot_group_messages_total{group=\"quoted \\\"group\\\"\\\\\\n\"} "));
+
+        probe.watch(second);
+        second.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(second);
+        probe.awaitAssert(() -> {
+            assertFalse(metrics.getGroupMessages().containsKey(groupId));
+            return null;
+        });
+    }
+
+    private static String get(InetSocketAddress address) throws Exception {
+        URL url = new URL("http://" + address.getHostString() + ":" + address.getPort() + "/metrics");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            assertEquals(200, connection.getResponseCode());
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
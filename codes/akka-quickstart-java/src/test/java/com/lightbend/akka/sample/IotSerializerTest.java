@@ -0,0 +1,183 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import akka.testkit.javadsl.TestKit;
+import com.example.iot.Device;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.example.iot.IngestionGateway;
+import com.example.iot.IotSerializer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,3:06 AM
+ * @description iot serializer test class
+ */
+public class IotSerializerTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static SerializerWithStringManifest serializerFor(Object message) {
+        Serializer serializer = SerializationExtension.get(system).findSerializerFor(message);
+        assertTrue("serialized with " + serializer.getClass(), serializer instanceof IotSerializer);
+        return (SerializerWithStringManifest) serializer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T message) {
+        Serialization serialization = SerializationExtension.get(system);
+        byte[] bytes = serialization.serialize(message).get();
+        SerializerWithStringManifest serializer = serializerFor(message);
+        Object copy = serialization.deserialize(bytes, serializer.identifier(), serializer.manifest(message)).get();
+        assertSame(message.getClass(), copy.getClass());
+        return (T) copy;
+    }
+
+    // for messages without public fields, equal bytes after a round trip mean equal fields
+    private static void assertRoundTripsToSameBytes(Object message) {
+        Serialization serialization = SerializationExtension.get(system);
+        byte[] bytes = serialization.serialize(message).get();
+        assertArrayEquals(message.getClass().getName(), bytes, serialization.serialize(roundTrip(message)).get());
+    }
+
+    @Test
+    public void testRoundTripRequests() {
+        FiniteDuration second = new FiniteDuration(1, TimeUnit.SECONDS);
+        Object[] messages = {
+                new Device.RecordTemperature(1L, 21.5),
+                new Device.RecordTemperatures(2L, new double[]{1.0, -2.5, Double.NaN}),
+                new Device.ReadTemperatureHistory(3L, -5L, Long.MAX_VALUE),
+                new Device.SubscribeThreshold(4L, -10.0, 30.0, second),
+                new Device.SubscribeThreshold(5L, 0.0, 0.0, null),
+                new DeviceManager.RequestTrackDevice("group", "device"),
+                new DeviceManager.DeviceRegistered(),
+                new DeviceManager.RequestTrackDevices("group", new String[]{"d1", "d2", "d3"}),
+                new DeviceManager.RecordTemperatureBatch(6L,
+                        new String[]{"g1", "g2", "g1"}, new String[]{"d1", "d1", "d2"}, new double[]{1.0, 2.0, 3.0}, true),
+                new DeviceManager.RequestAllGroupsTemperatures(7L, second),
+                new DeviceGroup.RequestDeviceList(8L),
+                new DeviceGroup.GroupEnvelope("g1", new DeviceGroup.RequestAllTemperatures(8L, second)),
+                new DeviceGroup.RecordTemperatureBatch(9L, new String[]{"d1", "d2", "d1"}, new double[]{1.0, 2.0, 3.0}),
+                new DeviceGroup.RequestAllTemperatures(10L),
+                new DeviceGroup.RequestAllTemperatures(11L, second),
+                new DeviceGroup.RequestAllTemperaturesStreaming(12L, 100, second, null),
+                new IngestionGateway.Connect(),
+                new IngestionGateway.Ingest(13L, new String[]{"g1", "g1"}, new String[]{"d1", "d2"}, new double[]{4.0, 5.0}),
+        };
+        for (Object message : messages) {
+            assertRoundTripsToSameBytes(message);
+        }
+    }
+
+    @Test
+    public void testRoundTripReplies() {
+        assertEquals(Optional.of(22.5), roundTrip(new Device.RespondTemperature(1L, Optional.of(22.5))).value);
+        assertEquals(Optional.empty(), roundTrip(new Device.RespondTemperature(2L, Optional.empty())).value);
+        assertEquals(3L, roundTrip(new Device.TemperatureRecorded(3L)).requestId);
+
+        Device.RespondTemperatureHistory history = roundTrip(new Device.RespondTemperatureHistory(
+                4L, new long[]{1000L, 1500L, 1400L}, new double[]{1.0, 2.0, 3.0}));
+        assertEquals(4L, history.requestId);
+        assertArrayEquals(new long[]{1000L, 1500L, 1400L}, history.timestamps);
+        assertArrayEquals(new double[]{1.0, 2.0, 3.0}, history.values, 0.0);
+
+        Device.RespondRollups rollups = roundTrip(new Device.RespondRollups(5L, new long[]{0L, 60000L},
+                new int[]{3, 1}, new double[]{1.0, 4.0}, new double[]{3.0, 4.0}, new double[]{2.0, 4.0}));
+        assertArrayEquals(new long[]{0L, 60000L}, rollups.windowStarts);
+        assertArrayEquals(new int[]{3, 1}, rollups.counts);
+        assertArrayEquals(new double[]{2.0, 4.0}, rollups.means, 0.0);
+
+        Device.ThresholdCrossed crossed = roundTrip(
+                new Device.ThresholdCrossed(6L, "group", "device", Device.ThresholdState.ABOVE, 31.0, 1234L));
+        assertEquals("device", crossed.deviceId);
+        assertEquals(Device.ThresholdState.ABOVE, crossed.state);
+        assertEquals(1234L, crossed.timestamp);
+
+        DeviceManager.TemperatureBatchRecorded recorded = roundTrip(new DeviceManager.TemperatureBatchRecorded(7L, 10, 2));
+        assertEquals(10, recorded.recorded);
+        assertEquals(2, recorded.rejected);
+
+        DeviceManager.DevicesRegistered registered = roundTrip(new DeviceManager.DevicesRegistered("group", 3, 2, 1));
+        assertEquals("group", registered.groupId);
+        assertEquals(3, registered.registered);
+        assertEquals(2, registered.alreadyTracked);
+        assertEquals(1, registered.rejected);
+
+        assertEquals(new HashSet<>(Arrays.asList("d1", "d2")),
+                roundTrip(new DeviceGroup.ReplyDeviceList(8L, new HashSet<>(Arrays.asList("d1", "d2")))).ids);
+        assertEquals(128, roundTrip(new IngestionGateway.Demand(128)).readings);
+
+        DeviceGroup.GroupEnvelope envelope = roundTrip(new DeviceGroup.GroupEnvelope(
+                "group", new DeviceGroup.RecordTemperatureBatch(9L, new String[]{"d1"}, new double[]{1.0})));
+        assertEquals("group", envelope.groupId);
+        assertSame(DeviceGroup.RecordTemperatureBatch.class, envelope.message.getClass());
+    }
+
+    @Test
+    public void testRoundTripTemperatureReadings() {
+        Map<String, DeviceGroup.TemperatureReading> readings = new HashMap<>();
+        readings.put("device1", new DeviceGroup.Temperature(1.0));
+        readings.put("device2", DeviceGroup.TemperatureNotAvailable.INSTANCE);
+        readings.put("device3", DeviceGroup.DeviceNotAvailable.INSTANCE);
+        readings.put("device4", DeviceGroup.DeviceTimedOut.INSTANCE);
+        assertEquals(readings, roundTrip(new DeviceGroup.RespondAllTemperatures(1L, readings)).temperatures);
+        assertEquals(readings, roundTrip(new DeviceGroup.PartialTemperatures(2L, 3, readings)).temperatures);
+        assertSame(DeviceGroup.DeviceTimedOut.INSTANCE, roundTrip(DeviceGroup.DeviceTimedOut.INSTANCE));
+
+        DeviceManager.RespondAllGroupsTemperatures all = roundTrip(new DeviceManager.RespondAllGroupsTemperatures(
+                3L, Collections.singletonMap("group1", readings), Collections.singleton("group2")));
+        assertEquals(Collections.singletonMap("group1", readings), all.temperatures);
+        assertEquals(Collections.singleton("group2"), all.timedOutGroups);
+    }
+
+    @Test
+    public void testEncodeCompactly() {
+        Serialization serialization = SerializationExtension.get(system);
+        // a varint request id and the raw double
+        assertEquals(9, serialization.serialize(new Device.RecordTemperature(1L, 21.5)).get().length);
+
+        int readings = 1000;
+        String[] groupIds = new String[readings];
+        String[] deviceIds = new String[readings];
+        for (int i = 0; i < readings; i++) {
+            groupIds[i] = "group-" + (i % 2);
+            deviceIds[i] = "device-" + (i % 10);
+        }
+        byte[] batch = serialization.serialize(new DeviceManager.RecordTemperatureBatch(
+                1L, groupIds, deviceIds, new double[readings])).get();
+        // every reading takes its 8 bytes and one byte per id reference, the ids are written once
+        assertTrue("batch took " + batch.length + " bytes", batch.length < readings * 10 + 200);
+    }
+}
@@ -0,0 +1,247 @@
+package com.lightbend.akka.sample;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.example.iot.Device;
+import com.example.iot.DeviceGroup;
+import com.example.iot.DeviceManager;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Charies Gavin
+ *         https:github.com/guobinhit
+ * @date 10/18/26,2:25 AM
+ * @description persistent device and group membership test class
+ */
+public class PersistentDeviceTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("persistence", ConfigFactory.parseString(
+                "akka.persistence.journal.plugin = \"akka.persistence.journal.inmem\"\n" +
+                        "akka.persistence.snapshot-store.plugin = \"akka.persistence.snapshot-store.local\"\n" +
+                        "akka.persistence.snapshot-store.local.dir = \"target/snapshots-" + UUID.randomUUID() + "\"\n" +
+                        "iot.persistence.enabled = on\n" +
+                        "iot.persistence.snapshot-every = 5")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static ActorRef trackDevice(TestKit probe, ActorRef groupActor, String groupId, String deviceId) {
+        groupActor.tell(new DeviceManager.RequestTrackDevice(groupId, deviceId), probe.getRef());
+        probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+        return probe.getLastSender();
+    }
+
+    private static void stop(TestKit probe, ActorRef actor) {
+        probe.watch(actor);
+        actor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        probe.expectTerminated(actor);
+    }
+
+    @Test
+    public void testRecoverReadingsAfterRestart() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("restartGroup"));
+        ActorRef deviceActor = trackDevice(probe, groupActor, "restartGroup", "device1");
+
+        deviceActor.tell(new Device.RecordTemperature(1L, 21.0), probe.getRef());
+        probe.expectMsgClass(Device.TemperatureRecorded.class);
+        // more readings than snapshot-every, so recovery starts from a snapshot
+        groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                2L, new String[]{"device1", "device1", "device1", "device1", "device1", "device1"},
+                new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+        deviceActor.tell(new Device.ReadTemperatureStats(3L), probe.getRef());
+        assertEquals(7, probe.expectMsgClass(Device.RespondTemperatureStats.class).count);
+
+        stop(probe, groupActor);
+
+        ActorRef restartedGroup = system.actorOf(DeviceGroup.props("restartGroup"));
+        ActorRef restartedDevice = trackDevice(probe, restartedGroup, "restartGroup", "device1");
+        restartedDevice.tell(new Device.ReadTemperatureStats(4L), probe.getRef());
+        Device.RespondTemperatureStats stats = probe.expectMsgClass(Device.RespondTemperatureStats.class);
+        assertEquals(7, stats.count);
+        assertEquals(1.0, stats.min, 0.0);
+        assertEquals(21.0, stats.max, 0.0);
+        restartedDevice.tell(new Device.ReadTemperature(5L), probe.getRef());
+        assertEquals(Optional.of(6.0), probe.expectMsgClass(Device.RespondTemperature.class).value);
+    }
+
+    @Test
+    public void testRecoverMembershipWithoutReregistration() {
+        TestKit probe = new TestKit(system);
+        ActorRef groupActor = system.actorOf(DeviceGroup.props("membershipGroup"));
+        for (int i = 0; i < 12; i++) {
+            trackDevice(probe, groupActor, "membershipGroup", "device" + i);
+        }
+        groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                1L, new String[]{"device3"}, new double[]{30.0}), probe.getRef());
+        probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+
+        // the membership is journaled asynchronously, give it the time to reach the journal
+        probe.awaitAssert(Duration.ofSeconds(3), () -> {
+            groupActor.tell(new DeviceGroup.RequestDeviceList(2L), probe.getRef());
+            assertEquals(12, probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).ids.size());
+            return null;
+        });
+        probe.expectNoMessage(Duration.ofMillis(200));
+        stop(probe, groupActor);
+
+        ActorRef restartedGroup = system.actorOf(DeviceGroup.props("membershipGroup"));
+        probe.awaitAssert(Duration.ofSeconds(3), () -> {
+            restartedGroup.tell(new DeviceGroup.RequestDeviceList(3L), probe.getRef());
+            assertEquals(12, probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).ids.size());
+            return null;
+        });
+
+        // the first query starts the recovered devices, which answer with their journaled readings
+        restartedGroup.tell(new DeviceGroup.RequestAllTemperatures(4L), probe.getRef());
+        DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+        assertEquals(12, response.temperatures.size());
+        assertEquals(new DeviceGroup.Temperature(30.0), response.temperatures.get("device3"));
+        assertEquals(DeviceGroup.TemperatureNotAvailable.INSTANCE, response.temperatures.get("device4"));
+    }
+
+    @Test
+    public void testAnswerRecoveredReadingsFromGroupSnapshot() {
+        ActorSystem snapshotSystem = ActorSystem.create("persistence-snapshot", ConfigFactory.parseString(
+                "iot.group.snapshot-staleness = 50ms").withFallback(system.settings().config()));
+        try {
+            TestKit probe = new TestKit(snapshotSystem);
+            ActorRef groupActor = snapshotSystem.actorOf(DeviceGroup.props("snapshotGroup"));
+            ActorRef deviceActor = trackDevice(probe, groupActor, "snapshotGroup", "device1");
+            trackDevice(probe, groupActor, "snapshotGroup", "device2");
+            deviceActor.tell(new Device.RecordTemperature(1L, 25.0), probe.getRef());
+            probe.expectMsgClass(Device.TemperatureRecorded.class);
+            probe.expectNoMessage(Duration.ofMillis(200));
+            stop(probe, groupActor);
+
+            ActorRef restartedGroup = snapshotSystem.actorOf(DeviceGroup.props("snapshotGroup"));
+            probe.awaitAssert(Duration.ofSeconds(3), () -> {
+                restartedGroup.tell(new DeviceGroup.RequestDeviceList(2L), probe.getRef());
+                assertEquals(2, probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).ids.size());
+                return null;
+            });
+
+            // the snapshot lacks the recovered devices, so the first request is answered by a query that starts them
+            restartedGroup.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+            DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+            assertEquals(new DeviceGroup.Temperature(25.0), response.temperatures.get("device1"));
+            assertEquals(DeviceGroup.TemperatureNotAvailable.INSTANCE, response.temperatures.get("device2"));
+
+            // and the started devices keep the snapshot up to date from then on
+            probe.awaitAssert(Duration.ofSeconds(1), () -> {
+                restartedGroup.tell(new DeviceGroup.RequestAllTemperatures(4L), probe.getRef());
+                DeviceGroup.RespondAllTemperatures answer = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+                assertEquals(restartedGroup, probe.getLastSender());
+                assertEquals(new DeviceGroup.Temperature(25.0), answer.temperatures.get("device1"));
+                return null;
+            });
+        } finally {
+            TestKit.shutdownActorSystem(snapshotSystem);
+        }
+    }
+
+    private static ActorSystem faultyJournalSystem(String name, String batchTimeout) {
+        return ActorSystem.create(name, ConfigFactory.parseString(
+                "faulty-journal.class = \"" + FaultyJournal.class.getName() + "\"\n" +
+                        "akka.persistence.journal.plugin = \"faulty-journal\"\n" +
+                        "akka.persistence.snapshot-store.plugin = \"akka.persistence.snapshot-store.local\"\n" +
+                        "akka.persistence.snapshot-store.local.dir = \"target/snapshots-" + UUID.randomUUID() + "\"\n" +
+                        "iot.persistence.enabled = on\n" +
+                        "iot.ingestion.batch-timeout = " + batchTimeout)
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @Test
+    public void testRejectReadingsTheJournalRejected() {
+        ActorSystem faultySystem = faultyJournalSystem("persistence-rejecting", "1 minute");
+        try {
+            TestKit probe = new TestKit(faultySystem);
+            ActorRef groupActor = faultySystem.actorOf(DeviceGroup.props("faultyGroup"));
+            trackDevice(probe, groupActor, "faultyGroup", "rejecting");
+            trackDevice(probe, groupActor, "faultyGroup", "device1");
+
+            groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                    1L, new String[]{"rejecting", "rejecting", "device1"}, new double[]{1.0, 2.0, 3.0}, true),
+                    probe.getRef());
+            // answered by the device, long before the batch would expire
+            DeviceManager.TemperatureBatchRecorded ack =
+                    probe.expectMsgClass(Duration.ofSeconds(3), DeviceManager.TemperatureBatchRecorded.class);
+            assertEquals(1, ack.recorded);
+            assertEquals(2, ack.rejected);
+        } finally {
+            TestKit.shutdownActorSystem(faultySystem);
+        }
+    }
+
+    @Test
+    public void testExpireBatchesADeviceNeverConfirms() {
+        ActorSystem faultySystem = faultyJournalSystem("persistence-stalling", "300ms");
+        try {
+            TestKit probe = new TestKit(faultySystem);
+            ActorRef groupActor = faultySystem.actorOf(DeviceGroup.props("faultyGroup"));
+            trackDevice(probe, groupActor, "faultyGroup", "stalling");
+
+            // the journal answers its writes in order, so nothing else is written after the stalling write
+            groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                    1L, new String[]{"stalling", "stalling"}, new double[]{1.0, 2.0}, true), probe.getRef());
+            probe.expectNoMessage(Duration.ofMillis(150));
+            DeviceManager.TemperatureBatchRecorded ack =
+                    probe.expectMsgClass(Duration.ofSeconds(3), DeviceManager.TemperatureBatchRecorded.class);
+            assertEquals(0, ack.recorded);
+            assertEquals(2, ack.rejected);
+        } finally {
+            TestKit.shutdownActorSystem(faultySystem);
+        }
+    }
+
+    @Test
+    public void testCountRecoveredRollupsOnceAfterPassivation() {
+        ActorSystem rollupSystem = ActorSystem.create("persistence-rollups", ConfigFactory.parseString(
+                "iot.device.rollups.minute-windows = 10\n" +
+                        "iot.device.passivation-idle-timeout = 300ms").withFallback(system.settings().config()));
+        try {
+            TestKit probe = new TestKit(rollupSystem);
+            ActorRef groupActor = rollupSystem.actorOf(DeviceGroup.props("rollupGroup"));
+            ActorRef deviceActor = trackDevice(probe, groupActor, "rollupGroup", "device1");
+            groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                    1L, new String[]{"device1", "device1", "device1"}, new double[]{1.0, 2.0, 3.0}), probe.getRef());
+            probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+            probe.watch(deviceActor);
+            probe.expectTerminated(Duration.ofSeconds(3), deviceActor);
+
+            // the recreated device recovers all its readings, the group kept their rollups already
+            groupActor.tell(new DeviceGroup.RecordTemperatureBatch(
+                    2L, new String[]{"device1"}, new double[]{4.0}, true), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).recorded);
+            groupActor.tell(new Device.ReadRollups(3L, Device.RollupResolution.MINUTE, 0L, Long.MAX_VALUE), probe.getRef());
+            Device.RespondRollups rollups = probe.expectMsgClass(Device.RespondRollups.class);
+            int count = 0;
+            for (int c : rollups.counts) {
+                count += c;
+            }
+            assertEquals(4, count);
+        } finally {
+            TestKit.shutdownActorSystem(rollupSystem);
+        }
+    }
+}
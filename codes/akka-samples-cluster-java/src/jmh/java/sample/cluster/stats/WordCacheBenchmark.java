@@ -0,0 +1,117 @@
+package sample.cluster.stats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Hit rate and memory of the StatsWorker caches on a Zipf distributed stream of
+ * words, like the words of natural language texts. The most frequent word of a
+ * vocabulary of 1,000,000 words is seen twice as often as the second, three
+ * times as often as the third and so on.
+ *
+ * For each policy and size the cache is warmed up with 1,000,000 words, then its
+ * hit rate is measured over the next 5,000,000 words. The retained heap of the
+ * cache is measured after a GC. The unbounded HashMap that StatsWorker used to
+ * keep is measured on the same stream for comparison.
+ *
+ * Run with e.g. {@code sbt "test:runMain sample.cluster.stats.WordCacheBenchmark"}
+ * or with the jmh maven profile, optionally with the Zipf exponent as argument,
+ * 1.0 by default.
+ */
+public class WordCacheBenchmark {
+
+    static final int VOCABULARY = 1000000;
+    static final int WARMUP = 1000000;
+    static final int MEASURED = 5000000;
+    static final int[] SIZES = {1000, 10000, 100000};
+
+    public static void main(String[] args) {
+        double exponent = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        int[] trace = zipfTrace(exponent, WARMUP + MEASURED, new Random(42));
+        System.out.printf("Zipf exponent %.2f, %,d words, %,d distinct%n", exponent, trace.length, distinct(trace));
+        System.out.printf("%-10s %10s %10s %12s %12s%n", "policy", "max-size", "hit rate", "evictions", "heap");
+
+        for (int size : SIZES) {
+            for (String policy : new String[]{"lru", "tinylfu"}) {
+                long before = usedHeap();
+                WordLengthCache cache = WordLengthCache.create(policy, size);
+                long hits = 0;
+                for (int i = 0; i < trace.length; i++) {
+                    if (i == WARMUP) {
+                        hits = cache.hits();
+                    }
+                    String word = word(trace[i]);
+                    if (cache.get(word) == null) {
+                        cache.put(word, word.length());
+                    }
+                }
+                long heap = usedHeap() - before;
+                double hitRate = ((double) (cache.hits() - hits)) / MEASURED;
+                System.out.printf("%-10s %,10d %9.1f%% %,12d %,10d KB%n",
+                        policy, size, hitRate * 100, cache.evictions(), heap / 1024);
+                // keeps the cache reachable until its heap is measured
+                if (cache.size() < 0) {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+
+        long before = usedHeap();
+        Map<String, Integer> unbounded = new HashMap<>();
+        long hits = 0;
+        for (int i = 0; i < trace.length; i++) {
+            String word = word(trace[i]);
+            Integer length = unbounded.get(word);
+            if (length == null) {
+                unbounded.put(word, word.length());
+            } else if (i >= WARMUP) {
+                hits++;
+            }
+        }
+        long heap = usedHeap() - before;
+        System.out.printf("%-10s %,10d %9.1f%% %12s %,10d KB%n",
+                "unbounded", unbounded.size(), 100.0 * hits / MEASURED, "-", heap / 1024);
+    }
+
+    // a new String for every access, as the words of a job are
+    static String word(int rank) {
+        return "word" + rank;
+    }
+
+    static int[] zipfTrace(double exponent, int length, Random random) {
+        double[] cdf = new double[VOCABULARY];
+        double sum = 0.0;
+        for (int rank = 0; rank < VOCABULARY; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, exponent);
+            cdf[rank] = sum;
+        }
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            trace[i] = index >= 0 ? index : Math.min(-index - 1, VOCABULARY - 1);
+        }
+        return trace;
+    }
+
+    static int distinct(int[] trace) {
+        boolean[] seen = new boolean[VOCABULARY];
+        int distinct = 0;
+        for (int rank : trace) {
+            if (!seen[rank]) {
+                seen[rank] = true;
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
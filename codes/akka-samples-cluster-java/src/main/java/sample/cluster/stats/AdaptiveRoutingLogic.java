@@ -0,0 +1,113 @@
+package sample.cluster.stats;
+
+import java.util.Collections;
+import java.util.Map;
+
+import scala.collection.immutable.IndexedSeq;
+import akka.actor.Address;
+import akka.routing.ActorRefRoutee;
+import akka.routing.ActorSelectionRoutee;
+import akka.routing.ConsistentHashingRoutingLogic;
+import akka.routing.Routee;
+import akka.routing.RoutingLogic;
+
+/**
+ * Consistent hashing with two choices. Every word hashes to a first and a second
+ * worker, and goes to the first unless the penalty of its node, see
+ * {@link WorkerLoad}, is more than skewFactor times the penalty of the node of
+ * the second. While the nodes are balanced every word goes to one worker, which
+ * caches it. When a node gets slow, because of a hot word or because it is
+ * overloaded, the words that hash to it move to their second worker, which then
+ * caches them too, instead of piling up in the tail latency of the slow node.
+ *
+ * The penalties are published by the StatsService and read by the actors that
+ * select workers, so they are replaced as a whole and never modified.
+ */
+public class AdaptiveRoutingLogic implements RoutingLogic {
+
+    final ConsistentHashingRoutingLogic hashing;
+    final double skewFactor;
+    // local worker routees have local addresses, their penalty is that of this node
+    final Address selfAddress;
+
+    volatile Map<Address, Double> penalties = Collections.emptyMap();
+
+    public AdaptiveRoutingLogic(ConsistentHashingRoutingLogic hashing, double skewFactor, Address selfAddress) {
+        this.hashing = hashing;
+        this.skewFactor = skewFactor;
+        this.selfAddress = selfAddress;
+    }
+
+    public void setPenalties(Map<Address, Double> penalties) {
+        this.penalties = penalties;
+    }
+
+    @Override
+    public Routee select(Object word, IndexedSeq<Routee> routees) {
+        Routee first = hashing.select(word, routees);
+        Map<Address, Double> current = penalties;
+        if (routees.size() < 2 || current.isEmpty()) {
+            return first;
+        }
+        Routee second = secondChoice(word, first, routees);
+        Double firstPenalty = current.get(addressOf(first));
+        Double secondPenalty = current.get(addressOf(second));
+        // without estimates of both nodes the word stays where it is cached
+        if (firstPenalty == null || secondPenalty == null) {
+            return first;
+        }
+        return firstPenalty > skewFactor * secondPenalty ? second : first;
+    }
+
+    /**
+     * The routee other than first with the highest score for the word, a
+     * rendezvous hash of a rehash of the word's hash code with the address of the
+     * routee. Unlike the ring, it needs no second key for the word, and like the
+     * ring, it does not depend on the order of the routees and changes only for
+     * the words whose second worker left.
+     */
+    Routee secondChoice(Object word, Routee first, IndexedSeq<Routee> routees) {
+        int wordHash = mix(word.hashCode());
+        Routee second = null;
+        int secondScore = 0;
+        for (int i = 0; i < routees.size(); i++) {
+            Routee routee = routees.apply(i);
+            if (routee.equals(first)) {
+                continue;
+            }
+            Address address = addressOf(routee);
+            int score = mix(wordHash ^ (address != null ? address.hashCode() : routee.hashCode()));
+            if (second == null || score > secondScore) {
+                second = routee;
+                secondScore = score;
+            }
+        }
+        return second;
+    }
+
+    // the finalizer of murmur3, every bit of h affects every bit of the result
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    Address addressOf(Routee routee) {
+        Address address;
+        if (routee instanceof ActorRefRoutee) {
+            address = ((ActorRefRoutee) routee).ref().path().address();
+        } else if (routee instanceof ActorSelectionRoutee) {
+            address = ((ActorSelectionRoutee) routee).selection().anchorPath().address();
+        } else {
+            return null;
+        }
+        return normalize(address);
+    }
+
+    Address normalize(Address address) {
+        return address.hasLocalScope() ? selfAddress : address;
+    }
+}
@@ -0,0 +1,70 @@
+package sample.cluster.stats;
+
+/**
+ * Approximate number of times each word was seen recently, a count-min sketch.
+ * Every word has a counter in each of four rows, picked by a different hash of
+ * the word, and its frequency is the smallest of its four counters, as the words
+ * sharing a counter with it can only have added to it. Counters stop at 15, and
+ * once the increments reach ten times the cache size all counters are halved,
+ * so that words that were popular long ago are forgotten.
+ */
+class FrequencySketch {
+
+    static final int ROWS = 4;
+    static final int MAX_COUNT = 15;
+
+    // odd multipliers of the multiply-shift hash of each row
+    private static final int[] MULTIPLIERS = {0x9e3779b1, 0x85ebca77, 0xc2b2ae3d, 0x27d4eb2f};
+
+    // ROWS rows of width counters, one byte each
+    private final byte[] counters;
+    private final int width;
+    private final int shift;
+    private final int halveAfter;
+    private int increments = 0;
+
+    FrequencySketch(int maxSize) {
+        int size = Math.max(maxSize, 16);
+        // a power of two of at least twice the cache size
+        width = Integer.highestOneBit(2 * size - 1) << 1;
+        shift = 32 - Integer.numberOfTrailingZeros(width);
+        counters = new byte[ROWS * width];
+        halveAfter = 10 * size;
+    }
+
+    int frequency(Object item) {
+        int hash = item.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, counters[index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    void increment(Object item) {
+        int hash = item.hashCode();
+        boolean incremented = false;
+        for (int row = 0; row < ROWS; row++) {
+            int i = index(hash, row);
+            if (counters[i] < MAX_COUNT) {
+                counters[i]++;
+                incremented = true;
+            }
+        }
+        if (incremented && ++increments == halveAfter) {
+            halve();
+        }
+    }
+
+    private void halve() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>= 1;
+        }
+        increments >>>= 1;
+    }
+
+    // the top bits of the product pick the counter within the row
+    private int index(int hash, int row) {
+        return row * width + ((hash * MULTIPLIERS[row]) >>> shift);
+    }
+}
@@ -0,0 +1,66 @@
+package sample.cluster.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evicts the least recently used word once the cache is full.
+ */
+public class LruWordLengthCache implements WordLengthCache {
+
+    final int maxSize;
+    final LinkedHashMap<String, Integer> entries;
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+
+    public LruWordLengthCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                if (size() > LruWordLengthCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public Integer get(String word) {
+        Integer length = entries.get(word);
+        if (length == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return length;
+    }
+
+    @Override
+    public void put(String word, int length) {
+        entries.put(word, length);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public long hits() {
+        return hits;
+    }
+
+    @Override
+    public long misses() {
+        return misses;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+}
@@ -1,10 +1,9 @@
 package sample.cluster.stats;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import sample.cluster.stats.StatsMessages.JobFailed;
+import sample.cluster.stats.StatsMessages.PartialResult;
 import sample.cluster.stats.StatsMessages.StatsResult;
 import scala.concurrent.duration.Duration;
 import akka.actor.ActorRef;
@@ -15,11 +14,19 @@ public class StatsAggregator extends AbstractActor {
 
     final int expectedResults;
     final ActorRef replyTo;
-    final List<Integer> results = new ArrayList<>();
-
-    public StatsAggregator(int expectedResults, ActorRef replyTo) {
+    final long jobId;
+    int results = 0;
+    // running aggregate, constant size whatever the number of words
+    final WordLengthStats stats = new WordLengthStats();
+
+    /**
+     * @param expectedResults number of word batches, one PartialResult is expected per batch
+     * @param jobId of the StatsJob, echoed in the reply
+     */
+    public StatsAggregator(int expectedResults, ActorRef replyTo, long jobId) {
         this.expectedResults = expectedResults;
         this.replyTo = replyTo;
+        this.jobId = jobId;
     }
 
     @Override
@@ -30,19 +37,18 @@ public class StatsAggregator extends AbstractActor {
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(Integer.class, wordCount -> {
-                    results.add(wordCount);
-                    if (results.size() == expectedResults) {
-                        int sum = 0;
-                        for (int c : results)
-                            sum += c;
-                        double meanWordLength = ((double) sum) / results.size();
-                        replyTo.tell(new StatsResult(meanWordLength), self());
+                .match(PartialResult.class, partial -> {
+                    results++;
+                    getContext().getParent().tell(new StatsService.WorkerLatency(
+                            sender().path().address(), System.nanoTime() - partial.getSentNanos()), self());
+                    stats.merge(partial.getStats());
+                    if (results == expectedResults) {
+                        replyTo.tell(new StatsResult(stats, jobId), self());
                         getContext().stop(self());
                     }
                 })
                 .match(ReceiveTimeout.class, x -> {
-                    replyTo.tell(new JobFailed("Service unavailable, try again later"),
+                    replyTo.tell(new JobFailed("Service unavailable, try again later", jobId),
                             self());
                     getContext().stop(self());
                 })
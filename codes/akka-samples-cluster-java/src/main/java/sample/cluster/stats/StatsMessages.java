@@ -6,44 +6,229 @@ public interface StatsMessages {
 
     public static class StatsJob implements Serializable {
         private final String text;
+        // echoed in the StatsResult or JobFailed of the job
+        private final long jobId;
 
         public StatsJob(String text) {
+            this(text, 0L);
+        }
+
+        public StatsJob(String text, long jobId) {
             this.text = text;
+            this.jobId = jobId;
         }
 
         public String getText() {
             return text;
         }
+
+        public long getJobId() {
+            return jobId;
+        }
+    }
+
+    // starts a job whose text is sent in chunks, answered with a ChunkRequest
+    // from the actor that takes the chunks
+    public static class StatsStream implements Serializable {
+        // echoed in the StatsResult or JobFailed of the job
+        private final long jobId;
+
+        public StatsStream() {
+            this(0L);
+        }
+
+        public StatsStream(long jobId) {
+            this.jobId = jobId;
+        }
+
+        public long getJobId() {
+            return jobId;
+        }
+    }
+
+    // credit for this many more chunks of a streamed job
+    public static class ChunkRequest implements Serializable {
+        private final int chunks;
+
+        public ChunkRequest(int chunks) {
+            this.chunks = chunks;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+    }
+
+    // a piece of the text of a streamed job, words may span chunks
+    public static class StatsChunk implements Serializable {
+        private final String text;
+        private final boolean last;
+
+        public StatsChunk(String text, boolean last) {
+            this.text = text;
+            this.last = last;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
     }
 
     public static class StatsResult implements Serializable {
-        private final double meanWordLength;
+        private final WordLengthStats stats;
+        private final long jobId;
+
+        public StatsResult(WordLengthStats stats) {
+            this(stats, 0L);
+        }
+
+        public StatsResult(WordLengthStats stats, long jobId) {
+            this.stats = stats;
+            this.jobId = jobId;
+        }
 
-        public StatsResult(double meanWordLength) {
-            this.meanWordLength = meanWordLength;
+        public long getJobId() {
+            return jobId;
         }
 
         public double getMeanWordLength() {
-            return meanWordLength;
+            return stats.getMean();
+        }
+
+        public long getWordCount() {
+            return stats.getCount();
+        }
+
+        public int getMinWordLength() {
+            return stats.getMin();
+        }
+
+        public int getMaxWordLength() {
+            return stats.getMax();
+        }
+
+        // see WordLengthStats.getHistogram
+        public long[] getLengthHistogram() {
+            return stats.getHistogram();
+        }
+
+        // see WordLengthStats.percentile
+        public int getWordLengthPercentile(double fraction) {
+            return stats.percentile(fraction);
         }
 
         @Override
         public String toString() {
-            return "meanWordLength: " + meanWordLength;
+            return "meanWordLength: " + stats.getMean() + ", words: " + stats.getCount() +
+                    ", min: " + stats.getMin() + ", median: " + stats.percentile(0.5) +
+                    ", p99: " + stats.percentile(0.99) + ", max: " + stats.getMax();
+        }
+    }
+
+    // the words of a job that hash to the same worker
+    public static class WordBatch implements Serializable {
+        private final String[] words;
+        // System.nanoTime() of the sender, echoed in the PartialResult
+        private final long sentNanos;
+
+        public WordBatch(String[] words, long sentNanos) {
+            this.words = words;
+            this.sentNanos = sentNanos;
+        }
+
+        public String[] getWords() {
+            return words;
+        }
+
+        public long getSentNanos() {
+            return sentNanos;
+        }
+    }
+
+    // the reply of a worker to a WordBatch
+    public static class PartialResult implements Serializable {
+        private final WordLengthStats stats;
+        private final long sentNanos;
+
+        public PartialResult(WordLengthStats stats, long sentNanos) {
+            this.stats = stats;
+            this.sentNanos = sentNanos;
+        }
+
+        public WordLengthStats getStats() {
+            return stats;
+        }
+
+        public long getSentNanos() {
+            return sentNanos;
+        }
+    }
+
+    // asks a StatsWorker for the counters of its word length cache
+    public static class GetCacheStats implements Serializable {
+    }
+
+    public static class CacheStats implements Serializable {
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        public CacheStats(int size, long hits, long misses, long evictions) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats(size: " + size + ", hits: " + hits + ", misses: " + misses +
+                    ", evictions: " + evictions + ")";
         }
     }
 
     public static class JobFailed implements Serializable {
         private final String reason;
+        private final long jobId;
 
         public JobFailed(String reason) {
+            this(reason, 0L);
+        }
+
+        public JobFailed(String reason, long jobId) {
             this.reason = reason;
+            this.jobId = jobId;
         }
 
         public String getReason() {
             return reason;
         }
 
+        public long getJobId() {
+            return jobId;
+        }
+
         @Override
         public String toString() {
             return "JobFailed(" + reason + ")";
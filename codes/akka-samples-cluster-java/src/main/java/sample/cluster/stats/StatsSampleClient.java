@@ -1,8 +1,12 @@
 package sample.cluster.stats;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -14,10 +18,13 @@ import java.util.concurrent.ThreadLocalRandom;
 
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
-import akka.actor.ActorSelection;
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
 import akka.actor.Address;
 import akka.actor.Cancellable;
 import akka.actor.AbstractActor;
+import akka.actor.Identify;
+import akka.actor.Terminated;
 import akka.cluster.Cluster;
 import akka.cluster.ClusterEvent.UnreachableMember;
 import akka.cluster.ClusterEvent.ReachableMember;
@@ -27,23 +34,112 @@ import akka.cluster.ClusterEvent.MemberUp;
 import akka.cluster.ClusterEvent.ReachabilityEvent;
 import akka.cluster.Member;
 import akka.cluster.MemberStatus;
+import com.typesafe.config.Config;
 
+/**
+ * Sends jobs to the service of a random compute node. With
+ * stats.client.jobs-in-flight = 0 it sends one job every 2 seconds and prints
+ * the results. Otherwise it is a load generator: it keeps that many jobs in
+ * flight, matches the replies to the jobs by their job id, retries failed and
+ * timed out jobs with exponential backoff, and prints the throughput and the
+ * latency percentiles of the completed jobs every report interval. The
+ * percentiles are computed over a sample of at most LATENCY_SAMPLES jobs, so
+ * the memory of the client does not grow with its throughput.
+ *
+ * The service of every node is resolved once with Identify, and watched, so
+ * that sending a job does not look up its path.
+ */
 public class StatsSampleClient extends AbstractActor {
 
+    static final String TEXT = "this is the text that will be analyzed";
+
+    // latencies kept per report, a uniform sample when more jobs complete
+    static final int LATENCY_SAMPLES = 4096;
+
     final String servicePath;
+    final int jobsInFlight;
+    final long jobTimeoutNanos;
+    final FiniteDuration minBackoff;
+    final FiniteDuration maxBackoff;
+    final int maxAttempts;
     final Cancellable tickTask;
+    final Cancellable reportTask;
     final Set<Address> nodes = new HashSet<Address>();
 
+    // resolved services of the nodes, and the same in a list to pick from
+    final Map<Address, ActorRef> services = new HashMap<>();
+    final List<ActorRef> serviceList = new ArrayList<>();
+
+    static final class Job {
+        final long startNanos;
+        long sentNanos;
+        int attempts;
+        // waiting for its retry
+        boolean backingOff;
+
+        Job(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    final Map<Long, Job> jobs = new HashMap<>();
+    long nextJobId = 1;
+
+    // since the last report
+    long reportStartNanos = System.nanoTime();
+    final long[] latencies = new long[LATENCY_SAMPLES];
+    int completed = 0;
+    long maxLatency = 0;
+    int retries = 0;
+    int failed = 0;
+
+    static final class Retry {
+        final long jobId;
+
+        Retry(long jobId) {
+            this.jobId = jobId;
+        }
+    }
+
+    static final class Resolve {
+        final Address node;
+
+        Resolve(Address node) {
+            this.node = node;
+        }
+    }
+
     Cluster cluster = Cluster.get(getContext().system());
 
     public StatsSampleClient(String servicePath) {
         this.servicePath = servicePath;
-        FiniteDuration interval = Duration.create(2, TimeUnit.SECONDS);
+        Config config = getContext().system().settings().config().getConfig("stats.client");
+        jobsInFlight = config.getInt("jobs-in-flight");
+        jobTimeoutNanos = config.getDuration("job-timeout", TimeUnit.NANOSECONDS);
+        minBackoff = Duration.create(config.getDuration("retry.min-backoff", TimeUnit.MILLISECONDS),
+                TimeUnit.MILLISECONDS);
+        maxBackoff = Duration.create(config.getDuration("retry.max-backoff", TimeUnit.MILLISECONDS),
+                TimeUnit.MILLISECONDS);
+        maxAttempts = config.getInt("retry.max-attempts");
+
+        // the tick sends a job, or with jobs in flight checks them for timeouts
+        FiniteDuration interval = Duration.create(jobsInFlight == 0 ? 2 : 1, TimeUnit.SECONDS);
         tickTask = getContext()
                 .system()
                 .scheduler()
                 .schedule(interval, interval, self(), "tick",
                         getContext().dispatcher(), null);
+        if (jobsInFlight > 0) {
+            FiniteDuration reportInterval = Duration.create(
+                    config.getDuration("report-interval", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+            reportTask = getContext()
+                    .system()
+                    .scheduler()
+                    .schedule(reportInterval, reportInterval, self(), "report",
+                            getContext().dispatcher(), null);
+        } else {
+            reportTask = null;
+        }
     }
 
     //subscribe to cluster changes, MemberEvent
@@ -57,45 +153,220 @@ public class StatsSampleClient extends AbstractActor {
     public void postStop() {
         cluster.unsubscribe(self());
         tickTask.cancel();
+        if (reportTask != null) {
+            reportTask.cancel();
+        }
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .matchEquals("tick", t -> !nodes.isEmpty(), t -> {
-                    // just pick any one
-                    List<Address> nodesList = new ArrayList<>(nodes);
-                    Address address = nodesList.get(ThreadLocalRandom.current().nextInt(
-                            nodesList.size()));
-                    ActorSelection service = getContext().actorSelection(address + servicePath);
-                    service.tell(new StatsJob("this is the text that will be analyzed"),
-                            self());
+                .matchEquals("tick", t -> jobsInFlight == 0, t -> {
+                    if (!serviceList.isEmpty()) {
+                        randomService().tell(new StatsJob(TEXT), self());
+                    }
+                })
+                .matchEquals("tick", t -> expireJobs())
+                .matchEquals("report", r -> report())
+                .match(StatsResult.class, result -> jobsInFlight == 0, System.out::println)
+                .match(JobFailed.class, failure -> jobsInFlight == 0, System.out::println)
+                .match(StatsResult.class, result -> {
+                    Job job = jobs.remove(result.getJobId());
+                    // unknown when a retried job gets the reply of an earlier attempt too
+                    if (job != null) {
+                        recordLatency(System.nanoTime() - job.startNanos);
+                        sendJobs();
+                    }
+                })
+                .match(JobFailed.class, failure -> {
+                    Job job = jobs.get(failure.getJobId());
+                    if (job != null && !job.backingOff) {
+                        retry(failure.getJobId(), job);
+                    }
+                })
+                .match(Retry.class, r -> {
+                    Job job = jobs.get(r.jobId);
+                    if (job != null) {
+                        job.backingOff = false;
+                        if (serviceList.isEmpty()) {
+                            retry(r.jobId, job);
+                        } else {
+                            send(r.jobId, job);
+                        }
+                    }
+                })
+                .match(Resolve.class, r -> resolve(r.node))
+                .match(ActorIdentity.class, identity -> {
+                    Address node = (Address) identity.correlationId();
+                    if (!nodes.contains(node) || services.containsKey(node)) {
+                        return;
+                    }
+                    if (identity.getActorRef().isPresent()) {
+                        ActorRef service = identity.getActorRef().get();
+                        getContext().watch(service);
+                        services.put(node, service);
+                        serviceList.add(service);
+                        sendJobs();
+                    } else {
+                        // not started yet on the node
+                        getContext().system().scheduler().scheduleOnce(Duration.create(1, TimeUnit.SECONDS),
+                                self(), new Resolve(node), getContext().dispatcher(), self());
+                    }
+                })
+                .match(Terminated.class, terminated -> {
+                    Address node = terminated.getActor().path().address();
+                    if (services.get(node) == terminated.getActor()) {
+                        removeService(node);
+                        resolve(node);
+                    }
                 })
-                .match(StatsResult.class, System.out::println)
-                .match(JobFailed.class, System.out::println)
                 .match(CurrentClusterState.class, state -> {
-                    nodes.clear();
+                    for (Address node : new ArrayList<>(nodes)) {
+                        removeNode(node);
+                    }
                     for (Member member : state.getMembers()) {
                         if (member.hasRole("compute") && member.status().equals(MemberStatus.up())) {
-                            nodes.add(member.address());
+                            addNode(member.address());
                         }
                     }
                 })
                 .match(MemberUp.class, mUp -> {
                     if (mUp.member().hasRole("compute"))
-                        nodes.add(mUp.member().address());
+                        addNode(mUp.member().address());
                 })
                 .match(MemberEvent.class, other -> {
-                    nodes.remove(other.member().address());
+                    removeNode(other.member().address());
                 })
                 .match(UnreachableMember.class, unreachable -> {
-                    nodes.remove(unreachable.member().address());
+                    removeNode(unreachable.member().address());
                 })
                 .match(ReachableMember.class, reachable -> {
                     if (reachable.member().hasRole("compute"))
-                        nodes.add(reachable.member().address());
+                        addNode(reachable.member().address());
                 })
                 .build();
     }
 
+    private void addNode(Address node) {
+        if (nodes.add(node)) {
+            resolve(node);
+        }
+    }
+
+    private void removeNode(Address node) {
+        nodes.remove(node);
+        removeService(node);
+    }
+
+    private void resolve(Address node) {
+        if (nodes.contains(node)) {
+            getContext().actorSelection(node + servicePath).tell(new Identify(node), self());
+        }
+    }
+
+    private void removeService(Address node) {
+        ActorRef service = services.remove(node);
+        if (service != null) {
+            getContext().unwatch(service);
+            serviceList.remove(service);
+        }
+    }
+
+    private ActorRef randomService() {
+        // just pick any one
+        return serviceList.get(ThreadLocalRandom.current().nextInt(serviceList.size()));
+    }
+
+    // fills the free slots with new jobs
+    private void sendJobs() {
+        while (jobs.size() < jobsInFlight && !serviceList.isEmpty()) {
+            long jobId = nextJobId++;
+            Job job = new Job(System.nanoTime());
+            jobs.put(jobId, job);
+            send(jobId, job);
+        }
+    }
+
+    private void send(long jobId, Job job) {
+        job.attempts++;
+        job.sentNanos = System.nanoTime();
+        randomService().tell(new StatsJob(TEXT, jobId), self());
+    }
+
+    private void retry(long jobId, Job job) {
+        if (job.attempts >= maxAttempts) {
+            jobs.remove(jobId);
+            failed++;
+            sendJobs();
+            return;
+        }
+        retries++;
+        job.backingOff = true;
+        // doubles with every attempt, with up to 50% jitter so that failed jobs do not come back together
+        long backoff = Math.min(maxBackoff.toNanos(), minBackoff.toNanos() << Math.min(job.attempts - 1, 30));
+        long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        getContext().system().scheduler().scheduleOnce(Duration.create(jittered, TimeUnit.NANOSECONDS),
+                self(), new Retry(jobId), getContext().dispatcher(), self());
+    }
+
+    // jobs lost with their node get no reply
+    private void expireJobs() {
+        long now = System.nanoTime();
+        List<Long> expired = new ArrayList<>();
+        for (Map.Entry<Long, Job> entry : jobs.entrySet()) {
+            Job job = entry.getValue();
+            if (!job.backingOff && now - job.sentNanos > jobTimeoutNanos) {
+                expired.add(entry.getKey());
+            }
+        }
+        for (Long jobId : expired) {
+            retry(jobId, jobs.get(jobId));
+        }
+    }
+
+    // reservoir sampling, every completed job of the report is kept with the
+    // same probability
+    private void recordLatency(long nanos) {
+        maxLatency = Math.max(maxLatency, nanos);
+        if (completed < LATENCY_SAMPLES) {
+            latencies[completed] = nanos;
+        } else {
+            int i = ThreadLocalRandom.current().nextInt(completed + 1);
+            if (i < LATENCY_SAMPLES) {
+                latencies[i] = nanos;
+            }
+        }
+        completed++;
+    }
+
+    private void report() {
+        long now = System.nanoTime();
+        double seconds = (now - reportStartNanos) / 1e9;
+        Arrays.sort(latencies, 0, samples());
+        System.out.println(String.format(
+                "%.0f jobs/s, latency ms p50: %.2f, p99: %.2f, p99.9: %.2f, max: %.2f, " +
+                        "retries: %d, failed: %d, in flight: %d, services: %d",
+                completed / seconds, percentile(0.5), percentile(0.99), percentile(0.999),
+                maxLatency / 1e6, retries, failed, jobs.size(), serviceList.size()));
+        reportStartNanos = now;
+        completed = 0;
+        maxLatency = 0;
+        retries = 0;
+        failed = 0;
+    }
+
+    private int samples() {
+        return Math.min(completed, LATENCY_SAMPLES);
+    }
+
+    // of the sorted sampled latencies of the report, in milliseconds
+    private double percentile(double fraction) {
+        int samples = samples();
+        if (samples == 0) {
+            return 0.0;
+        }
+        int index = Math.max(0, (int) Math.ceil(fraction * samples) - 1);
+        return latencies[index] / 1e6;
+    }
+
 }
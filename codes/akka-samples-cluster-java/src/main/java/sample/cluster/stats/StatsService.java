@@ -1,21 +1,116 @@
 package sample.cluster.stats;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import sample.cluster.stats.StatsMessages.JobFailed;
 import sample.cluster.stats.StatsMessages.StatsJob;
+import sample.cluster.stats.StatsMessages.StatsStream;
+import sample.cluster.stats.StatsMessages.WordBatch;
+import scala.collection.immutable.IndexedSeq;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+import scala.collection.JavaConverters;
 import akka.actor.ActorRef;
+import akka.actor.Address;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.AbstractActor;
-import akka.routing.ConsistentHashingRouter.ConsistentHashableEnvelope;
+import akka.cluster.Cluster;
+import akka.cluster.metrics.ClusterMetricsChanged;
+import akka.cluster.metrics.ClusterMetricsExtension;
+import akka.cluster.metrics.NodeMetrics;
+import akka.routing.ConsistentHashingRoutingLogic;
 import akka.routing.FromConfig;
+import akka.routing.GetRoutees;
+import akka.routing.Routee;
+import akka.routing.Routees;
+import akka.routing.RoutingLogic;
+import com.typesafe.config.Config;
 
 public class StatsService extends AbstractActor {
 
+    // bounds of a streamed job, see StatsStreamJob
+    static final int WORDS_PER_BATCH = 1000;
+    static final int MAX_IN_FLIGHT_BATCHES = 16;
+
     // This router is used both with lookup and deploy of routees. If you
     // have a router with only lookup of routees you can use Props.empty()
     // instead of Props.create(StatsWorker.class).
+    // The service only asks the router for its routees, and picks the worker
+    // of every word itself with the same consistent hashing, so that it can
+    // send all words of a job that go to the same worker in one message.
     ActorRef workerRouter = getContext().actorOf(
             FromConfig.getInstance().props(Props.create(StatsWorker.class)),
             "workerRouter");
 
+    // stats.service.routing, consistent-hashing or adaptive
+    final RoutingLogic routingLogic;
+    // only with adaptive routing
+    final AdaptiveRoutingLogic adaptiveLogic;
+    final WorkerLoad workerLoad;
+
+    // the routees change as compute nodes join and leave the cluster
+    final Cancellable refreshTask;
+    IndexedSeq<Routee> routees;
+
+    // the response time of a batch, told by the children that collect the partial results
+    static final class WorkerLatency {
+        final Address worker;
+        final long nanos;
+
+        WorkerLatency(Address worker, long nanos) {
+            this.worker = worker;
+            this.nanos = nanos;
+        }
+    }
+
+    public StatsService() {
+        Config config = getContext().getSystem().settings().config().getConfig("stats.service");
+        ConsistentHashingRoutingLogic hashing =
+                new ConsistentHashingRoutingLogic(getContext().getSystem()).withHashMapper(word -> word);
+        String routing = config.getString("routing");
+        if (routing.equals("adaptive")) {
+            adaptiveLogic = new AdaptiveRoutingLogic(hashing, config.getDouble("adaptive.skew-factor"),
+                    Cluster.get(getContext().getSystem()).selfAddress());
+            workerLoad = new WorkerLoad();
+            routingLogic = adaptiveLogic;
+        } else if (routing.equals("consistent-hashing")) {
+            adaptiveLogic = null;
+            workerLoad = null;
+            routingLogic = hashing;
+        } else {
+            throw new IllegalArgumentException("Unknown stats.service.routing [" + routing + "]");
+        }
+
+        FiniteDuration interval = Duration.create(1, TimeUnit.SECONDS);
+        refreshTask = getContext()
+                .system()
+                .scheduler()
+                .schedule(Duration.Zero(), interval, workerRouter, GetRoutees.getInstance(),
+                        getContext().dispatcher(), self());
+    }
+
+    @Override
+    public void preStart() {
+        if (adaptiveLogic != null) {
+            ClusterMetricsExtension.get(getContext().getSystem()).subscribe(self());
+        }
+    }
+
+    @Override
+    public void postStop() {
+        refreshTask.cancel();
+        if (adaptiveLogic != null) {
+            ClusterMetricsExtension.get(getContext().getSystem()).unsubscribe(self());
+        }
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder()
@@ -23,15 +118,61 @@ public class StatsService extends AbstractActor {
                     String[] words = job.getText().split(" ");
                     ActorRef replyTo = sender();
 
+                    // group the words by the worker they hash to
+                    Map<Routee, List<String>> batches = new HashMap<>();
+                    if (routees != null && !routees.isEmpty()) {
+                        for (String word : words) {
+                            batches.computeIfAbsent(routingLogic.select(word, routees), r -> new ArrayList<>())
+                                    .add(word);
+                        }
+                    }
+                    if (batches.isEmpty()) {
+                        replyTo.tell(new JobFailed("Service unavailable, try again later", job.getJobId()), self());
+                        return;
+                    }
+
                     // create actor that collects replies from workers
                     ActorRef aggregator = getContext().actorOf(
-                            Props.create(StatsAggregator.class, words.length, replyTo));
+                            Props.create(StatsAggregator.class, batches.size(), replyTo, job.getJobId()));
 
-                    // send each word to a worker
-                    for (String word : words) {
-                        workerRouter.tell(new ConsistentHashableEnvelope(word, word),
-                                aggregator);
+                    // send each batch to its worker
+                    long now = System.nanoTime();
+                    for (Map.Entry<Routee, List<String>> batch : batches.entrySet()) {
+                        batch.getKey().send(
+                                new WordBatch(batch.getValue().toArray(new String[0]), now), aggregator);
+                    }
+                })
+                .match(StatsStream.class, stream -> {
+                    if (routees == null || routees.isEmpty()) {
+                        sender().tell(new JobFailed("Service unavailable, try again later", stream.getJobId()), self());
+                        return;
+                    }
+                    // the job asks the sender for the chunks of the text
+                    getContext().actorOf(Props.create(StatsStreamJob.class, routees, routingLogic,
+                            sender(), stream.getJobId(), WORDS_PER_BATCH, MAX_IN_FLIGHT_BATCHES));
+                })
+                .match(Routees.class, r -> {
+                    routees = r.routees();
+                    if (adaptiveLogic != null) {
+                        Set<Address> nodes = new HashSet<>();
+                        for (Routee routee : JavaConverters.seqAsJavaList(routees)) {
+                            nodes.add(adaptiveLogic.addressOf(routee));
+                        }
+                        workerLoad.retainNodes(nodes);
+                        workerLoad.decay();
+                        adaptiveLogic.setPenalties(workerLoad.penalties());
+                    }
+                })
+                .match(WorkerLatency.class, latency -> {
+                    if (workerLoad != null) {
+                        workerLoad.addResponseTime(adaptiveLogic.normalize(latency.worker), latency.nanos);
+                    }
+                })
+                .match(ClusterMetricsChanged.class, metrics -> {
+                    for (NodeMetrics nodeMetrics : metrics.getNodeMetrics()) {
+                        workerLoad.updateCapacity(nodeMetrics);
                     }
+                    adaptiveLogic.setPenalties(workerLoad.penalties());
                 })
                 .build();
     }
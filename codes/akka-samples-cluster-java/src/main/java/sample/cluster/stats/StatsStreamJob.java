@@ -0,0 +1,175 @@
+package sample.cluster.stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import sample.cluster.stats.StatsMessages.ChunkRequest;
+import sample.cluster.stats.StatsMessages.JobFailed;
+import sample.cluster.stats.StatsMessages.PartialResult;
+import sample.cluster.stats.StatsMessages.StatsChunk;
+import sample.cluster.stats.StatsMessages.StatsResult;
+import sample.cluster.stats.StatsMessages.WordBatch;
+import scala.collection.immutable.IndexedSeq;
+import scala.concurrent.duration.Duration;
+import akka.actor.ActorRef;
+import akka.actor.ReceiveTimeout;
+import akka.actor.AbstractActor;
+import akka.routing.Routee;
+import akka.routing.RoutingLogic;
+
+/**
+ * Takes the text of a streamed job chunk by chunk, splits it into words as it
+ * arrives and sends the words to the workers in batches. The requester is
+ * granted more chunks only while fewer than maxInFlight batches wait for their
+ * worker, so the words of a job in memory are bounded by the chunks and
+ * batches in flight, whatever the size of the text. A job with a word longer
+ * than MAX_WORD_LENGTH fails.
+ */
+public class StatsStreamJob extends AbstractActor {
+
+    // chunks requested ahead, so the next chunk is on its way while one is split
+    static final int CHUNKS_AHEAD = 2;
+
+    // longest word a job accepts. A text without spaces would otherwise be
+    // kept whole in partialWord, however many chunks it spans
+    static final int MAX_WORD_LENGTH = 1024;
+
+    final IndexedSeq<Routee> routees;
+    final RoutingLogic routingLogic;
+    final ActorRef replyTo;
+    final long jobId;
+    final int wordsPerBatch;
+    final int maxInFlight;
+
+    // words of the next batch of every worker
+    final Map<Routee, List<String>> batches = new HashMap<>();
+    // the end of the previous chunk, when it ended within a word
+    final StringBuilder partialWord = new StringBuilder();
+    int chunksRequested = 0;
+    boolean lastChunkReceived = false;
+    int inFlight = 0;
+    final WordLengthStats stats = new WordLengthStats();
+
+    public StatsStreamJob(IndexedSeq<Routee> routees, RoutingLogic routingLogic,
+                          ActorRef replyTo, long jobId, int wordsPerBatch, int maxInFlight) {
+        this.routees = routees;
+        this.routingLogic = routingLogic;
+        this.replyTo = replyTo;
+        this.jobId = jobId;
+        this.wordsPerBatch = wordsPerBatch;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void preStart() {
+        getContext().setReceiveTimeout(Duration.create(3, TimeUnit.SECONDS));
+        requestChunks();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(StatsChunk.class, chunk -> {
+                    chunksRequested--;
+                    if (!split(chunk.getText())) {
+                        replyTo.tell(new JobFailed("Words must be at most "
+                                + MAX_WORD_LENGTH + " characters long", jobId), self());
+                        getContext().stop(self());
+                        return;
+                    }
+                    if (chunk.isLast()) {
+                        lastChunkReceived = true;
+                        addWord();
+                        for (Map.Entry<Routee, List<String>> batch : batches.entrySet()) {
+                            if (!batch.getValue().isEmpty()) {
+                                send(batch.getKey(), batch.getValue());
+                            }
+                        }
+                        batches.clear();
+                        completeIfDone();
+                    } else {
+                        requestChunks();
+                    }
+                })
+                .match(PartialResult.class, partial -> {
+                    inFlight--;
+                    getContext().getParent().tell(new StatsService.WorkerLatency(
+                            sender().path().address(), System.nanoTime() - partial.getSentNanos()), self());
+                    stats.merge(partial.getStats());
+                    if (lastChunkReceived) {
+                        completeIfDone();
+                    } else {
+                        requestChunks();
+                    }
+                })
+                .match(ReceiveTimeout.class, x -> {
+                    replyTo.tell(new JobFailed("Service unavailable, try again later", jobId),
+                            self());
+                    getContext().stop(self());
+                })
+                .build();
+    }
+
+    // splits on single spaces like String.split(" "), but skips empty words.
+    // Returns false when a word is longer than MAX_WORD_LENGTH
+    private boolean split(String text) {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == ' ') {
+                if (partialWord.length() + i - start > MAX_WORD_LENGTH) {
+                    return false;
+                }
+                partialWord.append(text, start, i);
+                addWord();
+                start = i + 1;
+            }
+        }
+        if (partialWord.length() + text.length() - start > MAX_WORD_LENGTH) {
+            return false;
+        }
+        partialWord.append(text, start, text.length());
+        return true;
+    }
+
+    private void addWord() {
+        if (partialWord.length() == 0) {
+            return;
+        }
+        String word = partialWord.toString();
+        partialWord.setLength(0);
+        Routee routee = routingLogic.select(word, routees);
+        List<String> batch = batches.computeIfAbsent(routee, r -> new ArrayList<>());
+        batch.add(word);
+        if (batch.size() == wordsPerBatch) {
+            send(routee, batch);
+            batches.remove(routee);
+        }
+    }
+
+    private void send(Routee routee, List<String> words) {
+        routee.send(new WordBatch(words.toArray(new String[0]), System.nanoTime()), self());
+        inFlight++;
+    }
+
+    private void requestChunks() {
+        if (inFlight < maxInFlight && chunksRequested < CHUNKS_AHEAD) {
+            int chunks = CHUNKS_AHEAD - chunksRequested;
+            chunksRequested += chunks;
+            replyTo.tell(new ChunkRequest(chunks), self());
+        }
+    }
+
+    private void completeIfDone() {
+        if (inFlight == 0) {
+            if (stats.getCount() == 0) {
+                replyTo.tell(new JobFailed("No words in the text", jobId), self());
+            } else {
+                replyTo.tell(new StatsResult(stats, jobId), self());
+            }
+            getContext().stop(self());
+        }
+    }
+}
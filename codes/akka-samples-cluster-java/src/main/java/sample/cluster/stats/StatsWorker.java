@@ -1,25 +1,35 @@
 package sample.cluster.stats;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import sample.cluster.stats.StatsMessages.CacheStats;
+import sample.cluster.stats.StatsMessages.GetCacheStats;
+import sample.cluster.stats.StatsMessages.PartialResult;
+import sample.cluster.stats.StatsMessages.WordBatch;
 import akka.actor.AbstractActor;
 
 public class StatsWorker extends AbstractActor {
 
-    Map<String, Integer> cache = new HashMap<String, Integer>();
+    // bounded, as a long running worker sees an endless number of distinct words
+    final WordLengthCache cache = WordLengthCache.create(
+            getContext().getSystem().settings().config().getConfig("stats.worker-cache"));
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(String.class, word -> {
-                    Integer length = cache.get(word);
-                    if (length == null) {
-                        length = word.length();
-                        cache.put(word, length);
+                .match(WordBatch.class, batch -> {
+                    WordLengthStats stats = new WordLengthStats();
+                    for (String word : batch.getWords()) {
+                        Integer length = cache.get(word);
+                        if (length == null) {
+                            length = word.length();
+                            cache.put(word, length);
+                        }
+                        stats.add(length);
                     }
-                    sender().tell(length, self());
+                    // one reply per batch instead of one per word
+                    sender().tell(new PartialResult(stats, batch.getSentNanos()), self());
                 })
+                .match(GetCacheStats.class, g -> sender().tell(
+                        new CacheStats(cache.size(), cache.hits(), cache.misses(), cache.evictions()), self()))
                 .build();
     }
 }
@@ -0,0 +1,121 @@
+package sample.cluster.stats;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Window TinyLFU: new words enter a small LRU window of 1% of the cache. A word
+ * that falls out of the window is only admitted to the main cache if it was seen
+ * more often than the word the main cache would evict for it, as estimated by a
+ * {@link FrequencySketch}. The main cache is a segmented LRU, words hit a second
+ * time move from its probation segment to its protected segment of 80%. One-off
+ * words therefore cannot push frequent words out, which an LRU lets them do.
+ */
+public class TinyLfuWordLengthCache implements WordLengthCache {
+
+    final int windowMax;
+    final int mainMax;
+    final int protectedMax;
+
+    // in access order, the eldest entry is the least recently used
+    final LinkedHashMap<String, Integer> window = new LinkedHashMap<>(16, 0.75f, true);
+    final LinkedHashMap<String, Integer> probation = new LinkedHashMap<>(16, 0.75f, true);
+    final LinkedHashMap<String, Integer> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    final FrequencySketch sketch;
+
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+
+    public TinyLfuWordLengthCache(int maxSize) {
+        this.windowMax = Math.max(1, maxSize / 100);
+        this.mainMax = maxSize - windowMax;
+        this.protectedMax = mainMax * 4 / 5;
+        this.sketch = new FrequencySketch(maxSize);
+    }
+
+    @Override
+    public Integer get(String word) {
+        sketch.increment(word);
+        Integer length = window.get(word);
+        if (length == null) {
+            length = protectedSegment.get(word);
+        }
+        if (length == null) {
+            length = probation.remove(word);
+            if (length != null) {
+                protectedSegment.put(word, length);
+                if (protectedSegment.size() > protectedMax) {
+                    Map.Entry<String, Integer> demoted = removeEldest(protectedSegment);
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+        }
+        if (length == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return length;
+    }
+
+    @Override
+    public void put(String word, int length) {
+        // a word of the main cache is updated where it is, so that it is never
+        // in two segments
+        if (protectedSegment.replace(word, length) != null || probation.replace(word, length) != null) {
+            return;
+        }
+        window.put(word, length);
+        if (window.size() > windowMax) {
+            Map.Entry<String, Integer> candidate = removeEldest(window);
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private void admit(String candidate, Integer length) {
+        if (mainMax == 0) {
+            evictions++;
+            return;
+        }
+        if (probation.size() + protectedSegment.size() < mainMax) {
+            probation.put(candidate, length);
+            return;
+        }
+        LinkedHashMap<String, Integer> victims = probation.isEmpty() ? protectedSegment : probation;
+        String victim = victims.keySet().iterator().next();
+        evictions++;
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            victims.remove(victim);
+            probation.put(candidate, length);
+        }
+    }
+
+    private static Map.Entry<String, Integer> removeEldest(LinkedHashMap<String, Integer> segment) {
+        Iterator<Map.Entry<String, Integer>> eldest = segment.entrySet().iterator();
+        Map.Entry<String, Integer> entry = eldest.next();
+        eldest.remove();
+        return entry;
+    }
+
+    @Override
+    public int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    @Override
+    public long hits() {
+        return hits;
+    }
+
+    @Override
+    public long misses() {
+        return misses;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,47 @@
+package sample.cluster.stats;
+
+import com.typesafe.config.Config;
+
+/**
+ * Size bounded cache of word lengths of a StatsWorker, with counters of hits,
+ * misses and evictions. Not thread safe, it is owned by one actor.
+ */
+public interface WordLengthCache {
+
+    /**
+     * @return the cached length, or null on a miss
+     */
+    Integer get(String word);
+
+    void put(String word, int length);
+
+    int size();
+
+    long hits();
+
+    long misses();
+
+    long evictions();
+
+    /**
+     * The cache configured under stats.worker-cache: policy lru or tinylfu, and
+     * max-size entries.
+     */
+    static WordLengthCache create(Config config) {
+        return create(config.getString("policy"), config.getInt("max-size"));
+    }
+
+    static WordLengthCache create(String policy, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("max-size must be > 0, was " + maxSize);
+        }
+        switch (policy) {
+            case "lru":
+                return new LruWordLengthCache(maxSize);
+            case "tinylfu":
+                return new TinyLfuWordLengthCache(maxSize);
+            default:
+                throw new IllegalArgumentException("policy must be lru or tinylfu, was " + policy);
+        }
+    }
+}
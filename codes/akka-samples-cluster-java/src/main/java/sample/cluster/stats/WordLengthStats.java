@@ -0,0 +1,86 @@
+package sample.cluster.stats;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Running statistics of word lengths in primitive fields: count, sum, min, max
+ * and a histogram with one bucket per length, where the last bucket counts all
+ * words of at least {@code HISTOGRAM_BUCKETS - 1} characters. Its size does not
+ * depend on the number of words, so partial results of workers and the
+ * aggregate of a whole job take the same constant space.
+ */
+public class WordLengthStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private long count = 0;
+    private long sum = 0;
+    private int min = Integer.MAX_VALUE;
+    private int max = 0;
+    private final long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+    public void add(int length) {
+        count++;
+        sum += length;
+        min = Math.min(min, length);
+        max = Math.max(max, length);
+        histogram[Math.min(length, HISTOGRAM_BUCKETS - 1)]++;
+    }
+
+    public void merge(WordLengthStats other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] += other.histogram[i];
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    // 0 when there are no words
+    public int getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0.0 : ((double) sum) / count;
+    }
+
+    /**
+     * Number of words by length, the last bucket counts the words of at least
+     * {@code HISTOGRAM_BUCKETS - 1} characters.
+     */
+    public long[] getHistogram() {
+        return Arrays.copyOf(histogram, HISTOGRAM_BUCKETS);
+    }
+
+    /**
+     * The smallest length that at least the given fraction of the words do not
+     * exceed, capped at {@code HISTOGRAM_BUCKETS - 1}.
+     */
+    public int percentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int length = 0; length < HISTOGRAM_BUCKETS; length++) {
+            seen += histogram[length];
+            if (seen >= rank && seen > 0) {
+                return length;
+            }
+        }
+        return 0;
+    }
+}
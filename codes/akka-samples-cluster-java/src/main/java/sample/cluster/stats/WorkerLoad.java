@@ -0,0 +1,132 @@
+package sample.cluster.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import scala.Option;
+import akka.actor.Address;
+import akka.cluster.metrics.Metric;
+import akka.cluster.metrics.NodeMetrics;
+import akka.cluster.metrics.StandardMetrics;
+
+/**
+ * Load of the worker nodes as seen by a StatsService: the response times of
+ * their batches, and their capacity from the cluster metrics. The penalty of a
+ * node is its estimated tail response time divided by its capacity.
+ *
+ * Response times are smoothed like TCP round trip times, a mean and a mean
+ * deviation, and the tail estimate is mean + 4 * deviation. A node that gets no
+ * batches has no new samples, so its estimate is halved on every decay, which
+ * lets a node that was avoided while it was slow get batches again.
+ */
+public class WorkerLoad {
+
+    // capacities below this count as this, a node at full load is still preferred to no node
+    static final double MIN_CAPACITY = 0.05;
+
+    static final class ResponseTime {
+        double mean;
+        double deviation;
+        boolean sampled;
+
+        ResponseTime(double sample) {
+            mean = sample;
+            deviation = sample / 2;
+        }
+
+        void add(double sample) {
+            double error = sample - mean;
+            mean += error / 8;
+            deviation += (Math.abs(error) - deviation) / 4;
+            sampled = true;
+        }
+
+        double tail() {
+            return mean + 4 * deviation;
+        }
+    }
+
+    final Map<Address, ResponseTime> responseTimes = new HashMap<>();
+    // 0 to 1, nodes without metrics have a capacity of 1
+    final Map<Address, Double> capacities = new HashMap<>();
+
+    public void addResponseTime(Address node, long nanos) {
+        double millis = nanos / 1000000.0;
+        ResponseTime responseTime = responseTimes.get(node);
+        if (responseTime == null) {
+            responseTimes.put(node, new ResponseTime(millis));
+        } else {
+            responseTime.add(millis);
+        }
+    }
+
+    /**
+     * The capacity of the node from its heap and CPU metrics, the mean of what is
+     * left of its heap, its CPU and its load average per processor, like the mix
+     * metrics selector of the cluster metrics adaptive routers.
+     */
+    public void updateCapacity(NodeMetrics nodeMetrics) {
+        double sum = 0.0;
+        int n = 0;
+        double heapUsed = metric(nodeMetrics, StandardMetrics.HeapMemoryUsed());
+        double heapMax = metric(nodeMetrics, StandardMetrics.HeapMemoryMax());
+        if (Double.isNaN(heapMax)) {
+            heapMax = metric(nodeMetrics, StandardMetrics.HeapMemoryCommitted());
+        }
+        if (!Double.isNaN(heapUsed) && heapMax > 0) {
+            sum += Math.max(0.0, 1.0 - heapUsed / heapMax);
+            n++;
+        }
+        double cpuCombined = metric(nodeMetrics, StandardMetrics.CpuCombined());
+        if (!Double.isNaN(cpuCombined)) {
+            sum += 1.0 - cpuCombined;
+            n++;
+        }
+        double loadAverage = metric(nodeMetrics, StandardMetrics.SystemLoadAverage());
+        double processors = metric(nodeMetrics, StandardMetrics.Processors());
+        if (!Double.isNaN(loadAverage) && processors > 0) {
+            sum += 1.0 - Math.min(loadAverage / processors, 1.0);
+            n++;
+        }
+        if (n > 0) {
+            capacities.put(nodeMetrics.address(), sum / n);
+        }
+    }
+
+    // the latest value of a standard metric, NaN when the node does not report it
+    private static double metric(NodeMetrics nodeMetrics, String name) {
+        Option<Metric> metric = nodeMetrics.metric(name);
+        return metric.isDefined() ? metric.get().value().doubleValue() : Double.NaN;
+    }
+
+    // forgets the nodes that left
+    public void retainNodes(Set<Address> nodes) {
+        responseTimes.keySet().retainAll(nodes);
+        capacities.keySet().retainAll(nodes);
+    }
+
+    // halves the estimates of the nodes without samples since the last decay
+    public void decay() {
+        for (ResponseTime responseTime : responseTimes.values()) {
+            if (!responseTime.sampled) {
+                responseTime.mean /= 2;
+                responseTime.deviation /= 2;
+            }
+            responseTime.sampled = false;
+        }
+    }
+
+    /**
+     * Penalties of the nodes with response times, the higher the slower.
+     */
+    public Map<Address, Double> penalties() {
+        Map<Address, Double> penalties = new HashMap<>();
+        for (Map.Entry<Address, ResponseTime> entry : responseTimes.entrySet()) {
+            Double capacity = capacities.get(entry.getKey());
+            double divisor = capacity == null ? 1.0 : Math.max(capacity, MIN_CAPACITY);
+            penalties.put(entry.getKey(), entry.getValue().tail() / divisor);
+        }
+        return penalties;
+    }
+}
@@ -0,0 +1,107 @@
+package sample.cluster.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import scala.collection.immutable.IndexedSeq;
+import akka.actor.Address;
+import akka.actor.ActorSystem;
+import akka.japi.Util;
+import akka.routing.ActorSelectionRoutee;
+import akka.routing.ConsistentHashingRoutingLogic;
+import akka.routing.Routee;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveRoutingLogicTest {
+
+    static ActorSystem system;
+    static List<Routee> workers;
+    static AdaptiveRoutingLogic logic;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("ClusterSystem", ConfigFactory.parseString(
+                "akka.actor.provider = remote\nakka.extensions = []")
+                .withFallback(ConfigFactory.load()));
+        // workers on three other nodes, nothing is sent to them
+        workers = new ArrayList<>();
+        for (int port = 2551; port <= 2553; port++) {
+            workers.add(new ActorSelectionRoutee(system.actorSelection(
+                    "akka.tcp://ClusterSystem@127.0.0.1:" + port + "/user/statsWorker")));
+        }
+        ConsistentHashingRoutingLogic hashing = new ConsistentHashingRoutingLogic(system).withHashMapper(word -> word);
+        logic = new AdaptiveRoutingLogic(hashing, 2.0, new Address("akka.tcp", "ClusterSystem", "127.0.0.1", 2550));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static IndexedSeq<Routee> routees(List<Routee> workers) {
+        return Util.immutableIndexedSeq(workers);
+    }
+
+    private static Map<Address, Double> penalties(Routee slow, double slowPenalty) {
+        Map<Address, Double> penalties = new HashMap<>();
+        for (Routee worker : workers) {
+            penalties.put(logic.addressOf(worker), worker.equals(slow) ? slowPenalty : 1.0);
+        }
+        return penalties;
+    }
+
+    @Test
+    public void testMoveWordsOfASlowNodeToTheirSecondWorker() {
+        Routee first = logic.hashing.select("word", routees(workers));
+
+        logic.setPenalties(penalties(first, 1.5));
+        assertEquals(first, logic.select("word", routees(workers)));
+
+        logic.setPenalties(penalties(first, 10.0));
+        Routee second = logic.select("word", routees(workers));
+        assertNotEquals(first, second);
+        assertEquals(second, logic.secondChoice("word", first, routees(workers)));
+
+        // the second worker of a word does not depend on the order of the routees
+        List<Routee> reversed = new ArrayList<>(workers);
+        Collections.reverse(reversed);
+        assertEquals(second, logic.select("word", routees(reversed)));
+        logic.setPenalties(Collections.emptyMap());
+    }
+
+    @Test
+    public void testSpreadTheWordsOfASlowNodeOverTheOthers() {
+        Routee slow = workers.get(0);
+        logic.setPenalties(penalties(slow, 10.0));
+        Set<Routee> seconds = new HashSet<>();
+        int moved = 0;
+        for (int i = 0; i < 300; i++) {
+            String word = "word" + i;
+            if (logic.hashing.select(word, routees(workers)).equals(slow)) {
+                Routee chosen = logic.select(word, routees(workers));
+                assertNotEquals(slow, chosen);
+                seconds.add(chosen);
+                moved++;
+            }
+        }
+        logic.setPenalties(Collections.emptyMap());
+        assertTrue(moved > 0);
+        assertEquals(new HashSet<>(Arrays.asList(workers.get(1), workers.get(2))), seconds);
+    }
+}
@@ -0,0 +1,40 @@
+package sample.cluster.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testCountUpToMaxCount() {
+        FrequencySketch sketch = new FrequencySketch(100);
+        for (int i = 0; i < 3; i++) {
+            sketch.increment("word");
+        }
+        assertEquals(3, sketch.frequency("word"));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("word");
+        }
+        assertEquals(FrequencySketch.MAX_COUNT, sketch.frequency("word"));
+    }
+
+    @Test
+    public void testHalveAllCountersAfterTenTimesTheSize() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < FrequencySketch.MAX_COUNT; i++) {
+            sketch.increment("word");
+        }
+        // the other words can only add to the counters of word, until they are halved
+        for (int i = FrequencySketch.MAX_COUNT; i < 10 * 16; i++) {
+            assertEquals(FrequencySketch.MAX_COUNT, sketch.frequency("word"));
+            sketch.increment("other" + i);
+            if (sketch.frequency("word") != FrequencySketch.MAX_COUNT) {
+                assertEquals(FrequencySketch.MAX_COUNT / 2, sketch.frequency("word"));
+                return;
+            }
+        }
+        fail("the counters were not halved");
+    }
+}
@@ -0,0 +1,111 @@
+package sample.cluster.stats;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import sample.cluster.stats.StatsMessages.ChunkRequest;
+import sample.cluster.stats.StatsMessages.JobFailed;
+import sample.cluster.stats.StatsMessages.StatsChunk;
+import sample.cluster.stats.StatsMessages.StatsResult;
+import scala.collection.immutable.IndexedSeq;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.japi.Util;
+import akka.routing.ActorRefRoutee;
+import akka.routing.RoundRobinRoutingLogic;
+import akka.routing.Routee;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatsStreamJobTest {
+
+    static ActorSystem system;
+    static IndexedSeq<Routee> routees;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("StatsStreamJobTest", ConfigFactory.parseString(
+                "akka.actor.provider = local\nakka.extensions = []")
+                .withFallback(ConfigFactory.load()));
+        routees = Util.immutableIndexedSeq(Arrays.<Routee>asList(
+                new ActorRefRoutee(system.actorOf(Props.create(StatsWorker.class))),
+                new ActorRefRoutee(system.actorOf(Props.create(StatsWorker.class)))));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    // streams the chunks as the job asks for them, and returns its answer
+    private static Object stream(TestKit probe, long jobId, String... chunks) {
+        system.actorOf(Props.create(StatsStreamJob.class, routees, new RoundRobinRoutingLogic(),
+                probe.getRef(), jobId, 2, 4));
+        int sent = 0;
+        while (true) {
+            Object message = probe.receiveOne(java.time.Duration.ofSeconds(3));
+            if (!(message instanceof ChunkRequest)) {
+                return message;
+            }
+            for (int i = 0; i < ((ChunkRequest) message).getChunks() && sent < chunks.length; i++, sent++) {
+                probe.getLastSender().tell(new StatsChunk(chunks[sent], sent == chunks.length - 1), probe.getRef());
+            }
+        }
+    }
+
+    @Test
+    public void testJoinWordsThatSpanChunks() {
+        TestKit probe = new TestKit(system);
+        Object answer = stream(probe, 1L, "this is th", "e text th", "at will be analyzed");
+        StatsResult result = (StatsResult) answer;
+        assertEquals(1L, result.getJobId());
+        assertEquals(8, result.getWordCount());
+        assertEquals(3.875, result.getMeanWordLength(), 0.001);
+        assertEquals(8, result.getMaxWordLength());
+    }
+
+    @Test
+    public void testSkipEmptyChunksAndEmptyWords() {
+        TestKit probe = new TestKit(system);
+        StatsResult result = (StatsResult) stream(probe, 2L, "", "this  is", "", " the", "");
+        assertEquals(2L, result.getJobId());
+        assertEquals(3, result.getWordCount());
+        assertEquals(3.0, result.getMeanWordLength(), 0.001);
+    }
+
+    @Test
+    public void testAcceptWordsOfMaxWordLength() {
+        TestKit probe = new TestKit(system);
+        String half = String.join("", Collections.nCopies(StatsStreamJob.MAX_WORD_LENGTH / 2, "x"));
+        StatsResult result = (StatsResult) stream(probe, 3L, "a " + half, half + " b");
+        assertEquals(3, result.getWordCount());
+        assertEquals(StatsStreamJob.MAX_WORD_LENGTH, result.getMaxWordLength());
+    }
+
+    @Test
+    public void testFailJobsWithLongerWords() {
+        TestKit probe = new TestKit(system);
+        String half = String.join("", Collections.nCopies(StatsStreamJob.MAX_WORD_LENGTH / 2, "x"));
+        // too long only once the second chunk is joined to the first
+        Object answer = stream(probe, 4L, "a " + half, half + "x b");
+        assertTrue(answer instanceof JobFailed);
+        assertEquals(4L, ((JobFailed) answer).getJobId());
+    }
+
+    @Test
+    public void testFailJobsWithoutWords() {
+        TestKit probe = new TestKit(system);
+        Object answer = stream(probe, 5L, " ", "");
+        assertTrue(answer instanceof JobFailed);
+        assertEquals(5L, ((JobFailed) answer).getJobId());
+    }
+}
@@ -0,0 +1,93 @@
+package sample.cluster.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuWordLengthCacheTest {
+
+    // a window of 1 word, a main cache of 9 words of which 7 protected
+    private static TinyLfuWordLengthCache fullCache() {
+        TinyLfuWordLengthCache cache = new TinyLfuWordLengthCache(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put("w" + i, 2);
+        }
+        assertEquals(1, cache.window.size());
+        assertEquals(9, cache.probation.size());
+        return cache;
+    }
+
+    @Test
+    public void testPromoteWordsHitInProbation() {
+        TinyLfuWordLengthCache cache = new TinyLfuWordLengthCache(100);
+        cache.put("a", 1);
+        cache.put("bb", 2);
+        assertTrue(cache.window.containsKey("bb"));
+        assertTrue(cache.probation.containsKey("a"));
+
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertTrue(cache.protectedSegment.containsKey("a"));
+        assertFalse(cache.probation.containsKey("a"));
+    }
+
+    @Test
+    public void testDemoteTheEldestProtectedWordWhenProtectedIsFull() {
+        TinyLfuWordLengthCache cache = fullCache();
+        for (int i = 0; i < 8; i++) {
+            cache.get("w" + i);
+        }
+        assertEquals(7, cache.protectedSegment.size());
+        assertTrue(cache.probation.containsKey("w0"));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testAdmitOnlyWordsSeenMoreOftenThanTheVictim() {
+        TinyLfuWordLengthCache cache = fullCache();
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.get("hot"));
+        }
+        // w9 leaves the window for hot, but was never seen more often than w0
+        cache.put("hot", 3);
+        assertFalse(cache.probation.containsKey("w9"));
+        assertTrue(cache.probation.containsKey("w0"));
+        assertEquals(1, cache.evictions());
+
+        // hot leaves the window for x, and takes the place of w0
+        cache.put("x", 1);
+        assertTrue(cache.probation.containsKey("hot"));
+        assertFalse(cache.probation.containsKey("w0"));
+        assertEquals(2, cache.evictions());
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testKeepAWordInOneSegmentWhenItIsPutAgain() {
+        TinyLfuWordLengthCache cache = new TinyLfuWordLengthCache(100);
+        cache.put("a", 1);
+        cache.put("bb", 2);
+        cache.put("a", 5);
+        assertEquals(2, cache.size());
+        assertTrue(cache.window.containsKey("bb"));
+
+        cache.get("a");
+        cache.put("a", 6);
+        assertEquals(2, cache.size());
+        assertEquals(Integer.valueOf(6), cache.protectedSegment.get("a"));
+    }
+
+    @Test
+    public void testCountHitsAndMisses() {
+        TinyLfuWordLengthCache cache = new TinyLfuWordLengthCache(100);
+        assertNull(cache.get("a"));
+        cache.put("a", 1);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0, cache.evictions());
+    }
+}